@@ -0,0 +1,234 @@
+package com.retailsvc.gcp.pubsub;
+
+import io.grpc.Status;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * A load generator for sustained publish throughput and latency. Virtual threads publish in a
+ * closed loop through a {@link PubSubClientFactory} client, each waiting for its publish to
+ * complete before sending the next. Latencies are recorded per call in an HdrHistogram, so a {@code
+ * publishAll} call records the latency of the whole batch.
+ *
+ * <p>After a warm-up, throughput is printed every second, then the percentile distribution of the
+ * run. The results are written as JSON for comparing runs. See {@link LoadTestOptions} for the
+ * options, e.g.
+ *
+ * <pre>
+ * java -cp benchmarks.jar com.retailsvc.gcp.pubsub.LoadTest --threads=256 --mode=publishAll
+ * </pre>
+ */
+public final class LoadTest {
+
+  private final LoadTestOptions options;
+  private final Recorder recorder = new Recorder(3);
+  private final LongAdder messages = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final AtomicBoolean running = new AtomicBoolean(true);
+
+  private LoadTest(LoadTestOptions options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    var options = LoadTestOptions.parse(args);
+    var result = new LoadTest(options).run();
+    result.histogram().outputPercentileDistribution(System.out, 1000.0);
+    System.out.printf(
+        Locale.ROOT,
+        "%d messages, %d errors, %.0f messages/s, p50 %.3f ms, p99 %.3f ms, p999 %.3f ms%n",
+        result.messages(),
+        result.errors(),
+        result.messagesPerSecond(),
+        result.percentileMillis(50),
+        result.percentileMillis(99),
+        result.percentileMillis(99.9));
+    Files.writeString(Path.of(options.output()), result.toJson());
+    System.out.println("Results written to " + options.output());
+  }
+
+  private Result run() throws InterruptedException {
+    var messageList = messages();
+    // The factory closes the in-process backend, as its publisher factory.
+    try (var factory = factory();
+        var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      var client = factory.create(options.topic());
+      try {
+        IntStream.range(0, options.threads())
+            .forEach(thread -> executor.execute(() -> publishLoop(client, messageList, thread)));
+
+        TimeUnit.NANOSECONDS.sleep(options.warmUp().toNanos());
+        recorder.reset();
+        messages.reset();
+        errors.reset();
+        var histogram = measure();
+        return new Result(options, histogram, messages.sum(), errors.sum());
+      } finally {
+        running.set(false);
+      }
+    }
+  }
+
+  /** Print the throughput of every second of the run, and sum up their histograms. */
+  private Histogram measure() throws InterruptedException {
+    var histogram = new Histogram(3);
+    var seconds = options.duration().toSeconds();
+    var published = 0L;
+    for (var second = 1; second <= seconds; second++) {
+      TimeUnit.SECONDS.sleep(1);
+      var interval = recorder.getIntervalHistogram();
+      histogram.add(interval);
+      var total = messages.sum();
+      System.out.printf(
+          Locale.ROOT,
+          "%3ds %8d messages/s, p50 %.3f ms, p99 %.3f ms%n",
+          second,
+          total - published,
+          interval.getValueAtPercentile(50) / 1000.0,
+          interval.getValueAtPercentile(99) / 1000.0);
+      published = total;
+    }
+    return histogram;
+  }
+
+  private void publishLoop(PubSubClient client, List<OutgoingMessage> messageList, int thread) {
+    var next = thread;
+    while (running.get()) {
+      var started = System.nanoTime();
+      try {
+        if (options.mode().equals("publishAll")) {
+          client.publishAll(messageList);
+          messages.add(messageList.size());
+        } else {
+          var message = messageList.get(next++ % messageList.size());
+          client.publishOrdered(message.payload(), message.attributes(), message.orderingKey());
+          messages.increment();
+        }
+        recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+      } catch (PubSubClientException e) {
+        errors.increment();
+      }
+    }
+  }
+
+  private List<OutgoingMessage> messages() {
+    Map<String, String> attributes = new HashMap<>();
+    IntStream.range(0, options.attributes())
+        .forEach(i -> attributes.put("attribute-" + i, "value-" + i));
+    var payload = "x".repeat(options.payloadSize());
+    return IntStream.range(0, options.batchSize())
+        .mapToObj(
+            i ->
+                options.orderingKeys() > 0
+                    ? OutgoingMessage.ordered(
+                        payload, attributes, "key-" + i % options.orderingKeys())
+                    : OutgoingMessage.of(payload, attributes))
+        .toList();
+  }
+
+  private PubSubClientFactory factory() {
+    var config = new PubSubClientConfig().setMessageOrderingEnabled(options.orderingKeys() > 0);
+    PublisherFactory publisherFactory;
+    if (options.backend().equals("in-process")) {
+      publisherFactory =
+          new InProcessPubSub(
+              FaultSettings.none()
+                  .withLatency(options.backendLatency())
+                  .withErrors(options.backendErrorRate(), Status.Code.UNAVAILABLE));
+    } else {
+      if (options.backend().equals("emulator")
+          && System.getenv(EmulatorRedirect.PUBSUB_EMULATOR_HOST) == null) {
+        throw new IllegalStateException("PUBSUB_EMULATOR_HOST is not set");
+      }
+      publisherFactory = options.pooledPublisherFactory();
+    }
+    var factory =
+        publisherFactory == null
+            ? new PubSubClientFactory()
+            : new PubSubClientFactory(publisherFactory);
+    return factory.setClientConfig(config);
+  }
+
+  /** The measured part of a run. */
+  private record Result(LoadTestOptions options, Histogram histogram, long messages, long errors) {
+
+    double messagesPerSecond() {
+      return messages / (options.duration().toNanos() / 1e9);
+    }
+
+    double percentileMillis(double percentile) {
+      return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    String toJson() {
+      return String.format(
+          Locale.ROOT,
+          """
+          {
+            "options": {
+              "backend": "%s",
+              "threads": %d,
+              "durationSeconds": %d,
+              "mode": "%s",
+              "batchSize": %d,
+              "payloadSize": %d,
+              "attributes": %d,
+              "orderingKeys": %d,
+              "pool": "%s",
+              "backendLatencyMedianMillis": %.3f,
+              "backendLatencyP99Millis": %.3f,
+              "backendErrorRate": %.4f
+            },
+            "messages": %d,
+            "errors": %d,
+            "messagesPerSecond": %.1f,
+            "latencyMillis": {
+              "mean": %.3f,
+              "p50": %.3f,
+              "p90": %.3f,
+              "p99": %.3f,
+              "p999": %.3f,
+              "max": %.3f
+            }
+          }
+          """,
+          options.backend(),
+          options.threads(),
+          options.duration().toSeconds(),
+          options.mode(),
+          options.batchSize(),
+          options.payloadSize(),
+          options.attributes(),
+          options.orderingKeys(),
+          options.pool(),
+          millis(options.backendLatencyMedian()),
+          millis(options.backendLatencyP99()),
+          options.backendErrorRate(),
+          messages,
+          errors,
+          messagesPerSecond(),
+          histogram.getMean() / 1000.0,
+          percentileMillis(50),
+          percentileMillis(90),
+          percentileMillis(99),
+          percentileMillis(99.9),
+          histogram.getMaxValue() / 1000.0);
+    }
+
+    private static double millis(Duration duration) {
+      return duration.toNanos() / 1e6;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Options of a {@link LoadTest} run, parsed from {@code --name=value} arguments. Unset options take
+ * the defaults below. Durations are given with their unit as a suffix of the option name, such as
+ * {@code --durationSeconds=60} or {@code --backendLatencyMedianMillis=2.5}.
+ *
+ * @param backend {@code in-process} (default), {@code emulator} at {@code PUBSUB_EMULATOR_HOST}, or
+ *     {@code pubsub} in the project of {@code SERVICE_PROJECT_ID}
+ * @param topic the topic to publish to, which must exist unless the backend is in-process
+ * @param threads the number of virtual threads publishing, 64 by default
+ * @param duration the measured duration, 30 seconds by default
+ * @param warmUp the duration before measuring, 5 seconds by default
+ * @param mode {@code publish} (default) or {@code publishAll}
+ * @param batchSize the messages per {@code publishAll} call, 100 by default
+ * @param payloadSize the payload size in bytes, 256 by default
+ * @param attributes the number of attributes per message, 4 by default
+ * @param orderingKeys the number of distinct ordering keys, 0 by default for unordered messages
+ * @param pool the initial channels, max channels and max RPCs per channel of a {@link
+ *     PooledPublisherFactory}, such as {@code 1,10,100}, or empty for the default publisher factory
+ * @param backendLatencyMedian the median latency of the in-process backend, 0 by default
+ * @param backendLatencyP99 the 99th percentile latency of the in-process backend, the median by
+ *     default
+ * @param backendErrorRate the rate of failed requests of the in-process backend, 0 by default
+ * @param output the file the JSON results are written to, {@code load-test.json} by default
+ */
+record LoadTestOptions(
+    String backend,
+    String topic,
+    int threads,
+    Duration duration,
+    Duration warmUp,
+    String mode,
+    int batchSize,
+    int payloadSize,
+    int attributes,
+    int orderingKeys,
+    String pool,
+    Duration backendLatencyMedian,
+    Duration backendLatencyP99,
+    double backendErrorRate,
+    String output) {
+
+  private static final Set<String> BACKENDS = Set.of("in-process", "emulator", "pubsub");
+  private static final Set<String> MODES = Set.of("publish", "publishAll");
+
+  LoadTestOptions {
+    if (!BACKENDS.contains(backend) || !MODES.contains(mode)) {
+      throw new IllegalArgumentException("Unknown backend or mode");
+    }
+    if (threads < 1 || batchSize < 1 || payloadSize < 0 || attributes < 0 || orderingKeys < 0) {
+      throw new IllegalArgumentException("Invalid threads, batch size or message shape");
+    }
+    if (!duration.isPositive() || warmUp.isNegative()) {
+      throw new IllegalArgumentException("Invalid duration or warm-up");
+    }
+  }
+
+  static LoadTestOptions parse(String[] args) {
+    Map<String, String> values = new HashMap<>();
+    for (var arg : args) {
+      var separator = arg.indexOf('=');
+      if (!arg.startsWith("--") || separator < 0) {
+        throw new IllegalArgumentException("Expected --name=value but got " + arg);
+      }
+      values.put(arg.substring(2, separator), arg.substring(separator + 1));
+    }
+    var backendLatencyMedian = millis(values.remove("backendLatencyMedianMillis"), "0");
+    var options =
+        new LoadTestOptions(
+            string(values.remove("backend"), "in-process"),
+            string(values.remove("topic"), "load-test"),
+            Integer.parseInt(string(values.remove("threads"), "64")),
+            Duration.ofSeconds(Long.parseLong(string(values.remove("durationSeconds"), "30"))),
+            Duration.ofSeconds(Long.parseLong(string(values.remove("warmUpSeconds"), "5"))),
+            string(values.remove("mode"), "publish"),
+            Integer.parseInt(string(values.remove("batchSize"), "100")),
+            Integer.parseInt(string(values.remove("payloadSize"), "256")),
+            Integer.parseInt(string(values.remove("attributes"), "4")),
+            Integer.parseInt(string(values.remove("orderingKeys"), "0")),
+            string(values.remove("pool"), ""),
+            backendLatencyMedian,
+            values.containsKey("backendLatencyP99Millis")
+                ? millis(values.remove("backendLatencyP99Millis"), "0")
+                : backendLatencyMedian,
+            Double.parseDouble(string(values.remove("backendErrorRate"), "0")),
+            string(values.remove("output"), "load-test.json"));
+    if (!values.isEmpty()) {
+      throw new IllegalArgumentException("Unknown options " + values.keySet());
+    }
+    return options;
+  }
+
+  /**
+   * @return the publisher factory of the pool option, or {@code null} if not set
+   */
+  PooledPublisherFactory pooledPublisherFactory() {
+    if (pool.isEmpty()) {
+      return null;
+    }
+    var sizes = pool.split(",");
+    if (sizes.length != 3) {
+      throw new IllegalArgumentException("Expected --pool=initial,max,maxRpcsPerChannel");
+    }
+    return new PooledPublisherFactory(
+        Integer.parseInt(sizes[0].strip()),
+        Integer.parseInt(sizes[1].strip()),
+        Integer.parseInt(sizes[2].strip()));
+  }
+
+  /**
+   * @return the latencies of the in-process backend
+   */
+  LatencyDistribution backendLatency() {
+    if (backendLatencyP99.equals(backendLatencyMedian) || backendLatencyMedian.isZero()) {
+      return LatencyDistribution.fixed(backendLatencyMedian);
+    }
+    return LatencyDistribution.logNormal(backendLatencyMedian, backendLatencyP99);
+  }
+
+  private static String string(String value, String defaultValue) {
+    return value == null ? defaultValue : value;
+  }
+
+  private static Duration millis(String value, String defaultValue) {
+    return Duration.ofNanos(Math.round(Double.parseDouble(string(value, defaultValue)) * 1e6));
+  }
+}
@@ -0,0 +1,82 @@
+package com.retailsvc.gcp.pubsub;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures converting each supported payload type to message bytes. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadEncodingBenchmark {
+
+  @Param({"string", "bytes", "heapBuffer", "directBuffer", "byteString", "inputStream", "mapper"})
+  public String payloadType;
+
+  @Param({"256", "16384"})
+  public int payloadSize;
+
+  @Param({"false", "true"})
+  public boolean zeroCopy;
+
+  private PayloadEncoder encoder;
+  private Object payload;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    var bytes = new byte[payloadSize];
+    Arrays.fill(bytes, (byte) 'x');
+    ObjectToBytesMapper mapper = value -> ByteBuffer.wrap(bytes);
+    encoder = new PayloadEncoder(mapper, zeroCopy);
+    payload =
+        switch (payloadType) {
+          case "string" -> new String(bytes, UTF_8);
+          case "bytes" -> bytes;
+          case "heapBuffer" -> ByteBuffer.wrap(bytes);
+          case "directBuffer" -> ByteBuffer.allocateDirect(payloadSize).put(bytes).flip();
+          case "byteString" -> ByteString.copyFrom(bytes);
+          case "inputStream" -> new ByteArrayInputStream(bytes);
+          case "mapper" -> new Object();
+          default -> throw new IllegalArgumentException(payloadType);
+        };
+  }
+
+  @Benchmark
+  public EncodedPayload encode() {
+    return encoder.encode(readablePayload());
+  }
+
+  /**
+   * Buffers and streams are consumed when copied. Buffers are duplicated, which allocates a small
+   * view object per call, and streams are rewound.
+   */
+  private Object readablePayload() {
+    return switch (payload) {
+      case ByteBuffer buffer -> buffer.duplicate();
+      case ByteArrayInputStream stream -> {
+        stream.reset();
+        yield stream;
+      }
+      default -> payload;
+    };
+  }
+}
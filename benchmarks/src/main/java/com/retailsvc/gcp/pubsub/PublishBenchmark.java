@@ -0,0 +1,96 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures publishing through a client backed by an in-process gRPC Pub/Sub stand-in. A backend
+ * latency of zero acts as a fake publisher that acknowledges immediately, isolating client
+ * overhead, while a non-zero latency shows how well each publish mode hides round trips.
+ *
+ * <p>One operation publishes {@code batchSize} messages, either one at a time with {@code publish}
+ * or all at once with {@code publishAll}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PublishBenchmark {
+
+  @Param({"0", "1000"})
+  public long backendLatencyMicros;
+
+  @Param({"1", "100", "1000"})
+  public int batchSize;
+
+  @Param({"0", "4", "16"})
+  public int attributeCount;
+
+  @Param({"false", "true"})
+  public boolean ordered;
+
+  @Param({"256"})
+  public int payloadSize;
+
+  private InProcessPubSub backend;
+  private PubSubClient client;
+  private List<OutgoingMessage> messages;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    var latency = Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(backendLatencyMicros));
+    backend =
+        new InProcessPubSub(FaultSettings.none().withLatency(LatencyDistribution.fixed(latency)));
+    var config = new PubSubClientConfig().setMessageOrderingEnabled(ordered);
+    client = new PubSubClientFactory(backend).setClientConfig(config).create("benchmark");
+
+    Map<String, String> attributes = new HashMap<>();
+    IntStream.range(0, attributeCount).forEach(i -> attributes.put("attribute-" + i, "value-" + i));
+    var payload = "x".repeat(payloadSize);
+    messages =
+        IntStream.range(0, batchSize)
+            .mapToObj(
+                i ->
+                    ordered
+                        ? OutgoingMessage.ordered(payload, attributes, "key-" + (i % 8))
+                        : OutgoingMessage.of(payload, attributes))
+            .toList();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    client.close();
+    backend.close();
+  }
+
+  @Benchmark
+  public void publish() {
+    for (var message : messages) {
+      client.publishOrdered(message.payload(), message.attributes(), message.orderingKey());
+    }
+  }
+
+  @Benchmark
+  public List<String> publishAll() {
+    return client.publishAll(messages);
+  }
+}
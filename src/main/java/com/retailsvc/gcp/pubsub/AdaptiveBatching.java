@@ -0,0 +1,70 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Bounds for adaptive publisher batching. When enabled, the client observes the message rate and
+ * message size of its topic and tunes the publisher batching thresholds within these bounds. Low
+ * volume topics get a short delay since there is little to batch, while high volume topics get
+ * larger batches and fewer publish requests.
+ *
+ * @param minElementCount the lower bound of the element count threshold
+ * @param maxElementCount the upper bound of the element count threshold
+ * @param minRequestBytes the lower bound of the request byte threshold
+ * @param maxRequestBytes the upper bound of the request byte threshold
+ * @param minDelay the lower bound of the delay threshold
+ * @param maxDelay the upper bound of the delay threshold, i.e. the most latency traded for batching
+ * @param evaluationInterval how often the observed traffic is evaluated
+ * @see PubSubClientConfig#setAdaptiveBatching(AdaptiveBatching)
+ */
+public record AdaptiveBatching(
+    long minElementCount,
+    long maxElementCount,
+    long minRequestBytes,
+    long maxRequestBytes,
+    Duration minDelay,
+    Duration maxDelay,
+    Duration evaluationInterval) {
+
+  /** Pub/Sub accepts at most 1000 messages per publish request. */
+  private static final long MAX_ELEMENT_COUNT = 1_000;
+
+  /** Pub/Sub accepts at most 10 MB per publish request, leave room for request overhead. */
+  private static final long MAX_REQUEST_BYTES = 9_000_000;
+
+  public AdaptiveBatching {
+    Objects.requireNonNull(minDelay);
+    Objects.requireNonNull(maxDelay);
+    Objects.requireNonNull(evaluationInterval);
+    if (minElementCount < 1 || maxElementCount < minElementCount) {
+      throw new IllegalArgumentException("Invalid element count bounds");
+    }
+    if (minRequestBytes < 1 || maxRequestBytes < minRequestBytes) {
+      throw new IllegalArgumentException("Invalid request byte bounds");
+    }
+    if (minDelay.isNegative() || maxDelay.compareTo(minDelay) < 0) {
+      throw new IllegalArgumentException("Invalid delay bounds");
+    }
+    if (!evaluationInterval.isPositive()) {
+      throw new IllegalArgumentException("Evaluation interval must be positive");
+    }
+  }
+
+  /**
+   * Create bounds spanning from unbatched publishing up to the Pub/Sub request limits, trading at
+   * most 50 ms of latency for batching.
+   *
+   * @return the default adaptive batching bounds
+   */
+  public static AdaptiveBatching defaults() {
+    return new AdaptiveBatching(
+        1,
+        MAX_ELEMENT_COUNT,
+        1_000,
+        MAX_REQUEST_BYTES,
+        Duration.ofMillis(1),
+        Duration.ofMillis(50),
+        Duration.ofSeconds(10));
+  }
+}
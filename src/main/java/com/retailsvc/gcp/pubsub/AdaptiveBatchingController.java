@@ -0,0 +1,113 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.api.gax.batching.BatchingSettings;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Observes the traffic of a single topic client and computes publisher batching settings within the
+ * configured {@link AdaptiveBatching} bounds.
+ *
+ * <p>The element count threshold is set to the number of messages expected within the max delay,
+ * and the delay threshold to the time it takes to fill such a batch. When fewer than two messages
+ * are expected within the max delay, batching cannot help and the lower bounds are used to keep
+ * latency down. New settings are only proposed when they differ enough from the current ones to be
+ * worth rebuilding the publisher.
+ */
+class AdaptiveBatchingController {
+
+  /** Settings must change by at least this factor before the publisher is rebuilt. */
+  private static final double CHANGE_FACTOR = 2.0;
+
+  private final AdaptiveBatching bounds;
+  private final LongAdder messages = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private BatchingSettings current;
+
+  AdaptiveBatchingController(AdaptiveBatching bounds) {
+    this.bounds = bounds;
+    this.current = lowVolumeSettings();
+  }
+
+  /**
+   * @return the batching settings currently in use.
+   */
+  BatchingSettings current() {
+    return current;
+  }
+
+  /**
+   * Record a published message.
+   *
+   * @param messageBytes the serialized size of the message
+   */
+  void record(long messageBytes) {
+    messages.increment();
+    bytes.add(messageBytes);
+  }
+
+  /**
+   * Evaluate the traffic recorded since the previous evaluation and reset the counters.
+   *
+   * @param elapsed the time since the previous evaluation
+   * @return the new batching settings, or empty if the current settings still fit the traffic.
+   */
+  synchronized Optional<BatchingSettings> evaluate(Duration elapsed) {
+    long count = messages.sumThenReset();
+    long size = bytes.sumThenReset();
+    var target = targetSettings(count, size, elapsed);
+    if (!differsSignificantly(target, current)) {
+      return Optional.empty();
+    }
+    current = target;
+    return Optional.of(target);
+  }
+
+  private BatchingSettings targetSettings(long count, long size, Duration elapsed) {
+    double ratePerNano = (double) count / Math.max(elapsed.toNanos(), 1);
+    double expected = ratePerNano * bounds.maxDelay().toNanos();
+    if (expected < 2) {
+      return lowVolumeSettings();
+    }
+    long avgSize = size / count;
+    long elementCount =
+        clamp(Math.round(expected), bounds.minElementCount(), bounds.maxElementCount());
+    long requestBytes =
+        clamp(elementCount * avgSize, bounds.minRequestBytes(), bounds.maxRequestBytes());
+    long delayNanos =
+        clamp(
+            Math.round(elementCount / ratePerNano),
+            bounds.minDelay().toNanos(),
+            bounds.maxDelay().toNanos());
+    return settings(elementCount, requestBytes, Duration.ofNanos(delayNanos));
+  }
+
+  private BatchingSettings lowVolumeSettings() {
+    return settings(bounds.minElementCount(), bounds.minRequestBytes(), bounds.minDelay());
+  }
+
+  private static BatchingSettings settings(long elementCount, long requestBytes, Duration delay) {
+    return BatchingSettings.newBuilder()
+        .setElementCountThreshold(elementCount)
+        .setRequestByteThreshold(requestBytes)
+        .setDelayThresholdDuration(delay)
+        .build();
+  }
+
+  private static boolean differsSignificantly(BatchingSettings a, BatchingSettings b) {
+    return differs(a.getElementCountThreshold(), b.getElementCountThreshold())
+        || differs(a.getRequestByteThreshold(), b.getRequestByteThreshold())
+        || differs(
+            a.getDelayThresholdDuration().toNanos(), b.getDelayThresholdDuration().toNanos());
+  }
+
+  private static boolean differs(long a, long b) {
+    long low = Math.max(Math.min(a, b), 1);
+    return Math.max(a, b) >= low * CHANGE_FACTOR;
+  }
+
+  private static long clamp(long value, long min, long max) {
+    return Math.min(Math.max(value, min), max);
+  }
+}
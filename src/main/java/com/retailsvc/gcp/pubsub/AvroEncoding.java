@@ -0,0 +1,57 @@
+package com.retailsvc.gcp.pubsub;
+
+import static com.retailsvc.gcp.pubsub.PayloadSchemas.BINARY;
+import static com.retailsvc.gcp.pubsub.PayloadSchemas.SCHEMA_ENCODING_ATTRIBUTE;
+import static com.retailsvc.gcp.pubsub.PayloadSchemas.SCHEMA_NAME_ATTRIBUTE;
+
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericContainer;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+
+/**
+ * Encodes Avro records with the binary encoding, using one cached writer per schema. Avro is an
+ * optional dependency, so this class must only be loaded once Avro is known to be on the classpath.
+ */
+final class AvroEncoding {
+
+  private static final Map<Schema, DatumWriter<Object>> writers = new ConcurrentHashMap<>();
+
+  private AvroEncoding() {}
+
+  /**
+   * @param payload a payload
+   * @return true if the payload is an Avro record, enum or fixed value
+   */
+  static boolean isAvro(Object payload) {
+    return payload instanceof GenericContainer;
+  }
+
+  /**
+   * Encode an Avro value, tagging it with the full name of its schema.
+   *
+   * @param payload an Avro record, enum or fixed value
+   * @return the encoded payload
+   * @throws IOException if the value does not match its schema
+   */
+  static EncodedPayload encode(Object payload) throws IOException {
+    var schema = ((GenericContainer) payload).getSchema();
+    var writer = writers.computeIfAbsent(schema, SpecificDatumWriter::new);
+    var out = ByteString.newOutput();
+    var encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+    try {
+      writer.write(payload, encoder);
+    } catch (RuntimeException e) {
+      throw new IOException("Could not encode Avro payload", e);
+    }
+    encoder.flush();
+    return EncodedPayload.of(
+        out.toByteString(),
+        Map.of(SCHEMA_NAME_ATTRIBUTE, schema.getFullName(), SCHEMA_ENCODING_ATTRIBUTE, BINARY));
+  }
+}
@@ -0,0 +1,22 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.util.List;
+
+/**
+ * Handles the messages of a pull in one batch. The batch is acked with one request when the handler
+ * returns, and nacked for redelivery when it throws.
+ *
+ * @param <T> the type of the payload
+ * @see PubSubSubscriberFactory#createBatchConsumer(String, Class, BatchHandler)
+ */
+@FunctionalInterface
+public interface BatchHandler<T> {
+
+  /**
+   * Handle a batch of messages.
+   *
+   * @param messages the received messages, never empty
+   * @throws Exception to nack every message of the batch
+   */
+  void handle(List<ReceivedMessage<T>> messages) throws Exception;
+}
@@ -0,0 +1,133 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of reusable output buffers for {@link ObjectToStreamMapper} serialization, bounded by the
+ * total bytes it retains. Buffers grow as needed. Buffers larger than the retention limit, or that
+ * would take the pool above its byte bound, are dropped on release instead of being pooled, so a
+ * few huge payloads do not pin memory. A {@link PubSubClientFactory} shares one pool between the
+ * clients of all its topics.
+ */
+class BufferPool {
+
+  /** Default initial capacity of a new buffer. */
+  private static final int DEFAULT_INITIAL_CAPACITY = 4 * 1024;
+
+  /** Default max capacity of a buffer returned to the pool. */
+  private static final int DEFAULT_MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+  /** Default max total bytes of the pooled buffers. */
+  private static final long DEFAULT_MAX_RETAINED_BYTES = 16L * 1024 * 1024;
+
+  private final Queue<Buffer> pool = new ConcurrentLinkedQueue<>();
+  private final AtomicLong retainedBytes = new AtomicLong();
+  private final int initialCapacity;
+  private final int maxRetainedCapacity;
+  private final long maxRetainedBytes;
+
+  BufferPool(int initialCapacity, int maxRetainedCapacity, long maxRetainedBytes) {
+    this.initialCapacity = initialCapacity;
+    this.maxRetainedCapacity = maxRetainedCapacity;
+    this.maxRetainedBytes = maxRetainedBytes;
+  }
+
+  static BufferPool defaultPool() {
+    return new BufferPool(
+        DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_RETAINED_CAPACITY, DEFAULT_MAX_RETAINED_BYTES);
+  }
+
+  /**
+   * @return an empty buffer, from the pool if available.
+   */
+  Buffer acquire() {
+    var buffer = pool.poll();
+    if (buffer == null) {
+      return new Buffer(initialCapacity);
+    }
+    retainedBytes.addAndGet(-buffer.bytes.length);
+    return buffer;
+  }
+
+  /**
+   * @return the number of buffers currently pooled.
+   */
+  int available() {
+    return pool.size();
+  }
+
+  /**
+   * @return the total capacity of the buffers currently pooled.
+   */
+  long retainedBytes() {
+    return retainedBytes.get();
+  }
+
+  private void release(Buffer buffer) {
+    var size = buffer.bytes.length;
+    if (size > maxRetainedCapacity) {
+      return;
+    }
+    if (retainedBytes.addAndGet(size) > maxRetainedBytes) {
+      retainedBytes.addAndGet(-size);
+      return;
+    }
+    buffer.count = 0;
+    pool.offer(buffer);
+  }
+
+  /** A growable output buffer that can be wrapped as a {@link ByteString} without copying. */
+  class Buffer extends OutputStream {
+
+    private byte[] bytes;
+    private int count;
+
+    private Buffer(int capacity) {
+      this.bytes = new byte[capacity];
+    }
+
+    @Override
+    public void write(int b) {
+      ensureCapacity(count + 1);
+      bytes[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      Objects.checkFromIndexSize(off, len, b.length);
+      ensureCapacity(count + len);
+      System.arraycopy(b, off, bytes, count, len);
+      count += len;
+    }
+
+    /**
+     * Wrap the written bytes. The returned bytes are only valid until the buffer is released.
+     *
+     * @return the written bytes
+     */
+    ByteString toByteString() {
+      return UnsafeByteOperations.unsafeWrap(bytes, 0, count);
+    }
+
+    /** Return the buffer to the pool. The buffer must not be used afterwards. */
+    void release() {
+      BufferPool.this.release(this);
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity < 0) {
+        throw new OutOfMemoryError("Buffer too large");
+      }
+      if (capacity > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length << 1));
+      }
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.io.IOException;
+
+/**
+ * A general-purpose mapper from byte representation to objects, the counterpart of {@link
+ * ObjectToBytesMapper} for consumers.
+ *
+ * <p>The signature matches Jackson, so an {@code ObjectMapper} can be used as {@code
+ * (BytesToObjectMapper) objectMapper::readValue}.
+ */
+@FunctionalInterface
+public interface BytesToObjectMapper {
+
+  /**
+   * Convert bytes to a value.
+   *
+   * @param bytes the byte representation of the value
+   * @param type the type of the value
+   * @param <T> the type of the value
+   * @return the value
+   * @throws IOException if failing to convert from bytes.
+   */
+  <T> T readValue(byte[] bytes, Class<T> type) throws IOException;
+}
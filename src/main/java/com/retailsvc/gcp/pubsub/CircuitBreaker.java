@@ -0,0 +1,227 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * A count based circuit breaker over the most recent publishes. While closed, {@link #tryAcquire()}
+ * reads a volatile field and bumps a striped counter, so the publish path neither locks nor
+ * allocates. Every publish let through must end its {@link Permit} exactly once, by recording its
+ * outcome or releasing it, so trial calls are never leaked while half open.
+ *
+ * <p>A hung backend never completes its publishes, so it is detected by {@link #sweep(Duration)}
+ * instead: publishes in flight with none completing for a whole timeout count as failures.
+ */
+final class CircuitBreaker {
+
+  private final CircuitBreakerSettings settings;
+  private final Consumer<CircuitState> listener;
+  private final LongSupplier clock;
+  private final boolean[] failed;
+  private final boolean[] slow;
+  private final long slowCallNanos;
+  private volatile CircuitState state = CircuitState.CLOSED;
+  private int next;
+  private int recorded;
+  private int failures;
+  private int slowCalls;
+  private long openedAt;
+  private int trialPermits;
+  private int trialSuccesses;
+  private final Permit closedPermit = new Permit(false);
+  private final LongAdder inFlight = new LongAdder();
+  private final LongAdder completed = new LongAdder();
+  private long sweptCompleted;
+  private long stalledSince = -1;
+
+  CircuitBreaker(CircuitBreakerSettings settings, Consumer<CircuitState> listener) {
+    this(settings, listener, System::nanoTime);
+  }
+
+  CircuitBreaker(
+      CircuitBreakerSettings settings, Consumer<CircuitState> listener, LongSupplier clock) {
+    this.settings = Objects.requireNonNull(settings);
+    this.listener = Objects.requireNonNull(listener);
+    this.clock = Objects.requireNonNull(clock);
+    this.failed = new boolean[settings.windowSize()];
+    this.slow = new boolean[settings.windowSize()];
+    this.slowCallNanos = settings.slowCallThreshold().toNanos();
+  }
+
+  CircuitState state() {
+    return state;
+  }
+
+  /**
+   * @return the permit of a publish that may go through, or null if it should fail fast.
+   */
+  Permit tryAcquire() {
+    if (state == CircuitState.CLOSED) {
+      inFlight.increment();
+      return closedPermit;
+    }
+    synchronized (this) {
+      if (state == CircuitState.OPEN) {
+        if (clock.getAsLong() - openedAt < settings.openDuration().toNanos()) {
+          return null;
+        }
+        trialPermits = settings.trialCalls();
+        trialSuccesses = 0;
+        transition(CircuitState.HALF_OPEN);
+      }
+      if (state == CircuitState.HALF_OPEN) {
+        if (trialPermits == 0) {
+          return null;
+        }
+        trialPermits--;
+        inFlight.increment();
+        return new Permit(true);
+      }
+      inFlight.increment();
+      return closedPermit;
+    }
+  }
+
+  private void release(Permit permit) {
+    end();
+    if (permit.trial) {
+      releaseTrial();
+    }
+  }
+
+  /** Return an unused trial permit, so another call can try while half open. */
+  private synchronized void releaseTrial() {
+    if (state == CircuitState.HALF_OPEN && trialPermits < settings.trialCalls()) {
+      trialPermits++;
+    }
+  }
+
+  private void end() {
+    inFlight.decrement();
+    completed.increment();
+  }
+
+  private synchronized void record(Permit permit, boolean failure, Duration latency) {
+    end();
+    var isSlow = latency.toNanos() >= slowCallNanos;
+    switch (state) {
+      case CLOSED -> recordClosed(failure, isSlow);
+      case HALF_OPEN -> {
+        if (!permit.trial) {
+          // A late result of a publish sent while closed, which says nothing about recovery.
+          return;
+        }
+        if (failure || isSlow) {
+          open();
+        } else if (++trialSuccesses >= settings.trialCalls()) {
+          reset();
+          transition(CircuitState.CLOSED);
+        }
+      }
+      case OPEN -> {
+        // A late result of a publish sent before opening.
+      }
+    }
+  }
+
+  /**
+   * Detect a hung backend. Called periodically, more often than the timeout. When publishes are in
+   * flight and none completes for a whole timeout, each publish in flight counts as a failure, up
+   * to the window size, and a half open breaker opens again. Publishes that complete later still
+   * record their outcome.
+   *
+   * @param timeout the publish timeout
+   */
+  synchronized void sweep(Duration timeout) {
+    var now = clock.getAsLong();
+    var done = completed.sum();
+    var pending = inFlight.sum();
+    if (pending <= 0 || done != sweptCompleted || state == CircuitState.OPEN) {
+      sweptCompleted = done;
+      stalledSince = -1;
+      return;
+    }
+    if (stalledSince < 0) {
+      stalledSince = now;
+      return;
+    }
+    if (now - stalledSince < timeout.toNanos()) {
+      return;
+    }
+    stalledSince = -1;
+    if (state == CircuitState.HALF_OPEN) {
+      open();
+      return;
+    }
+    for (var i = 0; i < Math.min(pending, failed.length) && state == CircuitState.CLOSED; i++) {
+      recordClosed(true, true);
+    }
+  }
+
+  private void recordClosed(boolean failure, boolean isSlow) {
+    if (recorded == failed.length) {
+      failures -= failed[next] ? 1 : 0;
+      slowCalls -= slow[next] ? 1 : 0;
+    } else {
+      recorded++;
+    }
+    failed[next] = failure;
+    slow[next] = isSlow;
+    failures += failure ? 1 : 0;
+    slowCalls += isSlow ? 1 : 0;
+    next = (next + 1) % failed.length;
+    if (recorded >= settings.minimumCalls()
+        && ((double) failures / recorded >= settings.failureRateThreshold()
+            || (double) slowCalls / recorded >= settings.slowCallRateThreshold())) {
+      open();
+    }
+  }
+
+  private void open() {
+    reset();
+    openedAt = clock.getAsLong();
+    transition(CircuitState.OPEN);
+  }
+
+  private void reset() {
+    next = 0;
+    recorded = 0;
+    failures = 0;
+    slowCalls = 0;
+  }
+
+  private void transition(CircuitState target) {
+    state = target;
+    listener.accept(target);
+  }
+
+  /**
+   * A publish let through by {@link #tryAcquire()}. It ends either by recording its outcome or by
+   * being released when the publish has no outcome for the backend, like a local rejection. While
+   * closed, every publish shares one permit. Only the outcomes of trial permits count while half
+   * open.
+   */
+  final class Permit {
+
+    private final boolean trial;
+
+    private Permit(boolean trial) {
+      this.trial = trial;
+    }
+
+    /**
+     * @param failure true if the publish failed
+     * @param latency the time from enqueue to publish result
+     */
+    void record(boolean failure, Duration latency) {
+      CircuitBreaker.this.record(this, failure, latency);
+    }
+
+    void release() {
+      CircuitBreaker.this.release(this);
+    }
+  }
+}
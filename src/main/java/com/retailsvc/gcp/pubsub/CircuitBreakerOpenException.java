@@ -0,0 +1,9 @@
+package com.retailsvc.gcp.pubsub;
+
+/** Thrown when a publish is rejected because the circuit breaker of the client is open. */
+public class CircuitBreakerOpenException extends PubSubClientException {
+
+  public CircuitBreakerOpenException(String message) {
+    super(message);
+  }
+}
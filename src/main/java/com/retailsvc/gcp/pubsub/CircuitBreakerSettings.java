@@ -0,0 +1,58 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings of the circuit breaker of a client. The breaker records the outcome of the most recent
+ * publishes. When too many of them fail or are slow, it opens and publishes fail right away with a
+ * {@link CircuitBreakerOpenException}, instead of waiting for a degraded backend. After the open
+ * duration, a few trial publishes are let through. The breaker closes if they all succeed in time,
+ * and opens again otherwise.
+ *
+ * @param failureRateThreshold the rate of failed publishes, from 0 to 1, that opens the breaker
+ * @param slowCallThreshold the latency above which a publish counts as slow
+ * @param slowCallRateThreshold the rate of slow publishes, from 0 to 1, that opens the breaker
+ * @param windowSize the number of most recent publishes the rates are computed over
+ * @param minimumCalls the number of publishes recorded before the breaker may open
+ * @param openDuration how long the breaker stays open before trial publishes
+ * @param trialCalls the number of trial publishes when half open
+ * @see PubSubClientConfig#setCircuitBreaker(CircuitBreakerSettings)
+ */
+public record CircuitBreakerSettings(
+    double failureRateThreshold,
+    Duration slowCallThreshold,
+    double slowCallRateThreshold,
+    int windowSize,
+    int minimumCalls,
+    Duration openDuration,
+    int trialCalls) {
+
+  public CircuitBreakerSettings {
+    Objects.requireNonNull(slowCallThreshold);
+    Objects.requireNonNull(openDuration);
+    if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+      throw new IllegalArgumentException("failureRateThreshold must be within (0, 1]");
+    }
+    if (slowCallRateThreshold <= 0 || slowCallRateThreshold > 1) {
+      throw new IllegalArgumentException("slowCallRateThreshold must be within (0, 1]");
+    }
+    if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+      throw new IllegalArgumentException("Invalid window size or minimum calls");
+    }
+    if (!openDuration.isPositive() || trialCalls < 1) {
+      throw new IllegalArgumentException("Invalid open duration or trial calls");
+    }
+  }
+
+  /**
+   * Open when half of the last 100 publishes fail or take more than 5 seconds, for 10 seconds
+   * before 5 trial publishes.
+   *
+   * @return the default circuit breaker settings
+   */
+  public static CircuitBreakerSettings defaults() {
+    return new CircuitBreakerSettings(
+        0.5, Duration.ofSeconds(5), 0.5, 100, 20, Duration.ofSeconds(10), 5);
+  }
+}
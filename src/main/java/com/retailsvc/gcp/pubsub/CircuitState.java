@@ -0,0 +1,18 @@
+package com.retailsvc.gcp.pubsub;
+
+/**
+ * The state of a client circuit breaker.
+ *
+ * @see CircuitBreakerSettings
+ */
+public enum CircuitState {
+
+  /** Publishes go through. */
+  CLOSED,
+
+  /** Publishes fail right away. */
+  OPEN,
+
+  /** A limited number of trial publishes go through. */
+  HALF_OPEN
+}
@@ -0,0 +1,280 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Clients cached by topic. Lookups of cached clients do not lock, and a client is created at most
+ * once per topic without blocking lookups of other topics. Clients can be evicted when idle or when
+ * the cache grows above a max size. Each evicted client is closed on its own virtual thread. A
+ * lookup of a topic whose client is being evicted waits until that client is closed, so it releases
+ * resources like a spool before a new client for the topic is created.
+ */
+class ClientCache implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /** Lower bound of the idle eviction sweep interval. */
+  private static final Duration MIN_SWEEP_INTERVAL = Duration.ofSeconds(1);
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private volatile int maxSize = Integer.MAX_VALUE;
+  private ScheduledExecutorService evictor;
+  private ScheduledFuture<?> idleSweep;
+  private volatile boolean closed;
+
+  /**
+   * Get the client of a topic, creating it with the loader if it is not cached or was closed.
+   * Concurrent calls for the same topic wait for a single creation.
+   */
+  PubSubClient get(String topic, Function<String, UsageTrackingClient> loader) {
+    while (true) {
+      if (closed) {
+        throw new PubSubClientException("Client cache is closed");
+      }
+      var entry = entries.get(topic);
+      if (entry != null && entry.isEvicting()) {
+        // The evicted client releases its resources, like a spool, before a new one is created.
+        entry.evicted.join();
+        continue;
+      }
+      if (entry == null) {
+        var created = new Entry();
+        entry = entries.putIfAbsent(topic, created);
+        if (entry == null) {
+          entry = created;
+          load(topic, created, loader);
+        }
+      }
+      var client = entry.await();
+      if (!client.isClosed()) {
+        entry.touch();
+        return client;
+      }
+      entries.remove(topic, entry);
+    }
+  }
+
+  private void load(String topic, Entry entry, Function<String, UsageTrackingClient> loader) {
+    try {
+      entry.client.complete(loader.apply(topic));
+    } catch (RuntimeException e) {
+      entries.remove(topic, entry);
+      entry.client.completeExceptionally(e);
+      throw e;
+    }
+    if (entries.size() > maxSize) {
+      execute(this::evictOverflow);
+    }
+  }
+
+  /**
+   * Bound the number of cached clients. The least recently used clients are evicted first.
+   *
+   * @param maxSize the max number of cached clients
+   */
+  void setMaxSize(int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    this.maxSize = maxSize;
+    if (entries.size() > maxSize) {
+      execute(this::evictOverflow);
+    }
+  }
+
+  /**
+   * Evict clients that have not published or been looked up within the timeout.
+   *
+   * @param idleTimeout the idle timeout
+   */
+  synchronized void setIdleTimeout(Duration idleTimeout) {
+    Objects.requireNonNull(idleTimeout, "idleTimeout must not be null");
+    if (closed) {
+      return;
+    }
+    if (idleSweep != null) {
+      idleSweep.cancel(false);
+    }
+    var interval = idleTimeout.dividedBy(2);
+    if (interval.compareTo(MIN_SWEEP_INTERVAL) < 0) {
+      interval = MIN_SWEEP_INTERVAL;
+    }
+    idleSweep =
+        evictor()
+            .scheduleWithFixedDelay(
+                () -> evictIdle(idleTimeout),
+                interval.toNanos(),
+                interval.toNanos(),
+                TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return completed once the evicted clients are closed
+   */
+  synchronized CompletableFuture<Void> evictIdle(Duration idleTimeout) {
+    var now = System.nanoTime();
+    var evictions = new ArrayList<CompletableFuture<Void>>();
+    entries.forEach(
+        (topic, entry) -> {
+          if (entry.isLoaded()
+              && !entry.isEvicting()
+              && now - entry.lastUsed() > idleTimeout.toNanos()) {
+            evictions.add(evict(topic, entry, "idle"));
+          }
+        });
+    return CompletableFuture.allOf(evictions.toArray(CompletableFuture[]::new));
+  }
+
+  /**
+   * @return completed once the clients evicted by this or an earlier sweep are closed
+   */
+  synchronized CompletableFuture<Void> evictOverflow() {
+    var evictions = new ArrayList<CompletableFuture<Void>>();
+    entries.values().stream()
+        .filter(Entry::isEvicting)
+        .forEach(entry -> evictions.add(entry.evicted));
+    // Entries being evicted by an earlier sweep still count until closed, so they are left out.
+    // Sweeps run one at a time, so two cannot both pick a client to bring the count down.
+    while (entries.values().stream().filter(entry -> !entry.isEvicting()).count() > maxSize) {
+      var oldest =
+          entries.entrySet().stream()
+              .filter(candidate -> candidate.getValue().isLoaded())
+              .filter(candidate -> !candidate.getValue().isEvicting())
+              .min(Comparator.comparingLong(candidate -> candidate.getValue().lastUsed()));
+      if (oldest.isEmpty()) {
+        break;
+      }
+      evictions.add(evict(oldest.get().getKey(), oldest.get().getValue(), "max size"));
+    }
+    return CompletableFuture.allOf(evictions.toArray(CompletableFuture[]::new));
+  }
+
+  /** Close the client while its entry is still cached, so lookups of the topic wait for it. */
+  private CompletableFuture<Void> evict(String topic, Entry entry, String reason) {
+    if (entries.get(topic) != entry || !entry.evicting.compareAndSet(false, true)) {
+      return entry.evicted;
+    }
+    LOG.debug("Evicting client [{}], {}", topic, reason);
+    Thread.ofVirtual()
+        .name("pubsub-cache-evict-" + topic)
+        .start(
+            () -> {
+              try {
+                closeQuietly(topic, entry.await());
+              } finally {
+                entries.remove(topic, entry);
+                entry.evicted.complete(null);
+              }
+            });
+    return entry.evicted;
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  /** Run a task on the evictor, unless the cache is closed. */
+  private synchronized void execute(Runnable task) {
+    if (!closed) {
+      evictor().execute(task);
+    }
+  }
+
+  private synchronized ScheduledExecutorService evictor() {
+    if (evictor == null) {
+      evictor =
+          Executors.newSingleThreadScheduledExecutor(
+              Thread.ofVirtual().name("pubsub-cache-evictor-", 0).factory());
+    }
+    return evictor;
+  }
+
+  /**
+   * Stop eviction and close every cached client, flushing outstanding messages. Clients still being
+   * created or evicted are waited for and closed as well.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      if (evictor != null) {
+        evictor.shutdownNow();
+      }
+    }
+    entries.forEach(
+        (topic, entry) -> {
+          if (entry.isEvicting()) {
+            entry.evicted.join();
+          } else if (entries.remove(topic, entry)) {
+            var client = entry.client.exceptionally(e -> null).join();
+            if (client != null) {
+              closeQuietly(topic, client);
+            }
+          }
+        });
+  }
+
+  private static void closeQuietly(String topic, PubSubClient client) {
+    try {
+      if (!client.isClosed()) {
+        client.close();
+      }
+    } catch (RuntimeException e) {
+      LOG.warn("Failed to close client [{}]", topic, e);
+    }
+  }
+
+  /** A cached client, completed once created. */
+  private static final class Entry {
+
+    private final CompletableFuture<UsageTrackingClient> client = new CompletableFuture<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final CompletableFuture<Void> evicted = new CompletableFuture<>();
+    private volatile long lastAccess = System.nanoTime();
+
+    UsageTrackingClient await() {
+      try {
+        return client.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException cause) {
+          throw cause;
+        }
+        throw new PubSubClientException("Cant create Pubsub client", e.getCause());
+      }
+    }
+
+    boolean isEvicting() {
+      return evicting.get();
+    }
+
+    boolean isLoaded() {
+      return client.isDone() && !client.isCompletedExceptionally();
+    }
+
+    void touch() {
+      lastAccess = System.nanoTime();
+    }
+
+    /** The later of the last lookup and the last publish. Only valid once loaded. */
+    long lastUsed() {
+      var published = client.join().lastUsed();
+      return published - lastAccess > 0 ? published : lastAccess;
+    }
+  }
+}
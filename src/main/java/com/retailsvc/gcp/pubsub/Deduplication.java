@@ -0,0 +1,44 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings of client-side deduplication. A message is a duplicate when a message with the same key
+ * was published within the window. Duplicates are not published, and complete with the message id
+ * of the original message. A failed publish is forgotten, so it can be retried.
+ *
+ * <p>The key is the value of the key attribute if the message has it, otherwise a hash of the
+ * payload, attributes and ordering key.
+ *
+ * @param window how long a published message is remembered
+ * @param maxEntries the max number of remembered messages, bounding the memory used
+ * @param keyAttribute the attribute holding a caller-supplied idempotency key
+ * @see PubSubClientConfig#setDeduplication(Deduplication)
+ */
+public record Deduplication(Duration window, int maxEntries, String keyAttribute) {
+
+  /** The default attribute holding a caller-supplied idempotency key. */
+  public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+  public Deduplication {
+    Objects.requireNonNull(window);
+    Objects.requireNonNull(keyAttribute);
+    if (!window.isPositive()) {
+      throw new IllegalArgumentException("Window must be positive");
+    }
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("maxEntries must be positive");
+    }
+  }
+
+  /**
+   * Remember up to 100 000 messages for 5 minutes, keyed by the {@value #IDEMPOTENCY_KEY}
+   * attribute.
+   *
+   * @return the default deduplication settings
+   */
+  public static Deduplication defaults() {
+    return new Deduplication(Duration.ofMinutes(5), 100_000, IDEMPOTENCY_KEY);
+  }
+}
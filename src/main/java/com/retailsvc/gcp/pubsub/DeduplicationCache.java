@@ -0,0 +1,127 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.api.core.ApiFuture;
+import com.google.pubsub.v1.PubsubMessage;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Publish results of recent messages by key, within a time window. Entries are spread over
+ * independently locked stripes, each evicting its oldest entries once full.
+ */
+class DeduplicationCache {
+
+  private static final int STRIPES = 16;
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+  private final long windowNanos;
+  private final String keyAttribute;
+
+  DeduplicationCache(Deduplication settings) {
+    this.windowNanos = settings.window().toNanos();
+    this.keyAttribute = settings.keyAttribute();
+    var stripeSize = Math.max(1, settings.maxEntries() / STRIPES);
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe(stripeSize);
+    }
+  }
+
+  /**
+   * @param message the message to publish
+   * @return the idempotency key attribute of the message, or a hash of its content
+   */
+  String key(PubsubMessage message) {
+    var key = message.getAttributesOrDefault(keyAttribute, null);
+    if (key != null) {
+      return "key:" + key;
+    }
+    var digest = sha256();
+    message.getData().asReadOnlyByteBufferList().forEach(digest::update);
+    // Sort the attributes, since the map order is not defined.
+    new TreeMap<>(message.getAttributesMap())
+        .forEach(
+            (name, value) -> {
+              digest.update((byte) 0);
+              digest.update(name.getBytes(StandardCharsets.UTF_8));
+              digest.update((byte) 1);
+              digest.update(value.getBytes(StandardCharsets.UTF_8));
+            });
+    digest.update((byte) 2);
+    digest.update(message.getOrderingKey().getBytes(StandardCharsets.UTF_8));
+    return "sha256:" + HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * Claim a key for a publish.
+   *
+   * @param key the message key
+   * @param result the result of the publish if the claim succeeds
+   * @return the result of an earlier publish of the key within the window, or {@code null} if the
+   *     key was claimed
+   */
+  ApiFuture<String> claim(String key, ApiFuture<String> result) {
+    var stripe = stripe(key);
+    var now = System.nanoTime();
+    synchronized (stripe) {
+      var existing = stripe.get(key);
+      if (existing != null && now - existing.published() < windowNanos) {
+        return existing.result();
+      }
+      // Removed first, so that a claim of an expired key moves it to the young end of the stripe.
+      stripe.remove(key);
+      stripe.put(key, new Published(result, now));
+      return null;
+    }
+  }
+
+  /**
+   * Forget a claim whose publish failed, so that the message can be published again.
+   *
+   * @param key the message key
+   * @param result the result of the failed publish
+   */
+  void forget(String key, ApiFuture<String> result) {
+    var stripe = stripe(key);
+    synchronized (stripe) {
+      var existing = stripe.get(key);
+      if (existing != null && existing.result() == result) {
+        stripe.remove(key);
+      }
+    }
+  }
+
+  private Stripe stripe(String key) {
+    var hash = key.hashCode();
+    return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is required by the Java platform", e);
+    }
+  }
+
+  private record Published(ApiFuture<String> result, long published) {}
+
+  /** Entries in publish order, so the eldest entry is the first to expire. */
+  private static final class Stripe extends LinkedHashMap<String, Published> {
+
+    private final int maxEntries;
+
+    Stripe(int maxEntries) {
+      this.maxEntries = maxEntries;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Published> eldest) {
+      return size() > maxEntries;
+    }
+  }
+}
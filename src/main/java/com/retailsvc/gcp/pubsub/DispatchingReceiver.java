@@ -0,0 +1,121 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.cloud.pubsub.v1.MessageReceiver;
+import com.google.pubsub.v1.PubsubMessage;
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives messages from a subscriber and runs the handler of each message on a virtual thread. The
+ * number of running handlers is bounded, and a message waits on the subscriber callback thread for
+ * a permit, which holds back delivery until handlers catch up. Messages with the same ordering key
+ * are handled one after another in delivery order, while other keys run concurrently. Acks and
+ * nacks are batched by the subscriber.
+ */
+class DispatchingReceiver<T> implements MessageReceiver {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final PayloadDecoder<T> decoder;
+  private final MessageHandler<T> handler;
+  private final Semaphore permits;
+  private final ExecutorService executor;
+
+  /** The last handler of each ordering key, removed once it completes. */
+  private final Map<String, CompletableFuture<Void>> orderingKeyTails = new ConcurrentHashMap<>();
+
+  DispatchingReceiver(
+      Class<T> type, BytesToObjectMapper objectMapper, MessageHandler<T> handler, int concurrency) {
+    this.decoder = new PayloadDecoder<>(type, objectMapper);
+    this.handler = Objects.requireNonNull(handler);
+    this.permits = new Semaphore(concurrency);
+    this.executor =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("pubsub-handler-", 0).factory());
+  }
+
+  @Override
+  public void receiveMessage(PubsubMessage message, AckReplyConsumer consumer) {
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      consumer.nack();
+      return;
+    }
+    var orderingKey = message.getOrderingKey();
+    if (!orderingKey.isEmpty()) {
+      handleAfterPrevious(orderingKey, message, consumer);
+      return;
+    }
+    try {
+      executor.execute(() -> handle(message, consumer));
+    } catch (RejectedExecutionException e) {
+      permits.release();
+      consumer.nack();
+    }
+  }
+
+  /** Chain the handler after the previous handler of the ordering key. */
+  private void handleAfterPrevious(
+      String orderingKey, PubsubMessage message, AckReplyConsumer consumer) {
+    var tail =
+        orderingKeyTails.compute(
+            orderingKey,
+            (key, previous) ->
+                (previous == null ? CompletableFuture.<Void>completedFuture(null) : previous)
+                    .thenRunAsync(() -> handle(message, consumer), executor));
+    tail.whenComplete(
+        (ignored, e) -> {
+          orderingKeyTails.remove(orderingKey, tail);
+          if (e != null) {
+            // Rejected once closed, handle catches everything else.
+            permits.release();
+            consumer.nack();
+          }
+        });
+  }
+
+  private void handle(PubsubMessage message, AckReplyConsumer consumer) {
+    try {
+      for (var received : decoder.decode(message)) {
+        handler.handle(received);
+      }
+      consumer.ack();
+    } catch (Exception e) {
+      LOG.warn("Failed to handle message [{}]", message.getMessageId(), e);
+      consumer.nack();
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Stop accepting messages and wait for running handlers to complete.
+   *
+   * @param timeout how long to wait for running handlers
+   */
+  void close(Duration timeout) {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+        LOG.warn("Handlers still running after {}, interrupting", timeout);
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.time.Duration;
+
+/**
+ * The result of draining a subscription.
+ *
+ * @param acked the number of messages handled and acked
+ * @param nacked the number of messages that failed to decode or handle, and were nacked
+ * @param elapsed the time it took
+ * @see PubSubBatchConsumer#drain()
+ */
+public record DrainResult(long acked, long nacked, Duration elapsed) {}
@@ -6,6 +6,8 @@ import com.google.api.gax.grpc.GrpcTransportChannel;
 import com.google.api.gax.rpc.FixedTransportChannelProvider;
 import com.google.api.gax.rpc.TransportChannelProvider;
 import com.google.cloud.pubsub.v1.Publisher.Builder;
+import com.google.cloud.pubsub.v1.Subscriber;
+import com.google.cloud.pubsub.v1.stub.SubscriberStubSettings;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import java.util.Map;
@@ -29,18 +31,34 @@ class EmulatorRedirect {
       new ConcurrentHashMap<>();
 
   public static void redirect(Builder builder) {
-    String hostPort = System.getProperty(PUBSUB_EMULATOR_HOST, System.getenv(PUBSUB_EMULATOR_HOST));
+    CredentialsProvider credentialsProvider = NoCredentialsProvider.create();
 
-    TransportChannelProvider channelProvider =
-        channelProviders.computeIfAbsent(hostPort, EmulatorRedirect::createChannelProvider);
+    // Set the channel and credentials provider when creating a `Publisher`.
+    builder.setChannelProvider(channelProvider());
+    builder.setCredentialsProvider(credentialsProvider);
+  }
 
+  public static void redirect(Subscriber.Builder builder) {
     CredentialsProvider credentialsProvider = NoCredentialsProvider.create();
 
-    // Set the channel and credentials provider when creating a `Publisher`.
-    builder.setChannelProvider(channelProvider);
+    // Set the channel and credentials provider when creating a `Subscriber`.
+    builder.setChannelProvider(channelProvider());
+    builder.setCredentialsProvider(credentialsProvider);
+  }
+
+  public static void redirect(SubscriberStubSettings.Builder builder) {
+    CredentialsProvider credentialsProvider = NoCredentialsProvider.create();
+
+    // Set the channel and credentials provider when creating a subscriber stub for pull.
+    builder.setTransportChannelProvider(channelProvider());
     builder.setCredentialsProvider(credentialsProvider);
   }
 
+  private static TransportChannelProvider channelProvider() {
+    String hostPort = System.getProperty(PUBSUB_EMULATOR_HOST, System.getenv(PUBSUB_EMULATOR_HOST));
+    return channelProviders.computeIfAbsent(hostPort, EmulatorRedirect::createChannelProvider);
+  }
+
   private static TransportChannelProvider createChannelProvider(String hostPort) {
     ManagedChannel channel = ManagedChannelBuilder.forTarget(hostPort).usePlaintext().build();
     return FixedTransportChannelProvider.create(GrpcTransportChannel.create(channel));
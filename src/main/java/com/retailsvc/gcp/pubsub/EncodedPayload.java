@@ -0,0 +1,57 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.protobuf.ByteString;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The bytes of an encoded payload, and how to release them once the message has been published.
+ *
+ * @param data the payload bytes
+ * @param release returns pooled bytes for reuse, called at most once after a successful publish
+ * @param attributes the attributes describing the encoding, such as the schema of the payload
+ */
+record EncodedPayload(ByteString data, Runnable release, Map<String, String> attributes) {
+
+  private static final Runnable NO_RELEASE = () -> {};
+
+  EncodedPayload(ByteString data, Runnable release) {
+    this(data, release, Map.of());
+  }
+
+  /**
+   * @param data the payload bytes
+   * @return an encoded payload that is not pooled
+   */
+  static EncodedPayload of(ByteString data) {
+    return new EncodedPayload(data, NO_RELEASE);
+  }
+
+  /**
+   * @param data the payload bytes
+   * @param attributes the attributes describing the encoding
+   * @return an encoded payload that is not pooled
+   */
+  static EncodedPayload of(ByteString data, Map<String, String> attributes) {
+    return new EncodedPayload(data, NO_RELEASE, attributes);
+  }
+
+  /**
+   * Add the attributes of the encoding to the attributes of a message. The encoding attributes
+   * describe the bytes, so they replace message attributes of the same name.
+   *
+   * @param messageAttributes the attributes of the message, may be {@code null}
+   * @return the attributes to publish, the message attributes as is if the encoding has none
+   */
+  Map<String, String> withAttributes(Map<String, String> messageAttributes) {
+    if (attributes.isEmpty()) {
+      return messageAttributes;
+    }
+    if (messageAttributes == null || messageAttributes.isEmpty()) {
+      return attributes;
+    }
+    var merged = new HashMap<>(messageAttributes);
+    merged.putAll(attributes);
+    return merged;
+  }
+}
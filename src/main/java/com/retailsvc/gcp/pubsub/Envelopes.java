@@ -0,0 +1,109 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.pubsub.v1.PubsubMessage;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs many small events into one envelope message, and unpacks them on the consumer side. Each
+ * event is framed by its length as a 4 byte big-endian integer. An envelope carries the number of
+ * events in the {@value #ENVELOPE_ATTRIBUTE} attribute, and may be compressed as a whole.
+ *
+ * <pre>{@code
+ * for (ByteString event : Envelopes.unpack(receivedMessage)) {
+ *   // handle event
+ * }
+ * }</pre>
+ *
+ * @see PubSubClientConfig#setPacking(PackingSettings)
+ */
+public final class Envelopes {
+
+  /** The message attribute holding the number of events packed in an envelope. */
+  public static final String ENVELOPE_ATTRIBUTE = "Envelope-Count";
+
+  private static final int FRAME_HEADER_BYTES = Integer.BYTES;
+
+  private Envelopes() {}
+
+  /**
+   * @param message a received message
+   * @return true if the message is an envelope of packed events.
+   */
+  public static boolean isEnvelope(PubsubMessage message) {
+    return message.containsAttributes(ENVELOPE_ATTRIBUTE);
+  }
+
+  /**
+   * Get the events of a message. A compressed message is decompressed first. A message that is not
+   * an envelope is returned as a single event.
+   *
+   * @param message a received message
+   * @return the events, in the order they were published
+   * @throws PubSubClientException if the payload cannot be decompressed or is not a valid envelope
+   */
+  public static List<ByteString> unpack(PubsubMessage message) {
+    var data = PayloadCodecs.decode(message);
+    if (!isEnvelope(message)) {
+      return List.of(data);
+    }
+    // The count is set by the sender, so it is bounded by the frames the payload can hold.
+    var events =
+        new ArrayList<ByteString>(Math.min(eventCount(message), data.size() / FRAME_HEADER_BYTES));
+    var offset = 0;
+    while (offset < data.size()) {
+      if (data.size() - offset < FRAME_HEADER_BYTES) {
+        throw new PubSubClientException("Truncated envelope frame");
+      }
+      var length =
+          data.substring(offset, offset + FRAME_HEADER_BYTES).asReadOnlyByteBuffer().getInt();
+      offset += FRAME_HEADER_BYTES;
+      if (length < 0 || length > data.size() - offset) {
+        throw new PubSubClientException("Truncated envelope frame");
+      }
+      // Substrings share the bytes of the envelope.
+      events.add(data.substring(offset, offset + length));
+      offset += length;
+    }
+    return events;
+  }
+
+  /**
+   * Frame events into the payload of an envelope.
+   *
+   * @param events the events
+   * @return the envelope payload
+   */
+  static ByteString pack(List<ByteString> events) {
+    var buffer = ByteBuffer.allocate(framedSize(events));
+    for (var event : events) {
+      buffer.putInt(event.size());
+      event.copyTo(buffer);
+    }
+    // The buffer is not shared, so it is wrapped instead of copied.
+    return UnsafeByteOperations.unsafeWrap(buffer.flip());
+  }
+
+  /**
+   * @param event an event
+   * @return the bytes the event takes in an envelope.
+   */
+  static int framedSize(ByteString event) {
+    return FRAME_HEADER_BYTES + event.size();
+  }
+
+  private static int framedSize(List<ByteString> events) {
+    return events.stream().mapToInt(Envelopes::framedSize).sum();
+  }
+
+  private static int eventCount(PubsubMessage message) {
+    try {
+      return Math.max(Integer.parseInt(message.getAttributesOrThrow(ENVELOPE_ATTRIBUTE)), 0);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
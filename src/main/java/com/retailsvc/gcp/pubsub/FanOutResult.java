@@ -0,0 +1,24 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.util.Map;
+
+/**
+ * The outcome of {@link PubSubClientFactory#fanOut(java.util.Collection, Object, Map)}.
+ *
+ * @param messageIds the published message id per topic
+ * @param failures the topics that failed to publish, with the cause
+ */
+public record FanOutResult(Map<String, String> messageIds, Map<String, Throwable> failures) {
+
+  public FanOutResult {
+    messageIds = Map.copyOf(messageIds);
+    failures = Map.copyOf(failures);
+  }
+
+  /**
+   * @return true if the message was published to every topic.
+   */
+  public boolean isSuccessful() {
+    return failures.isEmpty();
+  }
+}
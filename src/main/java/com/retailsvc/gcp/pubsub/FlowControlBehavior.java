@@ -0,0 +1,22 @@
+package com.retailsvc.gcp.pubsub;
+
+/**
+ * What a publisher does when publishing a message would exceed the configured limits for
+ * outstanding messages or bytes.
+ *
+ * @see PubSubClientConfig#setFlowControlBehavior(FlowControlBehavior)
+ */
+public enum FlowControlBehavior {
+
+  /** Block the publishing thread until enough outstanding messages have completed. */
+  BLOCK,
+
+  /** Fail the publish immediately with a {@link PubSubClientException}. */
+  FAIL_FAST,
+
+  /**
+   * Shed the message that would exceed the limits. The message is handed to the configured dropped
+   * message handler and the publish fails with a {@link PubSubClientException}.
+   */
+  DROP
+}
@@ -0,0 +1,20 @@
+package com.retailsvc.gcp.pubsub;
+
+/**
+ * When spooled messages are forced from memory to disk. Spooled messages are written to memory
+ * mapped files, so they survive a crash of the process even before they are forced to disk. Forcing
+ * protects them from a crash of the host.
+ *
+ * @see SpoolSettings
+ */
+public enum FsyncPolicy {
+
+  /** Force every message before the publish returns. Safest, and the slowest. */
+  ALWAYS,
+
+  /** Force at a fixed interval. Messages spooled within the last interval may be lost. */
+  INTERVAL,
+
+  /** Leave forcing to the operating system. */
+  NEVER
+}
@@ -0,0 +1,156 @@
+package com.retailsvc.gcp.pubsub;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable set of message attributes, built and validated once and reused for many messages. It
+ * is a {@link Map}, so it can be passed wherever attributes are accepted. The clients use it as is:
+ * it is not copied before being added to a message, and batching clients group messages by it
+ * without copying it or computing its hash again.
+ *
+ * <pre>{@code
+ * static final MessageAttributes CREATED = MessageAttributes.of("type", "created");
+ *
+ * var attributes = byTenant.computeIfAbsent(tenantId, id -> CREATED.with("Tenant-Id", id));
+ * client.publish(payload, attributes);
+ * }</pre>
+ */
+public final class MessageAttributes extends AbstractMap<String, String> {
+
+  private static final MessageAttributes EMPTY = new MessageAttributes(Map.of());
+  private static final int MAX_KEY_BYTES = 256;
+  private static final int MAX_VALUE_BYTES = 1024;
+  private static final String RESERVED_PREFIX = "goog";
+
+  private final Map<String, String> attributes;
+  private final int hash;
+
+  private MessageAttributes(Map<String, String> attributes) {
+    attributes.forEach(MessageAttributes::validate);
+    this.attributes = attributes;
+    this.hash = attributes.hashCode();
+  }
+
+  private static void validate(String key, String value) {
+    if (key.isEmpty() || key.startsWith(RESERVED_PREFIX)) {
+      throw new IllegalArgumentException("Invalid attribute key: " + key);
+    }
+    if (key.getBytes(UTF_8).length > MAX_KEY_BYTES) {
+      throw new IllegalArgumentException("Attribute key is too long: " + key);
+    }
+    if (value.getBytes(UTF_8).length > MAX_VALUE_BYTES) {
+      throw new IllegalArgumentException("Attribute value is too long: " + key);
+    }
+  }
+
+  /**
+   * @return the attribute set without attributes.
+   */
+  public static MessageAttributes empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Create attributes from a map.
+   *
+   * @param attributes the attributes, may be {@code null}
+   * @return an immutable copy, or the given instance if it is already immutable
+   * @throws NullPointerException if a key or value is null
+   * @throws IllegalArgumentException if a key or value is not accepted by Pub/Sub
+   */
+  public static MessageAttributes of(Map<String, String> attributes) {
+    if (attributes instanceof MessageAttributes immutable) {
+      return immutable;
+    }
+    if (attributes == null || attributes.isEmpty()) {
+      return EMPTY;
+    }
+    return new MessageAttributes(Map.copyOf(attributes));
+  }
+
+  /**
+   * Create attributes with a single entry.
+   *
+   * @param key the attribute key
+   * @param value the attribute value
+   * @return new attributes
+   */
+  public static MessageAttributes of(String key, String value) {
+    return new MessageAttributes(Map.of(key, value));
+  }
+
+  /**
+   * Create attributes with two entries.
+   *
+   * @param key1 the first attribute key
+   * @param value1 the first attribute value
+   * @param key2 the second attribute key
+   * @param value2 the second attribute value
+   * @return new attributes
+   */
+  public static MessageAttributes of(String key1, String value1, String key2, String value2) {
+    return new MessageAttributes(Map.of(key1, value1, key2, value2));
+  }
+
+  /**
+   * Create attributes with an added or replaced entry. This instance is not changed, so build
+   * combinations once and cache them rather than calling this per message.
+   *
+   * @param key the attribute key
+   * @param value the attribute value
+   * @return new attributes
+   */
+  @SuppressWarnings("unchecked")
+  public MessageAttributes with(String key, String value) {
+    var entries = new Map.Entry[attributes.size() + 1];
+    var size = 0;
+    for (var entry : attributes.entrySet()) {
+      if (!entry.getKey().equals(key)) {
+        entries[size++] = entry;
+      }
+    }
+    entries[size++] = Map.entry(key, value);
+    return new MessageAttributes(
+        Map.ofEntries(size == entries.length ? entries : Arrays.copyOf(entries, size)));
+  }
+
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    return attributes.entrySet();
+  }
+
+  @Override
+  public int size() {
+    return attributes.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return attributes.isEmpty();
+  }
+
+  @Override
+  public String get(Object key) {
+    return attributes.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return attributes.containsKey(key);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return this == other || attributes.equals(other);
+  }
+}
@@ -0,0 +1,21 @@
+package com.retailsvc.gcp.pubsub;
+
+/**
+ * Handles the messages of a subscription. A message is acked when the handler returns, and nacked
+ * for redelivery when it throws. The events of an envelope are handled one by one, in order, and
+ * the envelope is acked once every event is handled.
+ *
+ * @param <T> the type of the payload
+ * @see PubSubSubscriberFactory#create(String, Class, MessageHandler)
+ */
+@FunctionalInterface
+public interface MessageHandler<T> {
+
+  /**
+   * Handle a message. Called on a virtual thread, so blocking is fine.
+   *
+   * @param message the received message
+   * @throws Exception to nack the message
+   */
+  void handle(ReceivedMessage<T> message) throws Exception;
+}
@@ -0,0 +1,379 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.pubsub.v1.PubsubMessage;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A write-ahead log of messages in memory mapped segment files. Messages are appended to the last
+ * segment and taken in order by a single reader. A segment is deleted once it is full and all of
+ * its messages are taken and acknowledged. On open, the segments left by a previous run are
+ * recovered and all their messages are taken again.
+ *
+ * <p>Each record is a 4 byte length, a 4 byte CRC32C checksum and the serialized message. The
+ * length is written last, so a record torn by a crash reads as the end of the segment.
+ */
+class MessageSpool implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String LOCK_FILE = "spool.lock";
+  private static final int HEADER_BYTES = 8;
+
+  private final Path directory;
+  private final SpoolSettings settings;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition available = lock.newCondition();
+  private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+  private final FileChannel lockChannel;
+  private final FileLock fileLock;
+  private final ScheduledExecutorService fsyncScheduler;
+  private Segment writeSegment;
+  private Segment readSegment;
+  private long nextSegmentId;
+  private long totalBytes;
+  private boolean closed;
+
+  /** A message taken from the spool, to be acknowledged once published. */
+  record Entry(PubsubMessage message, Segment segment) {}
+
+  MessageSpool(Path directory, SpoolSettings settings) throws IOException {
+    this.directory = directory;
+    this.settings = settings;
+    Files.createDirectories(directory);
+    this.lockChannel =
+        FileChannel.open(
+            directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    this.fileLock = tryLock(lockChannel);
+    if (fileLock == null) {
+      lockChannel.close();
+      throw new IOException("Spool is in use: " + directory);
+    }
+    recover();
+    if (settings.fsyncPolicy() == FsyncPolicy.INTERVAL) {
+      var interval = settings.fsyncInterval().toNanos();
+      this.fsyncScheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              Thread.ofVirtual().name("pubsub-spool-fsync-", 0).factory());
+      fsyncScheduler.scheduleAtFixedRate(this::force, interval, interval, TimeUnit.NANOSECONDS);
+    } else {
+      this.fsyncScheduler = null;
+    }
+  }
+
+  /** Lock the spool against other processes, and other spools in this process. */
+  private static FileLock tryLock(FileChannel channel) throws IOException {
+    try {
+      return channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      return null;
+    }
+  }
+
+  private void recover() throws IOException {
+    try (var files = Files.list(directory)) {
+      for (var path : files.filter(MessageSpool::isSegment).sorted().toList()) {
+        var name = path.getFileName().toString();
+        var id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        var segment = Segment.recover(id, path);
+        segments.put(id, segment);
+        totalBytes += segment.capacity();
+        nextSegmentId = id + 1;
+      }
+    }
+    segments.values().stream().toList().forEach(this::deleteIfDone);
+    readSegment = segments.isEmpty() ? null : segments.firstEntry().getValue();
+    if (!segments.isEmpty()) {
+      LOG.info("Recovered {} spool segments in {}", segments.size(), directory);
+    }
+  }
+
+  private static boolean isSegment(Path path) {
+    return path.getFileName().toString().endsWith(SEGMENT_SUFFIX);
+  }
+
+  /**
+   * Append a message to the spool.
+   *
+   * @param message the message
+   * @throws IOException if the spool is closed, full or cannot be written
+   */
+  void append(PubsubMessage message) throws IOException {
+    lock.lock();
+    try {
+      if (closed) {
+        throw new IOException("Spool is closed");
+      }
+      if (writeSegment == null || !writeSegment.tryAppend(message)) {
+        roll(message.getSerializedSize());
+        writeSegment.tryAppend(message);
+      }
+      if (settings.fsyncPolicy() == FsyncPolicy.ALWAYS) {
+        writeSegment.force();
+      }
+      available.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void roll(int messageBytes) throws IOException {
+    var capacity = Math.max(settings.segmentBytes(), HEADER_BYTES + messageBytes);
+    if (totalBytes + capacity > settings.maxBytes()) {
+      throw new IOException("Spool is full: " + directory);
+    }
+    var previous = writeSegment;
+    writeSegment = Segment.create(nextSegmentId++, directory, capacity);
+    segments.put(writeSegment.id, writeSegment);
+    totalBytes += capacity;
+    if (readSegment == null) {
+      readSegment = writeSegment;
+    }
+    if (previous != null) {
+      previous.sealed = true;
+      previous.force();
+      deleteIfDone(previous);
+    }
+  }
+
+  /**
+   * Take the next message, waiting until one is appended.
+   *
+   * @return the next message, or {@code null} if the spool is closed
+   * @throws InterruptedException if interrupted while waiting
+   */
+  Entry take() throws InterruptedException {
+    lock.lock();
+    try {
+      while (!closed) {
+        var segment = readSegment;
+        if (segment != null && segment.hasUnread()) {
+          segment.unacked++;
+          return new Entry(segment.read(), segment);
+        }
+        var next = segment == null ? null : segments.higherEntry(segment.id);
+        if (next != null && segment.sealed) {
+          readSegment = next.getValue();
+          deleteIfDone(segment);
+        } else {
+          available.await();
+        }
+      }
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Acknowledge a published message. A segment is deleted once all its messages are acknowledged.
+   *
+   * @param entry the published entry
+   */
+  void ack(Entry entry) {
+    lock.lock();
+    try {
+      if (!closed) {
+        entry.segment().unacked--;
+        deleteIfDone(entry.segment());
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Delete a segment once done. Segments already deleted by an earlier ack or roll are skipped. */
+  private void deleteIfDone(Segment segment) {
+    if (!segment.sealed || segment.hasUnread() || segment.unacked > 0) {
+      return;
+    }
+    if (!segments.remove(segment.id, segment)) {
+      return;
+    }
+    totalBytes -= segment.capacity();
+    try {
+      segment.delete();
+    } catch (IOException e) {
+      LOG.warn("Failed to delete spool segment {}", segment.path, e);
+    }
+  }
+
+  /**
+   * @return the number of segment files of the spool.
+   */
+  int segmentCount() {
+    lock.lock();
+    try {
+      return segments.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void force() {
+    lock.lock();
+    try {
+      if (!closed && writeSegment != null) {
+        writeSegment.force();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Force and close the segments. Messages not acknowledged are taken again on the next open. */
+  @Override
+  public void close() {
+    if (fsyncScheduler != null) {
+      fsyncScheduler.shutdownNow();
+    }
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      available.signalAll();
+      for (var segment : segments.values()) {
+        segment.force();
+        segment.channel.close();
+      }
+      fileLock.release();
+      lockChannel.close();
+    } catch (IOException e) {
+      LOG.warn("Failed to close spool {}", directory, e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** A memory mapped segment file. Guarded by the lock of the spool. */
+  static final class Segment {
+
+    private final long id;
+    private final Path path;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int writePosition;
+    private int readPosition;
+    private int unacked;
+    private boolean sealed;
+
+    private Segment(long id, Path path, FileChannel channel, int capacity) throws IOException {
+      this.id = id;
+      this.path = path;
+      this.channel = channel;
+      this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    static Segment create(long id, Path directory, int capacity) throws IOException {
+      var path = directory.resolve("%020d%s".formatted(id, SEGMENT_SUFFIX));
+      var channel =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      return new Segment(id, path, channel, capacity);
+    }
+
+    static Segment recover(long id, Path path) throws IOException {
+      var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      var segment = new Segment(id, path, channel, (int) channel.size());
+      segment.writePosition = segment.scan();
+      segment.sealed = true;
+      return segment;
+    }
+
+    /** Find the end of the valid records. */
+    private int scan() {
+      var position = 0;
+      while (position + HEADER_BYTES <= capacity()) {
+        var length = buffer.getInt(position);
+        if (length <= 0 || length > capacity() - position - HEADER_BYTES) {
+          break;
+        }
+        if (checksum(position + HEADER_BYTES, length) != buffer.getInt(position + 4)) {
+          LOG.warn("Corrupt spool record in {} at {}, ignoring the rest", path, position);
+          break;
+        }
+        position += HEADER_BYTES + length;
+      }
+      return position;
+    }
+
+    boolean tryAppend(PubsubMessage message) throws IOException {
+      var length = message.getSerializedSize();
+      if (writePosition + HEADER_BYTES + length > capacity()) {
+        return false;
+      }
+      var data = buffer.slice(writePosition + HEADER_BYTES, length);
+      var output = CodedOutputStream.newInstance(data);
+      message.writeTo(output);
+      output.flush();
+      buffer.putInt(writePosition + 4, checksum(writePosition + HEADER_BYTES, length));
+      buffer.putInt(writePosition, length);
+      writePosition += HEADER_BYTES + length;
+      return true;
+    }
+
+    boolean hasUnread() {
+      return readPosition < writePosition;
+    }
+
+    PubsubMessage read() {
+      var length = buffer.getInt(readPosition);
+      var data = buffer.slice(readPosition + HEADER_BYTES, length);
+      readPosition += HEADER_BYTES + length;
+      try {
+        return PubsubMessage.parseFrom(data);
+      } catch (IOException e) {
+        // Checked by the checksum, so only a bug could get here.
+        throw new PubSubClientException("Corrupt spool record in " + path, e);
+      }
+    }
+
+    private int checksum(int offset, int length) {
+      var crc = new CRC32C();
+      crc.update(buffer.slice(offset, length));
+      return (int) crc.getValue();
+    }
+
+    int capacity() {
+      return buffer.capacity();
+    }
+
+    void force() {
+      buffer.force();
+    }
+
+    /**
+     * Close and delete the segment file. Java has no supported way to unmap a buffer, so the mapped
+     * memory, and on some platforms the disk space, is only released once the buffer is garbage
+     * collected. Dropping the reference here lets that happen as soon as possible.
+     */
+    void delete() throws IOException {
+      buffer = null;
+      channel.close();
+      Files.deleteIfExists(path);
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.retailsvc.gcp.pubsub;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records publish events as Micrometer meters, tagged by topic. Requires {@code micrometer-core} on
+ * the classpath. The meters of a topic are registered on its first event and reused after that.
+ *
+ * <ul>
+ *   <li>{@code pubsub.publish.latency} timer with percentile histogram, tagged with {@code outcome}
+ *   <li>{@code pubsub.publish.failures} counter, tagged with the {@code cause} exception type
+ *   <li>{@code pubsub.publish.timeouts} counter of callers giving up waiting
+ *   <li>{@code pubsub.publish.deduplicated} counter of duplicates not published
+ *   <li>{@code pubsub.publish.rejected} counter of messages rejected by an open circuit breaker
+ *   <li>{@code pubsub.publish.circuit.state} gauge of the circuit breaker state, 0 closed, 1 open
+ *       and 2 half open
+ *   <li>{@code pubsub.publish.in.flight} gauge of messages waiting for a publish result
+ *   <li>{@code pubsub.publish.message.size} summary of serialized message bytes
+ *   <li>{@code pubsub.publish.batch.size} summary of {@code publishAll} batch sizes
+ *   <li>{@code pubsub.publish.ordering.paused} gauge of paused ordering keys
+ *   <li>{@code pubsub.publish.ordering.pauses} counter of ordering key pauses
+ *   <li>{@code pubsub.client.close} timer of client shutdown
+ * </ul>
+ */
+public class MicrometerPublishMetricsListener implements PublishMetricsListener {
+
+  private static final String TOPIC = "topic";
+
+  private final MeterRegistry registry;
+  private final Map<String, Meters> meters = new ConcurrentHashMap<>();
+
+  public MicrometerPublishMetricsListener(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public void onEnqueued(String topic, int bytes) {
+    var topicMeters = meters(topic);
+    topicMeters.inFlight.incrementAndGet();
+    topicMeters.messageSize.record(bytes);
+  }
+
+  @Override
+  public void onPublished(String topic, Duration latency) {
+    var topicMeters = meters(topic);
+    topicMeters.inFlight.decrementAndGet();
+    topicMeters.published.record(latency);
+  }
+
+  @Override
+  public void onFailed(String topic, Throwable cause, Duration latency) {
+    var topicMeters = meters(topic);
+    topicMeters.inFlight.decrementAndGet();
+    topicMeters.failed.record(latency);
+    topicMeters.failures(cause.getClass()).increment();
+  }
+
+  @Override
+  public void onTimedOut(String topic) {
+    meters(topic).timeouts.increment();
+  }
+
+  @Override
+  public void onDeduplicated(String topic) {
+    meters(topic).deduplicated.increment();
+  }
+
+  @Override
+  public void onRejected(String topic) {
+    meters(topic).rejected.increment();
+  }
+
+  @Override
+  public void onCircuitStateChanged(String topic, CircuitState state) {
+    meters(topic).circuitState.set(state.ordinal());
+  }
+
+  @Override
+  public void onBatch(String topic, int size) {
+    meters(topic).batchSize.record(size);
+  }
+
+  @Override
+  public void onOrderingKeyPaused(String topic, String orderingKey) {
+    var topicMeters = meters(topic);
+    topicMeters.pausedKeys.incrementAndGet();
+    topicMeters.pauses.increment();
+  }
+
+  @Override
+  public void onOrderingKeyResumed(String topic, String orderingKey) {
+    meters(topic).pausedKeys.decrementAndGet();
+  }
+
+  @Override
+  public void onClosed(String topic, Duration duration) {
+    meters(topic).close.record(duration);
+  }
+
+  private Meters meters(String topic) {
+    var topicMeters = meters.get(topic);
+    return topicMeters != null ? topicMeters : meters.computeIfAbsent(topic, Meters::new);
+  }
+
+  /** The meters of a topic. Gauges read the counters held here, which keeps them reachable. */
+  private final class Meters {
+
+    private final String topic;
+    private final AtomicLong inFlight;
+    private final AtomicLong pausedKeys;
+    private final AtomicLong circuitState;
+    private final DistributionSummary messageSize;
+    private final DistributionSummary batchSize;
+    private final Timer published;
+    private final Timer failed;
+    private final Timer close;
+    private final Counter timeouts;
+    private final Counter deduplicated;
+    private final Counter rejected;
+    private final Counter pauses;
+    private final Map<Class<?>, Counter> failures = new ConcurrentHashMap<>();
+
+    private Meters(String topic) {
+      this.topic = topic;
+      inFlight = gauge("pubsub.publish.in.flight");
+      pausedKeys = gauge("pubsub.publish.ordering.paused");
+      circuitState = gauge("pubsub.publish.circuit.state");
+      messageSize =
+          DistributionSummary.builder("pubsub.publish.message.size")
+              .baseUnit("bytes")
+              .tag(TOPIC, topic)
+              .register(registry);
+      batchSize =
+          DistributionSummary.builder("pubsub.publish.batch.size")
+              .tag(TOPIC, topic)
+              .register(registry);
+      published = latencyTimer("success");
+      failed = latencyTimer("failure");
+      close = registry.timer("pubsub.client.close", TOPIC, topic);
+      timeouts = registry.counter("pubsub.publish.timeouts", TOPIC, topic);
+      deduplicated = registry.counter("pubsub.publish.deduplicated", TOPIC, topic);
+      rejected = registry.counter("pubsub.publish.rejected", TOPIC, topic);
+      pauses = registry.counter("pubsub.publish.ordering.pauses", TOPIC, topic);
+    }
+
+    private Counter failures(Class<?> cause) {
+      var counter = failures.get(cause);
+      return counter != null
+          ? counter
+          : failures.computeIfAbsent(
+              cause,
+              type ->
+                  Counter.builder("pubsub.publish.failures")
+                      .tag(TOPIC, topic)
+                      .tag("cause", type.getSimpleName())
+                      .register(registry));
+    }
+
+    private Timer latencyTimer(String outcome) {
+      return Timer.builder("pubsub.publish.latency")
+          .tag(TOPIC, topic)
+          .tag("outcome", outcome)
+          .publishPercentileHistogram()
+          .register(registry);
+    }
+
+    private AtomicLong gauge(String name) {
+      var gauge = new AtomicLong();
+      Gauge.builder(name, gauge, AtomicLong::get).tag(TOPIC, topic).register(registry);
+      return gauge;
+    }
+  }
+}
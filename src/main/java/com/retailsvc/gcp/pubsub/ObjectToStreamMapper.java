@@ -0,0 +1,35 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A mapper that serializes objects straight into an output stream provided by the client. The
+ * client writes into pooled, reusable buffers and publishes them without copying, so serialization
+ * does not allocate a new byte array per message. A buffer is returned to the pool once its message
+ * has been published.
+ *
+ * <p>The signature matches Jackson, so an {@code ObjectMapper} can be used as {@code
+ * (ObjectToStreamMapper) objectMapper::writeValue}.
+ */
+@FunctionalInterface
+public interface ObjectToStreamMapper extends ObjectToBytesMapper {
+
+  /**
+   * Write the byte representation of a value. Implementations must not close the stream.
+   *
+   * @param out the stream to write to
+   * @param value a value
+   * @throws IOException if failing to convert to bytes.
+   */
+  void writeValue(OutputStream out, Object value) throws IOException;
+
+  @Override
+  default ByteBuffer valueAsBytes(Object value) throws IOException {
+    var out = new ByteArrayOutputStream();
+    writeValue(out, value);
+    return ByteBuffer.wrap(out.toByteArray());
+  }
+}
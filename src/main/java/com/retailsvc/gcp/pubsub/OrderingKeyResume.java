@@ -0,0 +1,53 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Automatic resume of ordering keys. When an ordered message fails, the publisher pauses its
+ * ordering key and fails every later message of the key. With automatic resume, the client resumes
+ * the key after a backoff delay. A key that keeps failing stays paused after the max number of
+ * consecutive resumes, until {@link PubSubClient#resumePublish(String)} is called.
+ *
+ * <p>Resuming a key lets later messages be published even though an earlier one failed, so the
+ * failure must be handled by the publishing code.
+ *
+ * @param initialDelay the delay before the first resume of a key
+ * @param maxDelay the upper bound of the doubling delay between resumes
+ * @param maxAttempts the max number of consecutive resumes of a key without a successful publish
+ * @see PubSubClientConfig#setOrderingKeyResume(OrderingKeyResume)
+ */
+public record OrderingKeyResume(Duration initialDelay, Duration maxDelay, int maxAttempts) {
+
+  public OrderingKeyResume {
+    Objects.requireNonNull(initialDelay);
+    Objects.requireNonNull(maxDelay);
+    if (initialDelay.isNegative() || maxDelay.compareTo(initialDelay) < 0) {
+      throw new IllegalArgumentException("Invalid delay bounds");
+    }
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("maxAttempts must be positive");
+    }
+  }
+
+  /**
+   * Resume after 1 second, doubling up to 1 minute, for at most 5 consecutive resumes.
+   *
+   * @return the default resume settings
+   */
+  public static OrderingKeyResume defaults() {
+    return new OrderingKeyResume(Duration.ofSeconds(1), Duration.ofMinutes(1), 5);
+  }
+
+  /**
+   * @param attempt the resume attempt, starting at 1
+   * @return the delay before the given attempt
+   */
+  Duration delay(int attempt) {
+    var delay = initialDelay;
+    for (int i = 1; i < attempt && delay.compareTo(maxDelay) < 0; i++) {
+      delay = delay.multipliedBy(2);
+    }
+    return delay.compareTo(maxDelay) < 0 ? delay : maxDelay;
+  }
+}
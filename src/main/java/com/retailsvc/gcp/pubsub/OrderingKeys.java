@@ -0,0 +1,45 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.util.Objects;
+
+/**
+ * Ordering keys spread over shards. Messages of one entity always map to the same shard, so they
+ * keep their order, while the entities of an ordering scope are published over several sequential
+ * lanes instead of one.
+ *
+ * @see PubSubClientConfig#setOrderingKeyShards(int)
+ */
+public final class OrderingKeys {
+
+  private OrderingKeys() {}
+
+  /**
+   * Get the ordering key of an entity within a scope.
+   *
+   * @param scope the ordering scope, such as a tenant id
+   * @param entityId the id of the entity whose messages must stay in order
+   * @param shards the number of shards of the scope
+   * @return the scope when there is one shard, otherwise the scope suffixed with the shard of the
+   *     entity
+   */
+  public static String shard(String scope, String entityId, int shards) {
+    Objects.requireNonNull(scope, "scope must not be null");
+    Objects.requireNonNull(entityId, "entityId must not be null");
+    if (shards < 1) {
+      throw new IllegalArgumentException("shards must be positive");
+    }
+    if (shards == 1) {
+      return scope;
+    }
+    return scope + "#" + Math.floorMod(mix(entityId.hashCode()), shards);
+  }
+
+  /** Spread similar hash codes, such as sequential ids, evenly over the shards. */
+  private static int mix(int hash) {
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    return hash ^ (hash >>> 16);
+  }
+}
@@ -0,0 +1,275 @@
+package com.retailsvc.gcp.pubsub;
+
+import static java.util.Objects.isNull;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A client that packs unordered messages into envelopes, and publishes the envelopes through
+ * another client. Messages are buffered per attribute set, and every message of an envelope
+ * completes with the message id of the envelope. Ordered messages and batches are not packed, and
+ * publish directly through the other client.
+ *
+ * <p>A blocking {@link #publish(Object, Map)} waits for its envelope, so packing pays off with many
+ * concurrent publishers or with {@link #publishAsync(OutgoingMessage)}.
+ *
+ * @see Envelopes
+ */
+class PackingPubSubClient implements UsageTrackingClient {
+
+  private final UsageTrackingClient delegate;
+  private final PayloadEncoder payloadEncoder;
+  private final PackingSettings settings;
+  private final int orderingKeyShards;
+  private final Duration publishTimeout;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<Map<String, String>, Envelope> envelopes = new HashMap<>();
+  private final AtomicBoolean isClosed = new AtomicBoolean(false);
+  private final ScheduledExecutorService lingerScheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          Thread.ofVirtual().name("pubsub-packing-", 0).factory());
+
+  PackingPubSubClient(
+      UsageTrackingClient delegate,
+      ObjectToBytesMapper objectMapper,
+      PubSubClientConfig config,
+      BufferPool bufferPool) {
+    this.delegate = Objects.requireNonNull(delegate);
+    this.payloadEncoder = new PayloadEncoder(objectMapper, config, bufferPool);
+    this.settings = config.getPacking();
+    this.orderingKeyShards = config.getOrderingKeyShards();
+    this.publishTimeout = PubSubClientImpl.publishTimeout(config);
+  }
+
+  @Override
+  public void publish(Object payloadObject, Map<String, String> attributesMap) {
+    try {
+      publishAsync(OutgoingMessage.of(payloadObject, attributesMap))
+          .get(publishTimeout.toNanos(), TimeUnit.NANOSECONDS);
+    } catch (ExecutionException e) {
+      throw new PubSubClientException("Generic execution error", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PubSubClientException("Interrupted while waiting for publish result", e);
+    } catch (TimeoutException e) {
+      throw new PubSubClientException("Timed out waiting for publish result", e);
+    }
+  }
+
+  @Override
+  public void publishOrdered(
+      Object payloadObject, Map<String, String> attributesMap, String orderingKey) {
+    if (isNull(orderingKey)) {
+      publish(payloadObject, attributesMap);
+    } else {
+      delegate.publishOrdered(payloadObject, attributesMap, orderingKey);
+    }
+  }
+
+  @Override
+  public void publishOrdered(
+      Object payloadObject,
+      Map<String, String> attributesMap,
+      String orderingScope,
+      String entityId) {
+    delegate.publishOrdered(
+        payloadObject,
+        attributesMap,
+        OrderingKeys.shard(orderingScope, entityId, orderingKeyShards));
+  }
+
+  @Override
+  public List<String> publishAll(List<OutgoingMessage> messages) {
+    return delegate.publishAll(messages);
+  }
+
+  @Override
+  public CompletableFuture<String> publishAsync(OutgoingMessage message) {
+    return publishAsync(message, publishTimeout);
+  }
+
+  @Override
+  public CompletableFuture<String> publishAsync(OutgoingMessage message, Duration timeout) {
+    if (isClosed()) {
+      return CompletableFuture.failedFuture(new PubSubClientException("Client is closed"));
+    }
+    if (message == null) {
+      return CompletableFuture.failedFuture(new NullPointerException("message must not be null"));
+    }
+    if (timeout == null) {
+      return CompletableFuture.failedFuture(new NullPointerException("timeout must not be null"));
+    }
+    if (!isNull(message.orderingKey())) {
+      return delegate.publishAsync(message, timeout);
+    }
+    EncodedPayload event;
+    try {
+      event = payloadEncoder.encode(message.payload());
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    return add(attributes(event.withAttributes(message.attributes())), event)
+        .orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public CompletableFuture<List<String>> publishAllAsync(List<OutgoingMessage> messages) {
+    return delegate.publishAllAsync(messages);
+  }
+
+  @Override
+  public CompletableFuture<List<String>> publishAllAsync(
+      List<OutgoingMessage> messages, Duration timeout) {
+    return delegate.publishAllAsync(messages, timeout);
+  }
+
+  @Override
+  public void resumePublish(String orderingKey) {
+    delegate.resumePublish(orderingKey);
+  }
+
+  @Override
+  public long lastUsed() {
+    return delegate.lastUsed();
+  }
+
+  private CompletableFuture<String> add(Map<String, String> attributes, EncodedPayload event) {
+    var result = new CompletableFuture<String>();
+    Envelope full = null;
+    Envelope overflowed = null;
+    lock.lock();
+    try {
+      var envelope = envelopes.get(attributes);
+      if (envelope != null
+          && envelope.bytes + Envelopes.framedSize(event.data()) > settings.maxBytes()) {
+        overflowed = envelopes.remove(attributes);
+        envelope = null;
+      }
+      if (envelope == null) {
+        envelope = new Envelope(attributes);
+        envelopes.put(attributes, envelope);
+        scheduleLinger(envelope);
+      }
+      envelope.add(event, result);
+      if (envelope.events.size() >= settings.maxEvents() || envelope.bytes >= settings.maxBytes()) {
+        full = envelopes.remove(attributes);
+      }
+    } finally {
+      lock.unlock();
+    }
+    send(overflowed);
+    send(full);
+    return result;
+  }
+
+  private void scheduleLinger(Envelope envelope) {
+    try {
+      lingerScheduler.schedule(
+          () -> lingered(envelope), settings.linger().toNanos(), TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      // Closing, the envelope is sent by close.
+    }
+  }
+
+  private void lingered(Envelope envelope) {
+    lock.lock();
+    try {
+      if (!envelopes.remove(envelope.attributes, envelope)) {
+        return;
+      }
+    } finally {
+      lock.unlock();
+    }
+    send(envelope);
+  }
+
+  private void send(Envelope envelope) {
+    if (isNull(envelope)) {
+      return;
+    }
+    var attributes = new HashMap<>(envelope.attributes);
+    attributes.put(Envelopes.ENVELOPE_ATTRIBUTE, String.valueOf(envelope.events.size()));
+    var data = Envelopes.pack(envelope.events.stream().map(EncodedPayload::data).toList());
+    // The envelope holds a copy of the bytes.
+    envelope.events.forEach(event -> event.release().run());
+    delegate
+        .publishAsync(OutgoingMessage.of(data, attributes))
+        .whenComplete(
+            (id, e) -> {
+              var cause =
+                  e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+              for (var result : envelope.results) {
+                if (isNull(cause)) {
+                  result.complete(id);
+                } else {
+                  result.completeExceptionally(cause);
+                }
+              }
+            });
+  }
+
+  private static Map<String, String> attributes(Map<String, String> attributes) {
+    if (attributes instanceof MessageAttributes immutable) {
+      return immutable;
+    }
+    return isNull(attributes) ? Map.of() : Map.copyOf(attributes);
+  }
+
+  @Override
+  public boolean isClosed() {
+    return isClosed.get();
+  }
+
+  /** Send every buffered envelope, then close the other client, flushing outstanding messages. */
+  @Override
+  public void close() {
+    if (!isClosed.compareAndSet(false, true)) {
+      return;
+    }
+    lingerScheduler.shutdownNow();
+    List<Envelope> remaining;
+    lock.lock();
+    try {
+      remaining = new ArrayList<>(envelopes.values());
+      envelopes.clear();
+    } finally {
+      lock.unlock();
+    }
+    remaining.forEach(this::send);
+    delegate.close();
+  }
+
+  /** The events buffered for one attribute set. */
+  private static final class Envelope {
+
+    private final Map<String, String> attributes;
+    private final List<EncodedPayload> events = new ArrayList<>();
+    private final List<CompletableFuture<String>> results = new ArrayList<>();
+    private int bytes;
+
+    private Envelope(Map<String, String> attributes) {
+      this.attributes = attributes;
+    }
+
+    private void add(EncodedPayload event, CompletableFuture<String> result) {
+      events.add(event);
+      results.add(result);
+      bytes += Envelopes.framedSize(event.data());
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings of envelope packing. Events published with the same attributes are buffered and sent as
+ * one envelope message once the buffer holds {@code maxEvents} events or {@code maxBytes} bytes, or
+ * once the first event has waited for {@code linger}.
+ *
+ * @param maxEvents the max number of events per envelope
+ * @param maxBytes the max payload size of an envelope, before compression
+ * @param linger the max time an event waits for more events
+ * @see PubSubClientConfig#setPacking(PackingSettings)
+ * @see Envelopes#unpack(com.google.pubsub.v1.PubsubMessage)
+ */
+public record PackingSettings(int maxEvents, int maxBytes, Duration linger) {
+
+  /** The Pub/Sub limit of a message payload. */
+  private static final int MAX_MESSAGE_BYTES = 10 * 1024 * 1024;
+
+  public PackingSettings {
+    Objects.requireNonNull(linger);
+    if (maxEvents < 1 || maxBytes < 1 || maxBytes > MAX_MESSAGE_BYTES) {
+      throw new IllegalArgumentException("Invalid max events or max bytes");
+    }
+    if (linger.isNegative()) {
+      throw new IllegalArgumentException("linger must not be negative");
+    }
+  }
+
+  /**
+   * Up to 1000 events or 256 KiB per envelope, lingering for 10 milliseconds.
+   *
+   * @return the default packing settings
+   */
+  public static PackingSettings defaults() {
+    return new PackingSettings(1_000, 256 * 1024, Duration.ofMillis(10));
+  }
+}
@@ -0,0 +1,42 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+
+/**
+ * A codec compressing message payloads. The codec name is published in the {@value
+ * PayloadCodecs#ENCODING_ATTRIBUTE} message attribute, so consumers can pick the matching codec to
+ * decode the payload.
+ *
+ * <p>Custom codecs can be made available to {@link PayloadCodecs#decode(
+ * com.google.pubsub.v1.PubsubMessage)} by registering them as a {@link java.util.ServiceLoader}
+ * service.
+ *
+ * @see PayloadCodecs
+ * @see PubSubClientConfig#setCompression(PayloadCodec, int)
+ */
+public interface PayloadCodec {
+
+  /**
+   * @return the name of the encoding, published as message attribute.
+   */
+  String name();
+
+  /**
+   * Compress a payload.
+   *
+   * @param data the payload
+   * @return the compressed payload
+   * @throws IOException if the payload cannot be compressed
+   */
+  ByteString encode(ByteString data) throws IOException;
+
+  /**
+   * Decompress a payload.
+   *
+   * @param data the compressed payload
+   * @return the original payload
+   * @throws IOException if the payload cannot be decompressed
+   */
+  ByteString decode(ByteString data) throws IOException;
+}
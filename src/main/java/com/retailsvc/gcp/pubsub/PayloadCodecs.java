@@ -0,0 +1,193 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The built-in {@link PayloadCodec}s, and a helper for consumers to decode compressed messages.
+ *
+ * <pre>{@code
+ * ByteString payload = PayloadCodecs.decode(receivedMessage);
+ * }</pre>
+ */
+public final class PayloadCodecs {
+
+  /** The message attribute holding the name of the codec a payload was compressed with. */
+  public static final String ENCODING_ATTRIBUTE = "Content-Encoding";
+
+  /**
+   * The max size of a payload decompressed by the built-in codecs, the Pub/Sub message size limit.
+   * Larger payloads are rejected, so a small compressed payload cannot exhaust the heap.
+   */
+  public static final int MAX_DECODED_BYTES = 10 * 1024 * 1024;
+
+  private static final PayloadCodec GZIP = new GzipCodec();
+  private static final PayloadCodec DEFLATE = new DeflateCodec();
+
+  private static final Map<String, PayloadCodec> codecs = new ConcurrentHashMap<>();
+
+  static {
+    register(GZIP);
+    register(DEFLATE);
+    ServiceLoader.load(PayloadCodec.class).forEach(PayloadCodecs::register);
+  }
+
+  private PayloadCodecs() {}
+
+  /**
+   * @return a codec using the JDK GZIP implementation.
+   */
+  public static PayloadCodec gzip() {
+    return GZIP;
+  }
+
+  /**
+   * @return a codec using the JDK Deflater implementation.
+   */
+  public static PayloadCodec deflate() {
+    return DEFLATE;
+  }
+
+  /**
+   * Make a codec available for decoding by its name.
+   *
+   * @param codec the codec
+   */
+  public static void register(PayloadCodec codec) {
+    codecs.put(codec.name(), codec);
+  }
+
+  /**
+   * Find a codec by name.
+   *
+   * @param name the codec name
+   * @return the codec, or empty if no codec is registered by that name.
+   */
+  public static Optional<PayloadCodec> forName(String name) {
+    return Optional.ofNullable(codecs.get(name));
+  }
+
+  /**
+   * Get the original payload of a message, decompressing it if it carries an {@value
+   * #ENCODING_ATTRIBUTE} attribute.
+   *
+   * @param message a received message
+   * @return the original payload
+   * @throws PubSubClientException if the codec is unknown, the payload cannot be decompressed or it
+   *     exceeds {@link #MAX_DECODED_BYTES}
+   */
+  public static ByteString decode(PubsubMessage message) {
+    return decode(message.getAttributesMap(), message.getData());
+  }
+
+  /**
+   * Get the original payload of a message, decompressing it if its attributes carry an {@value
+   * #ENCODING_ATTRIBUTE} attribute.
+   *
+   * @param attributes the message attributes
+   * @param data the message payload
+   * @return the original payload
+   * @throws PubSubClientException if the codec is unknown, the payload cannot be decompressed or it
+   *     exceeds {@link #MAX_DECODED_BYTES}
+   */
+  public static ByteString decode(Map<String, String> attributes, ByteString data) {
+    var name = attributes.get(ENCODING_ATTRIBUTE);
+    if (name == null) {
+      return data;
+    }
+    var codec =
+        forName(name).orElseThrow(() -> new PubSubClientException("Unknown encoding " + name));
+    try {
+      return codec.decode(data);
+    } catch (IOException e) {
+      throw new PubSubClientException("Could not decode payload", e);
+    }
+  }
+
+  private static ByteString compress(ByteString data, StreamWrapper wrapper) throws IOException {
+    var out = ByteString.newOutput(data.size() / 2);
+    try (var compressing = wrapper.wrap(out)) {
+      data.writeTo(compressing);
+    }
+    return out.toByteString();
+  }
+
+  private static ByteString decompress(InputStream in) throws IOException {
+    var out = ByteString.newOutput();
+    var buffer = new byte[8192];
+    var total = 0L;
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      total += read;
+      if (total > MAX_DECODED_BYTES) {
+        throw new PubSubClientException("Decoded payload exceeds " + MAX_DECODED_BYTES + " bytes");
+      }
+      out.write(buffer, 0, read);
+    }
+    return out.toByteString();
+  }
+
+  @FunctionalInterface
+  private interface StreamWrapper {
+    OutputStream wrap(OutputStream out) throws IOException;
+  }
+
+  private static final class GzipCodec implements PayloadCodec {
+    @Override
+    public String name() {
+      return "gzip";
+    }
+
+    @Override
+    public ByteString encode(ByteString data) throws IOException {
+      return compress(data, GZIPOutputStream::new);
+    }
+
+    @Override
+    public ByteString decode(ByteString data) throws IOException {
+      try (InputStream in = new GZIPInputStream(data.newInput())) {
+        return decompress(in);
+      }
+    }
+  }
+
+  private static final class DeflateCodec implements PayloadCodec {
+    @Override
+    public String name() {
+      return "deflate";
+    }
+
+    @Override
+    public ByteString encode(ByteString data) throws IOException {
+      var deflater = new Deflater();
+      try {
+        return compress(data, out -> new DeflaterOutputStream(out, deflater));
+      } finally {
+        deflater.end();
+      }
+    }
+
+    @Override
+    public ByteString decode(ByteString data) throws IOException {
+      var inflater = new Inflater();
+      try (InputStream in = new InflaterInputStream(data.newInput(), inflater)) {
+        return decompress(in);
+      } finally {
+        inflater.end();
+      }
+    }
+  }
+}
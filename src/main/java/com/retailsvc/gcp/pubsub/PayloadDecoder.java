@@ -0,0 +1,83 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import com.google.pubsub.v1.PubsubMessage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Decodes the payload of received messages. Compressed payloads are decompressed first, and
+ * envelopes are unpacked into their events. Byte and string types are read as is. Other types are
+ * read by the mapper, or without one, generated protobuf messages are parsed from their binary
+ * format.
+ */
+class PayloadDecoder<T> {
+
+  private final Class<T> type;
+  private final BytesToObjectMapper objectMapper;
+  private final Parser<?> parser;
+
+  PayloadDecoder(Class<T> type, BytesToObjectMapper objectMapper) {
+    this.type = Objects.requireNonNull(type);
+    this.objectMapper = objectMapper;
+    this.parser = parser(type);
+  }
+
+  /**
+   * Decode a message, or every event of an envelope, in order.
+   *
+   * @param message a received message
+   * @return the decoded messages, one per event of an envelope
+   * @throws IOException if a payload cannot be decoded
+   */
+  List<ReceivedMessage<T>> decode(PubsubMessage message) throws IOException {
+    if (!Envelopes.isEnvelope(message)) {
+      return List.of(
+          new ReceivedMessage<>(payload(PayloadCodecs.decode(message), message), message));
+    }
+    var events = Envelopes.unpack(message);
+    var decoded = new ArrayList<ReceivedMessage<T>>(events.size());
+    for (var event : events) {
+      decoded.add(new ReceivedMessage<>(payload(event, message), message));
+    }
+    return decoded;
+  }
+
+  private T payload(ByteString data, PubsubMessage message) throws IOException {
+    Object payload;
+    if (type == ByteString.class) {
+      payload = data;
+    } else if (type == byte[].class) {
+      payload = data.toByteArray();
+    } else if (type == ByteBuffer.class) {
+      payload = data.asReadOnlyByteBuffer();
+    } else if (type == String.class) {
+      payload = data.toStringUtf8();
+    } else if (type == PubsubMessage.class) {
+      payload = message.getData() == data ? message : message.toBuilder().setData(data).build();
+    } else if (objectMapper != null) {
+      return objectMapper.readValue(data.toByteArray(), type);
+    } else if (parser != null) {
+      payload = parser.parseFrom(data);
+    } else {
+      throw new PubSubClientException("No mapper to decode payload as " + type.getName());
+    }
+    return type.cast(payload);
+  }
+
+  private static Parser<?> parser(Class<?> type) {
+    if (!MessageLite.class.isAssignableFrom(type) || type.isInterface()) {
+      return null;
+    }
+    try {
+      return ((MessageLite) type.getMethod("getDefaultInstance").invoke(null)).getParserForType();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new IllegalArgumentException("Not a generated protobuf message: " + type.getName(), e);
+    }
+  }
+}
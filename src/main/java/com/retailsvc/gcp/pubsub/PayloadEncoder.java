@@ -0,0 +1,147 @@
+package com.retailsvc.gcp.pubsub;
+
+import static com.retailsvc.gcp.pubsub.PayloadSchemas.BINARY;
+import static com.retailsvc.gcp.pubsub.PayloadSchemas.SCHEMA_ENCODING_ATTRIBUTE;
+import static com.retailsvc.gcp.pubsub.PayloadSchemas.SCHEMA_NAME_ATTRIBUTE;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.UnsafeByteOperations;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Converts payload objects to the bytes of a Pub/Sub message.
+ *
+ * <p>{@link ByteString} payloads are immutable and always used as is. A {@code byte[]} payload is
+ * given to the mapper, as in earlier versions, unless no mapper is set or zero-copy is enabled.
+ * With zero-copy enabled, {@code byte[]} and {@link ByteBuffer} payloads, as well as the buffers
+ * returned by the {@link ObjectToBytesMapper}, are wrapped instead of copied. The caller then hands
+ * over ownership of the bytes and must not modify them after publishing, or the published data is
+ * undefined. Buffers are wrapped from their position to their limit, and their position is left
+ * unchanged.
+ *
+ * <p>With an {@link ObjectToStreamMapper}, mapped payloads are serialized into pooled buffers that
+ * are returned to the pool when the payload is released. A payload that is never released, for
+ * example because publishing failed, is left to the garbage collector.
+ *
+ * <p>Protobuf messages and, with Avro on the classpath, Avro records are serialized in their binary
+ * format and tagged with the attributes of {@link PayloadSchemas}, unless a mapper is set. Native
+ * schema encoding makes them take precedence over the mapper.
+ */
+class PayloadEncoder {
+
+  /** Avro is an optional dependency, only loaded if on the classpath. */
+  private static final boolean AVRO_AVAILABLE =
+      isOnClasspath("org.apache.avro.generic.GenericContainer");
+
+  private final ObjectToBytesMapper objectMapper;
+  private final boolean zeroCopy;
+  private final boolean encodeSchemas;
+  private final BufferPool bufferPool;
+
+  PayloadEncoder(ObjectToBytesMapper objectMapper, boolean zeroCopy) {
+    this(objectMapper, zeroCopy, false, BufferPool.defaultPool());
+  }
+
+  PayloadEncoder(
+      ObjectToBytesMapper objectMapper, PubSubClientConfig config, BufferPool bufferPool) {
+    this(objectMapper, config.isZeroCopyPayloads(), config.isNativeSchemaEncoding(), bufferPool);
+  }
+
+  /**
+   * @param objectMapper the mapper of other payloads, may be null
+   * @param zeroCopy true to wrap payload bytes instead of copying them
+   * @param nativeSchemaEncoding true to encode protobuf and Avro payloads even with a mapper
+   * @param bufferPool the pool of an {@link ObjectToStreamMapper}, shared with other encoders
+   */
+  PayloadEncoder(
+      ObjectToBytesMapper objectMapper,
+      boolean zeroCopy,
+      boolean nativeSchemaEncoding,
+      BufferPool bufferPool) {
+    this.objectMapper = objectMapper;
+    this.zeroCopy = zeroCopy;
+    this.encodeSchemas = nativeSchemaEncoding || objectMapper == null;
+    this.bufferPool =
+        objectMapper instanceof ObjectToStreamMapper ? Objects.requireNonNull(bufferPool) : null;
+  }
+
+  /**
+   * Convert a payload to bytes.
+   *
+   * @param payloadObject the payload
+   * @return the payload bytes
+   * @throws PubSubClientException if the payload is null or cannot be read
+   */
+  EncodedPayload encode(Object payloadObject) {
+    try {
+      return switch (payloadObject) {
+        case ByteString b -> EncodedPayload.of(b);
+        case String s -> EncodedPayload.of(ByteString.copyFromUtf8(s));
+        case byte[] a when zeroCopy || objectMapper == null ->
+            EncodedPayload.of(
+                zeroCopy ? UnsafeByteOperations.unsafeWrap(a) : ByteString.copyFrom(a));
+        case ByteBuffer b -> EncodedPayload.of(fromBuffer(b));
+        case InputStream i -> EncodedPayload.of(ByteString.readFrom(i));
+        case MessageLite m when encodeSchemas -> fromProtobuf(m);
+        case null -> throw new PubSubClientException("Payload object cannot be null");
+        default ->
+            encodeSchemas && AVRO_AVAILABLE && AvroEncoding.isAvro(payloadObject)
+                ? AvroEncoding.encode(payloadObject)
+                : mapValue(payloadObject);
+      };
+    } catch (NullPointerException | IOException e) {
+      throw new PubSubClientException("Could not read payload", e);
+    }
+  }
+
+  private static EncodedPayload fromProtobuf(MessageLite message) {
+    var data = message.toByteString();
+    if (message instanceof Message full) {
+      return EncodedPayload.of(
+          data,
+          Map.of(
+              SCHEMA_NAME_ATTRIBUTE,
+              full.getDescriptorForType().getFullName(),
+              SCHEMA_ENCODING_ATTRIBUTE,
+              BINARY));
+    }
+    // Lite messages carry no descriptor to name the schema.
+    return EncodedPayload.of(data, Map.of(SCHEMA_ENCODING_ATTRIBUTE, BINARY));
+  }
+
+  private static boolean isOnClasspath(String className) {
+    try {
+      Class.forName(className, false, PayloadEncoder.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  private ByteString fromBuffer(ByteBuffer buffer) {
+    return zeroCopy ? UnsafeByteOperations.unsafeWrap(buffer.slice()) : ByteString.copyFrom(buffer);
+  }
+
+  private EncodedPayload mapValue(Object payloadObject) throws IOException {
+    if (objectMapper == null) {
+      throw new IOException("No object mapper configured");
+    }
+    if (objectMapper instanceof ObjectToStreamMapper streamMapper) {
+      var buffer = bufferPool.acquire();
+      try {
+        streamMapper.writeValue(buffer, payloadObject);
+      } catch (IOException | RuntimeException e) {
+        buffer.release();
+        throw e;
+      }
+      return new EncodedPayload(buffer.toByteString(), buffer::release);
+    }
+    return EncodedPayload.of(fromBuffer(objectMapper.valueAsBytes(payloadObject)));
+  }
+}
@@ -0,0 +1,24 @@
+package com.retailsvc.gcp.pubsub;
+
+/**
+ * Attributes describing schema encoded payloads. Protobuf messages and Avro records are encoded
+ * natively, without an {@link ObjectToBytesMapper}, and their messages are tagged with the schema
+ * name and the {@value #BINARY} encoding.
+ *
+ * <p>The attributes mirror the {@code googclient_schemaname} and {@code googclient_schemaencoding}
+ * attributes Pub/Sub adds to messages of topics with a schema. Attributes with a {@code goog}
+ * prefix are reserved and rejected on publish, so the client uses its own names.
+ */
+public final class PayloadSchemas {
+
+  /** The attribute naming the schema of the payload. */
+  public static final String SCHEMA_NAME_ATTRIBUTE = "Schema-Name";
+
+  /** The attribute naming the encoding of the payload. */
+  public static final String SCHEMA_ENCODING_ATTRIBUTE = "Schema-Encoding";
+
+  /** The binary wire format of protobuf and Avro. */
+  public static final String BINARY = "BINARY";
+
+  private PayloadSchemas() {}
+}
@@ -48,14 +48,7 @@ public record PooledPublisherFactory(
     return Publisher.newBuilder(topic)
         .setChannelProvider(
             InstantiatingGrpcChannelProvider.newBuilder()
-                .setChannelPoolSettings(
-                    ChannelPoolSettings.builder()
-                        .setMaxRpcsPerChannel(maxRpcsPerChannel)
-                        .setInitialChannelCount(initialChannelCount)
-                        .setMinRpcsPerChannel(1)
-                        .setMaxChannelCount(maxChannelCount)
-                        .setPreemptiveRefreshEnabled(true)
-                        .build())
+                .setChannelPoolSettings(channelPoolSettings())
                 .setExecutor(
                     Executors.newThreadPerTaskExecutor(
                         Thread.ofVirtual().name("pubsub-channel-", 0).factory()))
@@ -63,6 +56,19 @@ public record PooledPublisherFactory(
         .setExecutorProvider(new VirtualExecutorProvider());
   }
 
+  /**
+   * @return the settings of the gRPC channel pool.
+   */
+  ChannelPoolSettings channelPoolSettings() {
+    return ChannelPoolSettings.builder()
+        .setMaxRpcsPerChannel(maxRpcsPerChannel)
+        .setInitialChannelCount(initialChannelCount)
+        .setMinRpcsPerChannel(1)
+        .setMaxChannelCount(maxChannelCount)
+        .setPreemptiveRefreshEnabled(true)
+        .build();
+  }
+
   private static class VirtualExecutorProvider implements ExecutorProvider {
     @Override
     public boolean shouldAutoClose() {
@@ -0,0 +1,30 @@
+package com.retailsvc.gcp.pubsub;
+
+/**
+ * A consumer draining a Google Cloud PubSub subscription with synchronous pull, for batch jobs that
+ * process the backlog and exit.
+ *
+ * <p>Instantiate a {@link PubSubBatchConsumer} via {@link PubSubSubscriberFactory}.
+ */
+public interface PubSubBatchConsumer extends AutoCloseable {
+
+  /**
+   * Pull and handle messages until the backlog is empty. Pulls run concurrently, and each pull
+   * hands its messages to the handler as one batch. The method returns once every pull came back
+   * empty several times in a row. Messages that fail are nacked once, and left to their ack
+   * deadline if redelivered during the same drain.
+   *
+   * @return the number of acked and nacked messages
+   * @throws PubSubClientException if the consumer is closed or a pull fails
+   */
+  DrainResult drain() throws PubSubClientException;
+
+  /**
+   * @return the subscription this consumer pulls from.
+   */
+  String subscription();
+
+  /** Stop pulling and release the connection to the service. */
+  @Override
+  void close();
+}
@@ -0,0 +1,172 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.pubsub.v1.stub.SubscriberStub;
+import com.google.pubsub.v1.AcknowledgeRequest;
+import com.google.pubsub.v1.ModifyAckDeadlineRequest;
+import com.google.pubsub.v1.PullRequest;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+class PubSubBatchConsumerImpl<T> implements PubSubBatchConsumer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /** A single empty pull does not prove the backlog is empty, so a pull stops after several. */
+  static final int EMPTY_PULLS_TO_STOP = 3;
+
+  private final SubscriberStub stub;
+  private final String subscription;
+  private final PayloadDecoder<T> decoder;
+  private final BatchHandler<T> handler;
+  private final int maxMessagesPerPull;
+  private final int concurrentPulls;
+  private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+  PubSubBatchConsumerImpl(
+      SubscriberStub stub,
+      String subscription,
+      PayloadDecoder<T> decoder,
+      BatchHandler<T> handler,
+      PubSubSubscriberConfig config) {
+    this.stub = Objects.requireNonNull(stub);
+    this.subscription = Objects.requireNonNull(subscription);
+    this.decoder = Objects.requireNonNull(decoder);
+    this.handler = Objects.requireNonNull(handler);
+    this.maxMessagesPerPull = config.getMaxMessagesPerPull();
+    this.concurrentPulls = config.getConcurrentPulls();
+  }
+
+  @Override
+  public DrainResult drain() {
+    if (isClosed.get()) {
+      throw new PubSubClientException("Consumer is closed");
+    }
+    var started = System.nanoTime();
+    var acked = new AtomicLong();
+    var nacked = new AtomicLong();
+    var failed = ConcurrentHashMap.<String>newKeySet();
+    var pulls = new ArrayList<Future<?>>(concurrentPulls);
+    try (var executor =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("pubsub-pull-", 0).factory())) {
+      for (var i = 0; i < concurrentPulls; i++) {
+        pulls.add(executor.submit(() -> pullUntilEmpty(acked, nacked, failed)));
+      }
+      for (var pull : pulls) {
+        pull.get();
+      }
+    } catch (ExecutionException e) {
+      throw new PubSubClientException("Failed to drain subscription", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PubSubClientException("Interrupted while draining subscription", e);
+    }
+    var result =
+        new DrainResult(acked.get(), nacked.get(), Duration.ofNanos(System.nanoTime() - started));
+    LOG.debug("Drained [{}]: {}", subscription, result);
+    return result;
+  }
+
+  /**
+   * Pull, handle and ack batches until several pulls in a row bring no new messages or the consumer
+   * is closed. A message that fails is nacked once. If it is redelivered during the same drain, it
+   * is left to its ack deadline instead of being handled again, so a poison message cannot keep the
+   * drain from ending.
+   */
+  private void pullUntilEmpty(AtomicLong acked, AtomicLong nacked, Set<String> failed) {
+    var request =
+        PullRequest.newBuilder()
+            .setSubscription(subscription)
+            .setMaxMessages(maxMessagesPerPull)
+            .build();
+    var emptyPulls = 0;
+    while (!isClosed.get() && emptyPulls < EMPTY_PULLS_TO_STOP) {
+      var response = stub.pullCallable().call(request);
+      var batch = new ArrayList<ReceivedMessage<T>>(response.getReceivedMessagesCount());
+      var ackIds = new ArrayList<String>(response.getReceivedMessagesCount());
+      var messageIds = new ArrayList<String>(response.getReceivedMessagesCount());
+      var undecodable = new ArrayList<String>();
+      for (var received : response.getReceivedMessagesList()) {
+        var messageId = received.getMessage().getMessageId();
+        if (failed.contains(messageId)) {
+          continue;
+        }
+        try {
+          batch.addAll(decoder.decode(received.getMessage()));
+          ackIds.add(received.getAckId());
+          messageIds.add(messageId);
+        } catch (IOException | RuntimeException e) {
+          LOG.warn("Failed to decode message [{}]", messageId, e);
+          undecodable.add(received.getAckId());
+          failed.add(messageId);
+        }
+      }
+      nack(undecodable);
+      nacked.addAndGet(undecodable.size());
+      emptyPulls = ackIds.isEmpty() && undecodable.isEmpty() ? emptyPulls + 1 : 0;
+      if (batch.isEmpty()) {
+        continue;
+      }
+      try {
+        handler.handle(batch);
+      } catch (Exception e) {
+        LOG.warn("Failed to handle batch of {} messages", batch.size(), e);
+        failed.addAll(messageIds);
+        nack(ackIds);
+        nacked.addAndGet(ackIds.size());
+        continue;
+      }
+      stub.acknowledgeCallable()
+          .call(
+              AcknowledgeRequest.newBuilder()
+                  .setSubscription(subscription)
+                  .addAllAckIds(ackIds)
+                  .build());
+      acked.addAndGet(ackIds.size());
+    }
+  }
+
+  /** Make messages available for redelivery right away, instead of at their ack deadline. */
+  private void nack(List<String> ackIds) {
+    if (ackIds.isEmpty()) {
+      return;
+    }
+    try {
+      stub.modifyAckDeadlineCallable()
+          .call(
+              ModifyAckDeadlineRequest.newBuilder()
+                  .setSubscription(subscription)
+                  .addAllAckIds(ackIds)
+                  .setAckDeadlineSeconds(0)
+                  .build());
+    } catch (ApiException e) {
+      // The messages are redelivered once their ack deadline passes.
+      LOG.warn("Failed to nack {} messages", ackIds.size(), e);
+    }
+  }
+
+  @Override
+  public String subscription() {
+    return subscription;
+  }
+
+  @Override
+  public void close() {
+    if (isClosed.compareAndSet(false, true)) {
+      stub.close();
+    }
+  }
+}
@@ -1,8 +1,15 @@
 package com.retailsvc.gcp.pubsub;
 
+import java.time.Duration;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * A client to send messages to Google Cloud PubSub.
@@ -34,6 +41,30 @@ public interface PubSubClient extends AutoCloseable {
   void publishOrdered(Object payloadObject, Map<String, String> attributesMap, String orderingKey)
       throws PubSubClientException;
 
+  /**
+   * Publish a message that keeps its order relative to other messages of the same entity. The
+   * ordering key is the ordering scope, sharded by the entity id over the number of shards set by
+   * {@link PubSubClientConfig#setOrderingKeyShards(int)}. The method will block until either
+   * successful publishing completes, or an error is raised.
+   *
+   * <p>The default implementation uses a single shard, so the ordering key is the scope.
+   *
+   * @param payloadObject The payload to send
+   * @param attributesMap The map of attributes to send
+   * @param orderingScope The scope of the ordering, such as a tenant id
+   * @param entityId The id of the entity whose messages must stay in order
+   * @throws PubSubClientException If an error occurs, or the message cannot be delivered
+   * @see OrderingKeys#shard(String, String, int)
+   */
+  default void publishOrdered(
+      Object payloadObject,
+      Map<String, String> attributesMap,
+      String orderingScope,
+      String entityId)
+      throws PubSubClientException {
+    publishOrdered(payloadObject, attributesMap, OrderingKeys.shard(orderingScope, entityId, 1));
+  }
+
   /**
    * Publish a batch of messages on PubSub. All messages are handed to the underlying publisher
    * first, allowing it to batch them into as few publish requests as possible, and only then are
@@ -65,6 +96,184 @@ public interface PubSubClient extends AutoCloseable {
         payloads.stream().map(payload -> OutgoingMessage.of(payload, attributes)).toList());
   }
 
+  /**
+   * Publish a message on PubSub without blocking the calling thread. The returned future completes
+   * with the message id once the publisher has acknowledged the message.
+   *
+   * @param payloadObject The payload to send
+   * @param attributesMap The map of attributes to send
+   * @return a future completing with the published message id
+   * @see #publishAsync(OutgoingMessage, Duration)
+   */
+  default CompletableFuture<String> publishAsync(
+      Object payloadObject, Map<String, String> attributesMap) {
+    return publishAsync(OutgoingMessage.of(payloadObject, attributesMap));
+  }
+
+  /**
+   * Publish a message on PubSub using a key for ordering, without blocking the calling thread.
+   *
+   * @param payloadObject The payload to send
+   * @param attributesMap The map of attributes to send
+   * @param orderingKey The key used for ordering of the messages
+   * @return a future completing with the published message id
+   * @see #publishAsync(OutgoingMessage, Duration)
+   */
+  default CompletableFuture<String> publishOrderedAsync(
+      Object payloadObject, Map<String, String> attributesMap, String orderingKey) {
+    return publishAsync(OutgoingMessage.ordered(payloadObject, attributesMap, orderingKey));
+  }
+
+  /**
+   * Publish a message on PubSub without blocking the calling thread, using the client default
+   * publish timeout as deadline.
+   *
+   * @param message the message to publish
+   * @return a future completing with the published message id
+   * @see #publishAsync(OutgoingMessage, Duration)
+   */
+  default CompletableFuture<String> publishAsync(OutgoingMessage message) {
+    if (message == null) {
+      return CompletableFuture.failedFuture(new NullPointerException("message must not be null"));
+    }
+    return publishAllAsync(List.of(message)).thenApply(List::getFirst);
+  }
+
+  /**
+   * Publish a message on PubSub without blocking the calling thread. The future is completed from
+   * the publisher callback, so no thread is parked while the message is in flight.
+   *
+   * <p>Any error, including a closed client or a payload that cannot be read, is reported through
+   * the returned future rather than thrown, and so is a {@code null} argument. Publish errors
+   * complete the future with a {@link PubSubClientException}. If the deadline passes first, the
+   * future completes with a {@link java.util.concurrent.TimeoutException}. Cancelling the future
+   * cancels the underlying publish result.
+   *
+   * @param message the message to publish
+   * @param timeout the deadline for this call
+   * @return a future completing with the published message id
+   */
+  default CompletableFuture<String> publishAsync(OutgoingMessage message, Duration timeout) {
+    if (message == null) {
+      return CompletableFuture.failedFuture(new NullPointerException("message must not be null"));
+    }
+    return publishAllAsync(List.of(message), timeout).thenApply(List::getFirst);
+  }
+
+  /**
+   * Publish a batch of messages on PubSub without blocking the calling thread, using the client
+   * default publish timeout as deadline. All messages are submitted before this method returns, and
+   * the future completes once every result is known.
+   *
+   * <p>The default implementation calls {@link #publishAll(List)} on a virtual thread.
+   *
+   * @param messages the messages to publish
+   * @return a future completing with the published message ids, in the same order as {@code
+   *     messages}
+   * @see #publishAllAsync(List, Duration)
+   */
+  default CompletableFuture<List<String>> publishAllAsync(List<OutgoingMessage> messages) {
+    if (messages == null) {
+      return CompletableFuture.failedFuture(new NullPointerException("messages must not be null"));
+    }
+    return CompletableFuture.supplyAsync(
+        () -> publishAll(messages), task -> Thread.ofVirtual().start(task));
+  }
+
+  /**
+   * Publish a batch of messages on PubSub without blocking the calling thread. Every message is
+   * always submitted, even if some fail. If one or more messages fail to publish, the future
+   * completes with a {@link PubSubClientException} carrying the first failure as its cause, the
+   * same way as {@link #publishAll(List)}. If the deadline passes first, the future completes with
+   * a {@link java.util.concurrent.TimeoutException}. Cancelling the future cancels every pending
+   * publish result.
+   *
+   * @param messages the messages to publish
+   * @param timeout the deadline for the whole batch
+   * @return a future completing with the published message ids, in the same order as {@code
+   *     messages}
+   */
+  default CompletableFuture<List<String>> publishAllAsync(
+      List<OutgoingMessage> messages, Duration timeout) {
+    if (timeout == null) {
+      return CompletableFuture.failedFuture(new NullPointerException("timeout must not be null"));
+    }
+    return publishAllAsync(messages).orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Publish a stream of messages with a bounded number of messages in flight. Messages are pulled
+   * from the iterator and serialized one at a time, only when the window has room, so memory use
+   * stays flat regardless of the size of the stream. The method blocks until every message has
+   * completed.
+   *
+   * <p>Failures do not stop the stream. Each result is reported to {@code listener} as soon as it
+   * is known, from the publisher callback thread, so the listener should not block.
+   *
+   * @param messages the messages to publish
+   * @param maxInFlight the max number of messages waiting for a publish result
+   * @param listener receives the result of every message
+   * @return the number of published and failed messages
+   * @throws PubSubClientException if the client is closed or the thread is interrupted
+   */
+  default PublishSummary publishStream(
+      Iterator<OutgoingMessage> messages, int maxInFlight, Consumer<PublishResult> listener)
+      throws PubSubClientException {
+    if (isClosed()) {
+      throw new PubSubClientException("Client is closed");
+    }
+    return new WindowedPublisher(this, maxInFlight, listener).publish(messages);
+  }
+
+  /**
+   * Publish a stream of messages with a bounded number of messages in flight. The stream is closed
+   * once consumed.
+   *
+   * @param messages the messages to publish
+   * @param maxInFlight the max number of messages waiting for a publish result
+   * @param listener receives the result of every message
+   * @return the number of published and failed messages
+   * @throws PubSubClientException if the client is closed or the thread is interrupted
+   * @see #publishStream(Iterator, int, Consumer)
+   */
+  default PublishSummary publishStream(
+      Stream<OutgoingMessage> messages, int maxInFlight, Consumer<PublishResult> listener)
+      throws PubSubClientException {
+    try (messages) {
+      return publishStream(messages.iterator(), maxInFlight, listener);
+    }
+  }
+
+  /**
+   * Subscribe to a reactive stream of messages and publish them without blocking. At most {@code
+   * maxInFlight} messages are requested from the upstream publisher before results are known, and
+   * one more is requested each time a message completes.
+   *
+   * @param messages the messages to publish
+   * @param maxInFlight the max number of messages waiting for a publish result
+   * @param listener receives the result of every message
+   * @return a future completing with the number of published and failed messages, or with a {@link
+   *     PubSubClientException} if the upstream publisher signals an error
+   * @see #publishStream(Iterator, int, Consumer)
+   */
+  default CompletableFuture<PublishSummary> publishStream(
+      Flow.Publisher<OutgoingMessage> messages, int maxInFlight, Consumer<PublishResult> listener) {
+    if (isClosed()) {
+      return CompletableFuture.failedFuture(new PubSubClientException("Client is closed"));
+    }
+    return new WindowedPublisher(this, maxInFlight, listener).publish(messages);
+  }
+
+  /**
+   * Resume publishing of an ordering key paused after a failed message. Until resumed, every
+   * message with the key fails. The default implementation does nothing, for clients that never
+   * pause ordering keys.
+   *
+   * @param orderingKey the paused ordering key
+   * @see PubSubClientConfig#setOrderingKeyResume(OrderingKeyResume)
+   */
+  default void resumePublish(String orderingKey) {}
+
   /**
    * @return True if the client has been closed, false otherwise.
    */
@@ -1,11 +1,44 @@
 package com.retailsvc.gcp.pubsub;
 
+import static java.util.Objects.isNull;
+
+import com.google.api.gax.batching.BatchingSettings;
+import com.google.api.gax.batching.FlowControlSettings;
+import com.google.api.gax.batching.FlowController.LimitExceededBehavior;
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.cloud.pubsub.v1.Publisher;
+import com.google.pubsub.v1.PubsubMessage;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+
 /**
  * Configuration class for the PubSub client, allowing customization such as enabling message
  * ordering.
  */
 public class PubSubClientConfig {
   private boolean messageOrderingEnabled;
+  private Long maxOutstandingMessages;
+  private Long maxOutstandingBytes;
+  private FlowControlBehavior flowControlBehavior = FlowControlBehavior.BLOCK;
+  private Consumer<PubsubMessage> droppedMessageHandler = ignored -> {};
+  private BatchingSettings batchingSettings;
+  private AdaptiveBatching adaptiveBatching;
+  private int orderingKeyShards = 1;
+  private OrderingKeyResume orderingKeyResume;
+  private SpoolSettings spool;
+  private PackingSettings packing;
+  private Deduplication deduplication;
+  private CircuitBreakerSettings circuitBreaker;
+  private RetrySettings retrySettings;
+  private Duration publishTimeout;
+  private boolean zeroCopyPayloads;
+  private boolean nativeSchemaEncoding;
+  private PayloadCodec compressionCodec;
+  private int compressionThreshold;
+  private int parallelSerializationThreshold;
+  private PublishMetricsListener metricsListener = PublishMetricsListener.NOOP;
 
   public boolean isMessageOrderingEnabled() {
     return messageOrderingEnabled;
@@ -15,4 +48,390 @@ public class PubSubClientConfig {
     this.messageOrderingEnabled = messageOrderingEnabled;
     return this;
   }
+
+  public Long getMaxOutstandingMessages() {
+    return maxOutstandingMessages;
+  }
+
+  /**
+   * Limit the number of messages a publisher keeps in flight. Unlimited if not set.
+   *
+   * @param maxOutstandingMessages the max number of outstanding messages, or {@code null}
+   * @return this config
+   */
+  public PubSubClientConfig setMaxOutstandingMessages(Long maxOutstandingMessages) {
+    this.maxOutstandingMessages = maxOutstandingMessages;
+    return this;
+  }
+
+  public Long getMaxOutstandingBytes() {
+    return maxOutstandingBytes;
+  }
+
+  /**
+   * Limit the number of payload bytes a publisher keeps in flight. Unlimited if not set.
+   *
+   * @param maxOutstandingBytes the max number of outstanding bytes, or {@code null}
+   * @return this config
+   */
+  public PubSubClientConfig setMaxOutstandingBytes(Long maxOutstandingBytes) {
+    this.maxOutstandingBytes = maxOutstandingBytes;
+    return this;
+  }
+
+  public FlowControlBehavior getFlowControlBehavior() {
+    return flowControlBehavior;
+  }
+
+  /**
+   * Set what happens when publishing would exceed the outstanding limits. Default {@link
+   * FlowControlBehavior#BLOCK}.
+   *
+   * @param flowControlBehavior the behavior when limits are exceeded
+   * @return this config
+   */
+  public PubSubClientConfig setFlowControlBehavior(FlowControlBehavior flowControlBehavior) {
+    this.flowControlBehavior = Objects.requireNonNull(flowControlBehavior);
+    return this;
+  }
+
+  public Consumer<PubsubMessage> getDroppedMessageHandler() {
+    return droppedMessageHandler;
+  }
+
+  /**
+   * Set the handler receiving messages shed by {@link FlowControlBehavior#DROP}. The handler is
+   * called on the publishing thread and must not block.
+   *
+   * @param droppedMessageHandler the handler for dropped messages
+   * @return this config
+   */
+  public PubSubClientConfig setDroppedMessageHandler(
+      Consumer<PubsubMessage> droppedMessageHandler) {
+    this.droppedMessageHandler = Objects.requireNonNull(droppedMessageHandler);
+    return this;
+  }
+
+  public BatchingSettings getBatchingSettings() {
+    return batchingSettings;
+  }
+
+  /**
+   * Set fixed batching thresholds for the publisher. If not set, the defaults of the {@link
+   * PublisherFactory} apply. Any flow control settings are taken from this config.
+   *
+   * @param batchingSettings the batching thresholds, or {@code null}
+   * @return this config
+   */
+  public PubSubClientConfig setBatchingSettings(BatchingSettings batchingSettings) {
+    this.batchingSettings = batchingSettings;
+    return this;
+  }
+
+  public AdaptiveBatching getAdaptiveBatching() {
+    return adaptiveBatching;
+  }
+
+  /**
+   * Enable adaptive batching. The client tunes the batching thresholds from observed traffic and
+   * rebuilds its publisher when traffic shifts. Takes precedence over {@link
+   * #setBatchingSettings(BatchingSettings)}. Ignored when message ordering is enabled, since
+   * switching publishers could reorder in-flight messages of a key.
+   *
+   * @param adaptiveBatching the adaptive batching bounds, or {@code null} to disable
+   * @return this config
+   */
+  public PubSubClientConfig setAdaptiveBatching(AdaptiveBatching adaptiveBatching) {
+    this.adaptiveBatching = adaptiveBatching;
+    return this;
+  }
+
+  public int getOrderingKeyShards() {
+    return orderingKeyShards;
+  }
+
+  /**
+   * Set the number of shards per ordering scope, used by {@link PubSubClient#publishOrdered(Object,
+   * java.util.Map, String, String)}. More shards spread a busy scope over more sequential lanes.
+   *
+   * @param orderingKeyShards the number of shards, 1 by default
+   * @return this config
+   */
+  public PubSubClientConfig setOrderingKeyShards(int orderingKeyShards) {
+    if (orderingKeyShards < 1) {
+      throw new IllegalArgumentException("orderingKeyShards must be positive");
+    }
+    this.orderingKeyShards = orderingKeyShards;
+    return this;
+  }
+
+  public OrderingKeyResume getOrderingKeyResume() {
+    return orderingKeyResume;
+  }
+
+  /**
+   * Enable automatic resume of ordering keys paused after a failed message. Without it, a paused
+   * key fails every message until {@link PubSubClient#resumePublish(String)} is called.
+   *
+   * @param orderingKeyResume the resume backoff, or {@code null} to disable
+   * @return this config
+   */
+  public PubSubClientConfig setOrderingKeyResume(OrderingKeyResume orderingKeyResume) {
+    this.orderingKeyResume = orderingKeyResume;
+    return this;
+  }
+
+  public SpoolSettings getSpool() {
+    return spool;
+  }
+
+  /**
+   * Enable the local spool. Blocking publishes are appended to a log on local disk and return right
+   * away, and the logged messages are published in the background.
+   *
+   * @param spool the spool settings, or {@code null} to disable
+   * @return this config
+   */
+  public PubSubClientConfig setSpool(SpoolSettings spool) {
+    this.spool = spool;
+    return this;
+  }
+
+  public PackingSettings getPacking() {
+    return packing;
+  }
+
+  /**
+   * Enable envelope packing. Unordered messages published one at a time are buffered per attribute
+   * set and sent together as one envelope message. Consumers unpack envelopes with {@link
+   * Envelopes#unpack(PubsubMessage)}. Envelopes are compressed like other messages when compression
+   * is enabled.
+   *
+   * @param packing the packing settings, or {@code null} to disable
+   * @return this config
+   */
+  public PubSubClientConfig setPacking(PackingSettings packing) {
+    this.packing = packing;
+    return this;
+  }
+
+  public Deduplication getDeduplication() {
+    return deduplication;
+  }
+
+  /**
+   * Enable client-side deduplication. Messages with the same idempotency key, or the same content,
+   * as a message published within the window are not published again.
+   *
+   * @param deduplication the deduplication settings, or {@code null} to disable
+   * @return this config
+   */
+  public PubSubClientConfig setDeduplication(Deduplication deduplication) {
+    this.deduplication = deduplication;
+    return this;
+  }
+
+  public CircuitBreakerSettings getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Enable the circuit breaker. When too many recent publishes fail or are slow, publishes fail
+   * right away with a {@link CircuitBreakerOpenException} until trial publishes succeed again.
+   *
+   * @param circuitBreaker the circuit breaker settings, or {@code null} to disable
+   * @return this config
+   */
+  public PubSubClientConfig setCircuitBreaker(CircuitBreakerSettings circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+    return this;
+  }
+
+  public RetrySettings getRetrySettings() {
+    return retrySettings;
+  }
+
+  /**
+   * Set the retry settings of the publisher, such as the total timeout of a publish and the backoff
+   * between attempts. If not set, the defaults of the {@link PublisherFactory} apply. The publisher
+   * rejects a total timeout below 10 seconds.
+   *
+   * @param retrySettings the retry settings, or {@code null}
+   * @return this config
+   */
+  public PubSubClientConfig setRetrySettings(RetrySettings retrySettings) {
+    this.retrySettings = retrySettings;
+    return this;
+  }
+
+  public Duration getPublishTimeout() {
+    return publishTimeout;
+  }
+
+  /**
+   * Set how long blocking publishes wait for a result, and the default deadline of asynchronous
+   * publishes. Takes precedence over the {@code PUBSUB_WAIT_PUBLISH_SECONDS} environment variable.
+   *
+   * @param publishTimeout the publish timeout, or {@code null} for the environment or 30 seconds
+   * @return this config
+   */
+  public PubSubClientConfig setPublishTimeout(Duration publishTimeout) {
+    if (publishTimeout != null && !publishTimeout.isPositive()) {
+      throw new IllegalArgumentException("publishTimeout must be positive");
+    }
+    this.publishTimeout = publishTimeout;
+    return this;
+  }
+
+  public boolean isZeroCopyPayloads() {
+    return zeroCopyPayloads;
+  }
+
+  /**
+   * Wrap {@code byte[]} and {@link java.nio.ByteBuffer} payloads, including direct buffers and the
+   * buffers returned by the {@link ObjectToBytesMapper}, instead of copying them. By enabling this,
+   * the caller hands ownership of the bytes to the client and promises not to modify them after
+   * publishing. Disabled by default.
+   *
+   * @param zeroCopyPayloads true to wrap payload bytes without copying
+   * @return this config
+   */
+  public PubSubClientConfig setZeroCopyPayloads(boolean zeroCopyPayloads) {
+    this.zeroCopyPayloads = zeroCopyPayloads;
+    return this;
+  }
+
+  public boolean isNativeSchemaEncoding() {
+    return nativeSchemaEncoding;
+  }
+
+  /**
+   * Serialize protobuf messages and Avro records in their binary format even when an {@link
+   * ObjectToBytesMapper} is set. Without a mapper they are always serialized natively. Disabled by
+   * default, so a mapper keeps serializing them as before.
+   *
+   * @param nativeSchemaEncoding true to serialize protobuf and Avro payloads natively
+   * @return this config
+   */
+  public PubSubClientConfig setNativeSchemaEncoding(boolean nativeSchemaEncoding) {
+    this.nativeSchemaEncoding = nativeSchemaEncoding;
+    return this;
+  }
+
+  public PayloadCodec getCompressionCodec() {
+    return compressionCodec;
+  }
+
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * Compress payloads of at least {@code thresholdBytes} bytes. Compressed messages carry the codec
+   * name in the {@value PayloadCodecs#ENCODING_ATTRIBUTE} attribute, and consumers decode them with
+   * {@link PayloadCodecs#decode(PubsubMessage)}. A payload that does not shrink is sent as is.
+   *
+   * @param codec the codec to compress with, or {@code null} to disable compression
+   * @param thresholdBytes the minimum payload size to compress
+   * @return this config
+   */
+  public PubSubClientConfig setCompression(PayloadCodec codec, int thresholdBytes) {
+    if (thresholdBytes < 0) {
+      throw new IllegalArgumentException("thresholdBytes must not be negative");
+    }
+    this.compressionCodec = codec;
+    this.compressionThreshold = thresholdBytes;
+    return this;
+  }
+
+  public int getParallelSerializationThreshold() {
+    return parallelSerializationThreshold;
+  }
+
+  /**
+   * Serialize {@code publishAll} batches of at least {@code threshold} messages in parallel chunks
+   * on virtual threads, sending each chunk as soon as it is ready. Messages are still handed to the
+   * publisher in list order. The {@link ObjectToBytesMapper} must be thread-safe. A payload that
+   * fails to serialize then fails only its own message, since earlier chunks may already be sent.
+   * Disabled by default.
+   *
+   * @param threshold the min batch size to serialize in parallel, or 0 to disable
+   * @return this config
+   */
+  public PubSubClientConfig setParallelSerializationThreshold(int threshold) {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("threshold must not be negative");
+    }
+    this.parallelSerializationThreshold = threshold;
+    return this;
+  }
+
+  public PublishMetricsListener getMetricsListener() {
+    return metricsListener;
+  }
+
+  /**
+   * Set the listener receiving publish events, such as latency, failures and batch sizes.
+   *
+   * @param metricsListener the listener
+   * @return this config
+   */
+  public PubSubClientConfig setMetricsListener(PublishMetricsListener metricsListener) {
+    this.metricsListener = Objects.requireNonNull(metricsListener);
+    return this;
+  }
+
+  /**
+   * @return true if paused ordering keys are resumed automatically.
+   */
+  boolean isOrderingKeyResumeEnabled() {
+    return orderingKeyResume != null && messageOrderingEnabled;
+  }
+
+  /**
+   * @return true if the publisher batching is tuned from observed traffic.
+   */
+  boolean isAdaptiveBatchingEnabled() {
+    return adaptiveBatching != null && !messageOrderingEnabled;
+  }
+
+  /**
+   * Merge the configured flow control into batching thresholds.
+   *
+   * @param thresholds the batching thresholds, or {@code null} for the publisher defaults
+   * @return the batching settings to build the publisher with, or {@code null} if neither
+   *     thresholds nor flow control are configured.
+   */
+  BatchingSettings publisherBatchingSettings(BatchingSettings thresholds) {
+    var flowControl = flowControlSettings();
+    if (isNull(thresholds) && flowControl.isEmpty()) {
+      return null;
+    }
+    var builder =
+        Optional.ofNullable(thresholds)
+            .orElseGet(Publisher.Builder::getDefaultBatchingSettings)
+            .toBuilder();
+    flowControl.ifPresent(builder::setFlowControlSettings);
+    return builder.build();
+  }
+
+  /**
+   * @return the publisher flow control settings, or empty if no limit is configured.
+   */
+  Optional<FlowControlSettings> flowControlSettings() {
+    if (isNull(maxOutstandingMessages) && isNull(maxOutstandingBytes)) {
+      return Optional.empty();
+    }
+    var behavior =
+        switch (flowControlBehavior) {
+          case BLOCK -> LimitExceededBehavior.Block;
+          case FAIL_FAST, DROP -> LimitExceededBehavior.ThrowException;
+        };
+    return Optional.of(
+        FlowControlSettings.newBuilder()
+            .setMaxOutstandingElementCount(maxOutstandingMessages)
+            .setMaxOutstandingRequestBytes(maxOutstandingBytes)
+            .setLimitExceededBehavior(behavior)
+            .build());
+  }
 }
@@ -1,32 +1,41 @@
 package com.retailsvc.gcp.pubsub;
 
 import static com.retailsvc.gcp.pubsub.EmulatorRedirect.PUBSUB_EMULATOR_HOST;
-import static java.util.Objects.nonNull;
 
+import com.google.api.gax.batching.BatchingSettings;
 import com.google.cloud.pubsub.v1.Publisher;
 import com.google.pubsub.v1.TopicName;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.function.Supplier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class PubSubClientFactory {
+public class PubSubClientFactory implements AutoCloseable {
 
   private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
   public static final String TEST_PROJECT = "test-project";
   public static final String PROJECT_ID = "SERVICE_PROJECT_ID";
 
-  private final Map<String, PubSubClient> clientCache = new ConcurrentHashMap<>();
+  private final ClientCache clientCache = new ClientCache();
   private final ObjectToBytesMapper objectMapper;
+  private final BufferPool bufferPool = BufferPool.defaultPool();
   private final PublisherFactory publisherFactory;
-  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<String, PubSubClientConfig> topicConfigs = new ConcurrentHashMap<>();
   private PubSubClientConfig clientConfig;
 
   public PubSubClientFactory() {
@@ -51,6 +60,49 @@ public class PubSubClientFactory {
     return this;
   }
 
+  /**
+   * Set the config of the clients of one topic, in place of the config set by {@link
+   * #setClientConfig(PubSubClientConfig)}. Applies to clients created after this call.
+   *
+   * @param topic the topic
+   * @param topicConfig the config of the topic, or {@code null} to use the factory config
+   * @return this factory
+   */
+  public PubSubClientFactory setTopicConfig(String topic, PubSubClientConfig topicConfig) {
+    Objects.requireNonNull(topic);
+    if (topicConfig == null) {
+      topicConfigs.remove(topic);
+    } else {
+      topicConfigs.put(topic, topicConfig);
+    }
+    return this;
+  }
+
+  /**
+   * Bound the number of cached clients. When the bound is exceeded, the least recently used clients
+   * are evicted and closed in the background. A caller still holding an evicted client gets a
+   * closed client, so call {@link #create(String)} per use instead of keeping clients around.
+   *
+   * @param maxCachedClients the max number of cached clients
+   * @return this factory
+   */
+  public PubSubClientFactory setMaxCachedClients(int maxCachedClients) {
+    clientCache.setMaxSize(maxCachedClients);
+    return this;
+  }
+
+  /**
+   * Evict cached clients that have not been created or used to publish within the timeout. Evicted
+   * clients are closed in the background. Clients are never evicted for being idle by default.
+   *
+   * @param idleTimeout the idle timeout
+   * @return this factory
+   */
+  public PubSubClientFactory setClientIdleTimeout(Duration idleTimeout) {
+    clientCache.setIdleTimeout(idleTimeout);
+    return this;
+  }
+
   /**
    * Create a new client for publishing messages onto PubSub. Once created, the client will be
    * cached internally and subsequent calls for the same topic will return the same instance.
@@ -59,30 +111,202 @@ public class PubSubClientFactory {
    * @return The PubSub client.
    */
   public PubSubClient create(String topic) {
+    return clientCache.get(topic, this::newClient);
+  }
+
+  /**
+   * Create the clients of the given topics ahead of the first publish, so that publishers are built
+   * and connections are open when traffic arrives. Clients are created concurrently on virtual
+   * threads and cached as by {@link #create(String)}. A topic that fails to warm up is reported in
+   * the result and does not affect the other topics.
+   *
+   * @param topics the topics to warm up
+   * @return the warmed up topics, the failures and the time it took
+   */
+  public WarmUpResult warmUp(Collection<String> topics) {
+    var started = System.nanoTime();
+    var failures = new ConcurrentHashMap<String, Throwable>();
+    var distinct = new LinkedHashSet<>(topics);
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (var topic : distinct) {
+        executor.execute(
+            () -> {
+              try {
+                warmUp(topic);
+              } catch (RuntimeException e) {
+                LOG.warn("Failed to warm up client [{}]", topic, e);
+                failures.put(topic, e);
+              }
+            });
+      }
+    }
+    var warmed = new ArrayList<>(distinct);
+    warmed.removeAll(failures.keySet());
+    var elapsed = Duration.ofNanos(System.nanoTime() - started);
+    LOG.debug("Warmed up {} of {} clients in {}", warmed.size(), distinct.size(), elapsed);
+    return new WarmUpResult(warmed, failures, elapsed);
+  }
+
+  /**
+   * Publish one message to several topics, for example an entity topic and an audit topic. The
+   * payload is serialized once per distinct payload encoding of the topic configs, and the same
+   * immutable bytes are handed to the client of every topic with that encoding. Topics are
+   * published concurrently, and the method blocks until every result is known.
+   *
+   * @param topics the topics to publish to
+   * @param payloadObject The payload to send
+   * @param attributesMap The map of attributes to send
+   * @return the message id or failure per topic
+   * @throws PubSubClientException if the payload cannot be serialized
+   * @see #fanOutAsync(Collection, Object, Map)
+   */
+  public FanOutResult fanOut(
+      Collection<String> topics, Object payloadObject, Map<String, String> attributesMap) {
+    return fanOutAsync(topics, payloadObject, attributesMap).join();
+  }
+
+  /**
+   * Publish one message to several topics without blocking the calling thread. A topic failing to
+   * publish is reported in the result and does not affect the other topics.
+   *
+   * @param topics the topics to publish to
+   * @param payloadObject The payload to send
+   * @param attributesMap The map of attributes to send
+   * @return a future completing with the message id or failure per topic, once every topic has
+   *     completed within the publish timeout of its client
+   * @throws PubSubClientException if the payload cannot be serialized
+   */
+  public CompletableFuture<FanOutResult> fanOutAsync(
+      Collection<String> topics, Object payloadObject, Map<String, String> attributesMap) {
+    var distinct = new LinkedHashSet<>(topics);
+    var payloads = new HashMap<PayloadEncoding, EncodedPayload>();
     try {
-      lock.lock();
-
-      Optional.ofNullable(clientCache.get(topic))
-          .filter(PubSubClient::isClosed)
-          .ifPresent(ignored -> clientCache.remove(topic));
-      return clientCache.computeIfAbsent(topic, this::newClient);
-    } finally {
-      lock.unlock();
+      for (var topic : distinct) {
+        payloads.computeIfAbsent(
+            PayloadEncoding.of(configOf(topic)),
+            encoding -> encoding.encoder(objectMapper, bufferPool).encode(payloadObject));
+      }
+    } catch (RuntimeException e) {
+      payloads.values().forEach(payload -> payload.release().run());
+      throw e;
     }
+    var messageIds = new ConcurrentHashMap<String, String>();
+    var failures = new ConcurrentHashMap<String, Throwable>();
+    var results =
+        distinct.stream()
+            .map(
+                topic -> {
+                  var payload = payloads.get(PayloadEncoding.of(configOf(topic)));
+                  var message =
+                      OutgoingMessage.of(payload.data(), payload.withAttributes(attributesMap));
+                  return publishAsync(topic, message)
+                      .whenComplete(
+                          (id, e) -> {
+                            if (e == null) {
+                              messageIds.put(topic, id);
+                            } else {
+                              failures.put(topic, unwrap(e));
+                            }
+                          });
+                })
+            .toArray(CompletableFuture[]::new);
+    return CompletableFuture.allOf(results)
+        .handle(
+            (ignored, e) -> {
+              // Pooled bytes are shared by every topic, and only reused once all have completed. A
+              // topic that timed out may still hold them in a publisher batch, so they are then
+              // left to the garbage collector instead.
+              if (failures.values().stream().noneMatch(TimeoutException.class::isInstance)) {
+                payloads.values().forEach(payload -> payload.release().run());
+              }
+              return new FanOutResult(messageIds, failures);
+            });
   }
 
-  private PubSubClient newClient(String topic) {
+  /** The settings of a topic config that change the bytes of an encoded payload. */
+  private record PayloadEncoding(boolean zeroCopy, boolean nativeSchemaEncoding) {
+
+    static PayloadEncoding of(PubSubClientConfig config) {
+      return new PayloadEncoding(config.isZeroCopyPayloads(), config.isNativeSchemaEncoding());
+    }
+
+    PayloadEncoder encoder(ObjectToBytesMapper objectMapper, BufferPool bufferPool) {
+      return new PayloadEncoder(objectMapper, zeroCopy, nativeSchemaEncoding, bufferPool);
+    }
+  }
+
+  private CompletableFuture<String> publishAsync(String topic, OutgoingMessage message) {
+    try {
+      return create(topic).publishAsync(message);
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private static Throwable unwrap(Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+  }
+
+  private void warmUp(String topic) {
+    create(topic);
+    if (emulatorHost().isEmpty()) {
+      publisherFactory.warmUp(createTopic(topic));
+    }
+  }
+
+  /**
+   * Close every cached client, flushing outstanding messages. If the publisher factory holds shared
+   * resources, such as {@link SharedPublisherFactory}, it is closed last.
+   */
+  @Override
+  public void close() {
+    clientCache.close();
+    try {
+      if (publisherFactory instanceof AutoCloseable closeable) {
+        closeable.close();
+      }
+    } catch (Exception e) {
+      throw new PubSubClientException("Failed to close publisher factory", e);
+    }
+  }
+
+  private UsageTrackingClient newClient(String topic) {
     LOG.debug("Creating a new client [{}]", topic);
-    return new PubSubClientImpl(publisherFactory(topic), objectMapper);
+    var config = configOf(topic);
+    UsageTrackingClient client =
+        new PubSubClientImpl(publisherFactory(topic, config), objectMapper, config, bufferPool);
+    if (config.getPacking() != null) {
+      client = new PackingPubSubClient(client, objectMapper, config, bufferPool);
+    }
+    var spool = config.getSpool();
+    if (spool == null) {
+      return client;
+    }
+    try {
+      var messageSpool = new MessageSpool(spool.directory().resolve(topic), spool);
+      return new SpooledPubSubClient(client, objectMapper, config, messageSpool, bufferPool);
+    } catch (IOException e) {
+      client.close();
+      throw new PubSubClientException("Cant open spool for Pubsub client", e);
+    }
+  }
+
+  private PubSubClientConfig configOf(String topic) {
+    return Optional.ofNullable(topicConfigs.get(topic))
+        .or(() -> Optional.ofNullable(clientConfig))
+        .orElseGet(PubSubClientConfig::new);
   }
 
-  private Supplier<Publisher> publisherFactory(String topic) {
-    return () -> {
+  private Function<BatchingSettings, Publisher> publisherFactory(
+      String topic, PubSubClientConfig config) {
+    return batchingSettings -> {
       try {
         var builder = publisherFactory.newBuilder(createTopic(topic));
-        if (nonNull(clientConfig) && clientConfig.isMessageOrderingEnabled()) {
+        if (config.isMessageOrderingEnabled()) {
           builder.setEnableMessageOrdering(true);
         }
+        Optional.ofNullable(config.getRetrySettings()).ifPresent(builder::setRetrySettings);
+        Optional.ofNullable(batchingSettings).ifPresent(builder::setBatchingSettings);
         emulatorHost().ifPresent(ignored -> EmulatorRedirect.redirect(builder));
         return builder.build();
       } catch (IOException e) {
@@ -97,6 +321,9 @@ public class PubSubClientFactory {
   }
 
   private Optional<String> emulatorHost() {
+    if (!publisherFactory.usesEmulatorHost()) {
+      return Optional.empty();
+    }
     return Optional.ofNullable(System.getProperty(PUBSUB_EMULATOR_HOST))
         .or(() -> Optional.ofNullable(System.getenv(PUBSUB_EMULATOR_HOST)));
   }
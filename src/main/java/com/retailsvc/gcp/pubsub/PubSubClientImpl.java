@@ -3,28 +3,45 @@ package com.retailsvc.gcp.pubsub;
 import static java.util.Objects.nonNull;
 
 import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.api.gax.batching.BatchingSettings;
+import com.google.api.gax.batching.FlowController;
 import com.google.cloud.pubsub.v1.Publisher;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.ByteString;
 import com.google.pubsub.v1.PubsubMessage;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
-import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-class PubSubClientImpl implements PubSubClient {
+class PubSubClientImpl implements UsageTrackingClient {
 
   private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
   private static final String PUBSUB_CLOSE_TIMEOUT_SECONDS = "PUBSUB_CLOSE_TIMEOUT_SECONDS";
@@ -32,21 +49,105 @@ class PubSubClientImpl implements PubSubClient {
   private static final String PUBSUB_WAIT_PUBLISH_SECONDS = "PUBSUB_WAIT_PUBLISH_SECONDS";
   private static final int PUBLISH_TIMEOUT = 30;
 
-  private final Publisher publisher;
-  private final ObjectToBytesMapper objectMapper;
-  private final int publishTimeout;
+  /** Grace period before a publisher replaced by adaptive batching is shut down. */
+  private static final Duration RETIRE_GRACE_PERIOD = Duration.ofSeconds(1);
+
+  /** Smallest chunk of a batch serialized as one task. */
+  private static final int MIN_SERIALIZATION_CHUNK = 64;
+
+  private volatile Publisher publisher;
+  private final Function<BatchingSettings, Publisher> publisherFactory;
+  private final PayloadEncoder payloadEncoder;
+  private final PubSubClientConfig config;
+  private final PublishMetricsListener metrics;
+  private final Duration publishTimeout;
   private final AtomicBoolean isClosed = new AtomicBoolean(false);
+  private final AdaptiveBatchingController batchingController;
+  private final DeduplicationCache deduplication;
+  private final CircuitBreaker circuitBreaker;
+  private final ScheduledExecutorService scheduler;
+  private final Set<String> pausedKeys = ConcurrentHashMap.newKeySet();
+  private final Map<String, Integer> resumeAttempts = new ConcurrentHashMap<>();
+  private final Queue<Publisher> retiredPublishers = new ConcurrentLinkedQueue<>();
+  private final Set<CompletableFuture<Void>> closingPublishers = ConcurrentHashMap.newKeySet();
+  private long lastBatchingEvaluation = System.nanoTime();
+  private volatile long lastUsed = System.nanoTime();
 
   public PubSubClientImpl(Supplier<Publisher> publisherFactory, ObjectToBytesMapper objectMapper) {
-    Objects.requireNonNull(publisherFactory);
-    this.objectMapper = objectMapper;
-    this.publisher = publisherFactory.get();
+    this(ignoreSettings(publisherFactory), objectMapper, new PubSubClientConfig());
+  }
+
+  public PubSubClientImpl(
+      Function<BatchingSettings, Publisher> publisherFactory,
+      ObjectToBytesMapper objectMapper,
+      PubSubClientConfig config) {
+    this(publisherFactory, objectMapper, config, BufferPool.defaultPool());
+  }
+
+  PubSubClientImpl(
+      Function<BatchingSettings, Publisher> publisherFactory,
+      ObjectToBytesMapper objectMapper,
+      PubSubClientConfig config,
+      BufferPool bufferPool) {
+    this.publisherFactory = Objects.requireNonNull(publisherFactory);
+    this.config = Objects.requireNonNull(config);
+    this.metrics = config.getMetricsListener();
+    this.payloadEncoder = new PayloadEncoder(objectMapper, config, bufferPool);
+    this.deduplication =
+        nonNull(config.getDeduplication())
+            ? new DeduplicationCache(config.getDeduplication())
+            : null;
+    this.circuitBreaker =
+        nonNull(config.getCircuitBreaker())
+            ? new CircuitBreaker(
+                config.getCircuitBreaker(), state -> metrics.onCircuitStateChanged(topic(), state))
+            : null;
+
+    this.scheduler =
+        config.isAdaptiveBatchingEnabled()
+                || config.isOrderingKeyResumeEnabled()
+                || nonNull(circuitBreaker)
+            ? Executors.newSingleThreadScheduledExecutor(
+                Thread.ofVirtual().name("pubsub-client-", 0).factory())
+            : null;
+    if (config.isAdaptiveBatchingEnabled()) {
+      this.batchingController = new AdaptiveBatchingController(config.getAdaptiveBatching());
+      this.publisher =
+          publisherFactory.apply(config.publisherBatchingSettings(batchingController.current()));
+      var interval = config.getAdaptiveBatching().evaluationInterval().toNanos();
+      scheduler.scheduleAtFixedRate(this::adaptBatching, interval, interval, TimeUnit.NANOSECONDS);
+    } else {
+      this.batchingController = null;
+      this.publisher =
+          publisherFactory.apply(config.publisherBatchingSettings(config.getBatchingSettings()));
+    }
     Objects.requireNonNull(this.publisher);
 
-    this.publishTimeout =
-        Optional.ofNullable(System.getenv(PUBSUB_WAIT_PUBLISH_SECONDS))
-            .map(Integer::parseInt)
-            .orElse(PUBLISH_TIMEOUT);
+    this.publishTimeout = publishTimeout(config);
+    if (nonNull(circuitBreaker)) {
+      var interval = Math.max(1, publishTimeout.toNanos() / 2);
+      scheduler.scheduleAtFixedRate(
+          () -> circuitBreaker.sweep(publishTimeout), interval, interval, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * @return the publish timeout of the config, or else of the environment, or else the default.
+   */
+  static Duration publishTimeout(PubSubClientConfig config) {
+    return Optional.ofNullable(config.getPublishTimeout())
+        .or(
+            () ->
+                Optional.ofNullable(System.getenv(PUBSUB_WAIT_PUBLISH_SECONDS))
+                    .map(Long::parseLong)
+                    .map(Duration::ofSeconds))
+        .orElse(Duration.ofSeconds(PUBLISH_TIMEOUT));
+  }
+
+  private static Function<BatchingSettings, Publisher> ignoreSettings(
+      Supplier<Publisher> publisherFactory) {
+    Objects.requireNonNull(publisherFactory);
+    return ignored -> publisherFactory.get();
   }
 
   @Override
@@ -62,8 +163,19 @@ class PubSubClientImpl implements PubSubClient {
       throw new PubSubClientException("Client is closed");
     }
 
-    var attributes = Optional.ofNullable(attributesMap).orElseGet(HashMap::new);
-    publish(toByteString(payloadObject), attributes, orderingKey);
+    await(prepare(OutgoingMessage.ordered(payloadObject, attributesMap, orderingKey)));
+  }
+
+  @Override
+  public void publishOrdered(
+      Object payloadObject,
+      Map<String, String> attributesMap,
+      String orderingScope,
+      String entityId) {
+    publishOrdered(
+        payloadObject,
+        attributesMap,
+        OrderingKeys.shard(orderingScope, entityId, config.getOrderingKeyShards()));
   }
 
   @Override
@@ -76,31 +188,502 @@ class PubSubClientImpl implements PubSubClient {
       return List.of();
     }
 
-    // Build every message up front so a malformed payload fails fast, before anything is sent.
-    var pubsubMessages = messages.stream().map(this::toPubsubMessage).toList();
-
     // Submit all messages before awaiting any result, so the underlying publisher can batch them
     // together. Waiting per message (as publish does) keeps only one message in flight and defeats
     // batching.
-    var futures = pubsubMessages.stream().map(publisher::publish).toList();
+    return awaitAll(sendAll(messages));
+  }
+
+  @Override
+  public CompletableFuture<String> publishAsync(OutgoingMessage message) {
+    return publishAsync(message, publishTimeout);
+  }
+
+  @Override
+  public CompletableFuture<String> publishAsync(OutgoingMessage message, Duration timeout) {
+    if (isClosed()) {
+      return CompletableFuture.failedFuture(new PubSubClientException("Client is closed"));
+    }
+    try {
+      Objects.requireNonNull(message, "message must not be null");
+      Objects.requireNonNull(timeout, "timeout must not be null");
+      return withDeadline(toCompletableFuture(send(prepare(message))), timeout);
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  @Override
+  public CompletableFuture<List<String>> publishAllAsync(List<OutgoingMessage> messages) {
+    return publishAllAsync(messages, publishTimeout);
+  }
+
+  @Override
+  public CompletableFuture<List<String>> publishAllAsync(
+      List<OutgoingMessage> messages, Duration timeout) {
+    if (isClosed()) {
+      return CompletableFuture.failedFuture(new PubSubClientException("Client is closed"));
+    }
+    if (messages == null) {
+      return CompletableFuture.failedFuture(new NullPointerException("messages must not be null"));
+    }
+    if (timeout == null) {
+      return CompletableFuture.failedFuture(new NullPointerException("timeout must not be null"));
+    }
+    if (messages.isEmpty()) {
+      return CompletableFuture.completedFuture(List.of());
+    }
+
+    List<CompletableFuture<String>> futures;
+    try {
+      futures = sendAll(messages).stream().map(this::toCompletableFuture).toList();
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    var all =
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+            .handle((ignored, e) -> collectAll(futures));
+
+    // Cancelling or timing out the batch releases every message still waiting for its result.
+    all.whenComplete(
+        (ids, e) -> {
+          if (nonNull(e)) {
+            futures.forEach(future -> future.cancel(false));
+          }
+        });
+    return withDeadline(all, timeout);
+  }
+
+  /**
+   * Prepare and send a batch of messages in list order. Batches of at least the parallel
+   * serialization threshold are prepared in chunks on virtual threads. Each chunk is sent as soon
+   * as it and every chunk before it are ready, so the publisher still receives the messages in list
+   * order and every ordering key keeps its order. Since earlier chunks may already be sent, a
+   * message that fails to prepare then fails on its own instead of failing the whole batch, along
+   * with the later messages of its ordering key so that none of them overtakes it.
+   */
+  private List<ApiFuture<String>> sendAll(List<OutgoingMessage> messages) {
+    var threshold = config.getParallelSerializationThreshold();
+    if (threshold == 0 || messages.size() < threshold) {
+      // Build every message up front so a malformed payload fails fast, before anything is sent.
+      var prepared = messages.stream().map(this::prepare).toList();
+      metrics.onBatch(topic(), prepared.size());
+      return prepared.stream().map(this::send).toList();
+    }
+    metrics.onBatch(topic(), messages.size());
+    var parallelism = Runtime.getRuntime().availableProcessors() * 2;
+    var chunkSize = Math.max(MIN_SERIALIZATION_CHUNK, Math.ceilDiv(messages.size(), parallelism));
+    var futures = new ArrayList<ApiFuture<String>>(messages.size());
+    var failedKeys = new HashSet<String>();
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      var chunks = new ArrayList<Future<List<PrepareResult>>>();
+      for (var from = 0; from < messages.size(); from += chunkSize) {
+        var chunk = messages.subList(from, Math.min(from + chunkSize, messages.size()));
+        chunks.add(executor.submit(() -> chunk.stream().map(this::tryPrepare).toList()));
+      }
+      for (var chunk : chunks) {
+        for (var result : chunk.get()) {
+          futures.add(sendPrepared(result, failedKeys));
+        }
+      }
+    } catch (ExecutionException e) {
+      throw new PubSubClientException("Failed to prepare messages", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PubSubClientException("Interrupted while preparing messages", e);
+    }
+    return futures;
+  }
+
+  private ApiFuture<String> sendPrepared(PrepareResult result, Set<String> failedKeys) {
+    var orderingKey = result.orderingKey();
+    if (nonNull(result.failure())) {
+      if (nonNull(orderingKey)) {
+        failedKeys.add(orderingKey);
+      }
+      return ApiFutures.immediateFailedFuture(result.failure());
+    }
+    if (nonNull(orderingKey) && failedKeys.contains(orderingKey)) {
+      result.prepared().payload().release().run();
+      return ApiFutures.immediateFailedFuture(
+          new PubSubClientException(
+              "Not published, an earlier message with ordering key [%s] failed"
+                  .formatted(orderingKey)));
+    }
+    return send(result.prepared());
+  }
+
+  private PrepareResult tryPrepare(OutgoingMessage message) {
+    try {
+      return new PrepareResult(prepare(message), null, message.orderingKey());
+    } catch (RuntimeException e) {
+      return new PrepareResult(null, e, message.orderingKey());
+    }
+  }
+
+  private static List<String> collectAll(List<CompletableFuture<String>> futures) {
+    var ids = new ArrayList<String>(futures.size());
+    var failures = 0;
+    Throwable firstFailure = null;
+    for (var future : futures) {
+      try {
+        ids.add(future.join());
+      } catch (CompletionException e) {
+        failures++;
+        firstFailure = Optional.ofNullable(firstFailure).orElse(e.getCause());
+      } catch (CancellationException e) {
+        failures++;
+        firstFailure = Optional.ofNullable(firstFailure).orElse(e);
+      }
+    }
+    if (failures > 0) {
+      throw new PubSubClientException(
+          "Failed to publish %d of %d messages".formatted(failures, futures.size()), firstFailure);
+    }
+    return ids;
+  }
+
+  /**
+   * Hand a message to the publisher, unless deduplication finds it was published within the window.
+   * A duplicate completes with the message id of the original message.
+   */
+  private ApiFuture<String> send(PreparedMessage prepared) {
+    if (deduplication == null) {
+      return sendToPublisher(prepared);
+    }
+    var key = deduplication.key(prepared.message());
+    var claim = SettableApiFuture.<String>create();
+    var original = deduplication.claim(key, claim);
+    if (nonNull(original)) {
+      prepared.payload().release().run();
+      metrics.onDeduplicated(topic());
+      // A copy, so that a caller cancelling its result does not cancel it for others.
+      var duplicate = SettableApiFuture.<String>create();
+      forward(original, duplicate);
+      return duplicate;
+    }
+    ApiFuture<String> publishResult;
+    try {
+      publishResult = sendToPublisher(prepared);
+    } catch (RuntimeException e) {
+      deduplication.forget(key, claim);
+      claim.setException(e);
+      throw e;
+    }
+    ApiFutures.addCallback(
+        publishResult,
+        new ApiFutureCallback<>() {
+          @Override
+          public void onSuccess(String id) {
+            // Remembered until the window passes.
+            claim.set(id);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            deduplication.forget(key, claim);
+            claim.setException(t);
+          }
+        },
+        MoreExecutors.directExecutor());
+    return publishResult;
+  }
 
-    return awaitAll(futures);
+  private static void forward(ApiFuture<String> from, SettableApiFuture<String> to) {
+    ApiFutures.addCallback(
+        from,
+        new ApiFutureCallback<>() {
+          @Override
+          public void onSuccess(String id) {
+            to.set(id);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            to.setException(t);
+          }
+        },
+        MoreExecutors.directExecutor());
   }
 
-  private PubsubMessage toPubsubMessage(OutgoingMessage message) {
-    var attributes = Optional.ofNullable(message.attributes()).orElseGet(HashMap::new);
-    var builder =
-        PubsubMessage.newBuilder()
-            .putAllAttributes(attributes)
-            .setData(toByteString(message.payload()));
+  /**
+   * Hand a message to the publisher. Pooled payload bytes are released once the message is
+   * published. With {@link FlowControlBehavior#DROP}, a message rejected by publisher flow control
+   * is passed to the dropped message handler. While the circuit breaker is open, the message fails
+   * right away without reaching the publisher.
+   */
+  private ApiFuture<String> sendToPublisher(PreparedMessage prepared) {
+    var message = prepared.message();
+    CircuitBreaker.Permit permit = null;
+    if (nonNull(circuitBreaker)) {
+      permit = circuitBreaker.tryAcquire();
+      if (permit == null) {
+        prepared.payload().release().run();
+        metrics.onRejected(topic());
+        return ApiFutures.immediateFailedFuture(
+            new CircuitBreakerOpenException(
+                "Circuit breaker is open for topic [%s]".formatted(topic())));
+      }
+    }
+    if (nonNull(batchingController)) {
+      batchingController.record(message.getSerializedSize());
+    }
+    var enqueued = System.nanoTime();
+    lastUsed = enqueued;
+    ApiFuture<String> publishResult;
+    try {
+      publishResult = publish(message);
+    } catch (RuntimeException e) {
+      if (nonNull(permit)) {
+        permit.release();
+      }
+      throw e;
+    }
+    var breakerPermit = permit;
+    var topic = topic();
+    metrics.onEnqueued(topic, message.getSerializedSize());
+    ApiFutures.addCallback(
+        publishResult,
+        new ApiFutureCallback<>() {
+          @Override
+          public void onSuccess(String id) {
+            prepared.payload().release().run();
+            if (!resumeAttempts.isEmpty()) {
+              resumeAttempts.remove(message.getOrderingKey());
+            }
+            var latency = Duration.ofNanos(System.nanoTime() - enqueued);
+            if (nonNull(breakerPermit)) {
+              breakerPermit.record(false, latency);
+            }
+            metrics.onPublished(topic, latency);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            var latency = Duration.ofNanos(System.nanoTime() - enqueued);
+            if (nonNull(breakerPermit)) {
+              // Flow control rejections are local back pressure, not a sign of a degraded backend.
+              if (t instanceof FlowController.FlowControlException) {
+                breakerPermit.release();
+              } else {
+                breakerPermit.record(true, latency);
+              }
+            }
+            metrics.onFailed(topic, t, latency);
+            if (config.isMessageOrderingEnabled()
+                && !message.getOrderingKey().isEmpty()
+                && pausesKey(t, publishResult)) {
+              paused(message.getOrderingKey());
+            }
+            // Failed payloads are not released, the publisher or a handler may still hold them.
+            if (t instanceof FlowController.FlowControlException
+                && config.getFlowControlBehavior() == FlowControlBehavior.DROP) {
+              LOG.debug("Message dropped by flow control: {}", t.getMessage());
+              config.getDroppedMessageHandler().accept(message);
+            }
+          }
+        },
+        MoreExecutors.directExecutor());
+    if (nonNull(breakerPermit)) {
+      // A copy, so that a caller cancelling its result does not hide the outcome from the breaker.
+      var result = SettableApiFuture.<String>create();
+      forward(publishResult, result);
+      return result;
+    }
+    return publishResult;
+  }
+
+  private ApiFuture<String> publish(PubsubMessage message) {
+    var current = publisher;
+    try {
+      return current.publish(message);
+    } catch (IllegalStateException e) {
+      if (current == publisher) {
+        throw e;
+      }
+      // The publisher was replaced by adaptive batching while publishing, retry on the new one.
+      return publisher.publish(message);
+    }
+  }
+
+  /**
+   * The publisher pauses an ordering key when a message of the key fails to publish. Flow control
+   * rejects a message before it is queued, and a caller cancelling its result does not stop the
+   * publish, so neither pauses the key.
+   */
+  private static boolean pausesKey(Throwable failure, ApiFuture<String> publishResult) {
+    return !(failure instanceof FlowController.FlowControlException)
+        && !publishResult.isCancelled();
+  }
+
+  /**
+   * Track an ordering key paused by the publisher after a failure, and schedule its resume if
+   * automatic resume is enabled. Later messages of a paused key fail too, so only the first failure
+   * of a pause is handled.
+   */
+  private void paused(String orderingKey) {
+    if (!pausedKeys.add(orderingKey)) {
+      return;
+    }
+    metrics.onOrderingKeyPaused(topic(), orderingKey);
+    if (!config.isOrderingKeyResumeEnabled()) {
+      LOG.warn("Ordering key [{}] paused until resumed", orderingKey);
+      return;
+    }
+    var resume = config.getOrderingKeyResume();
+    int attempt = resumeAttempts.merge(orderingKey, 1, Integer::sum);
+    if (attempt > resume.maxAttempts()) {
+      LOG.warn("Ordering key [{}] stays paused after {} failed resumes", orderingKey, attempt - 1);
+      return;
+    }
+    try {
+      scheduler.schedule(
+          () -> resume(orderingKey), resume.delay(attempt).toNanos(), TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      LOG.debug("Client closed, ordering key [{}] not resumed", orderingKey);
+    }
+  }
+
+  @Override
+  public void resumePublish(String orderingKey) {
+    resumeAttempts.remove(orderingKey);
+    resume(orderingKey);
+  }
+
+  private void resume(String orderingKey) {
+    // Untracked first, so that a failure right after the resume is tracked as a new pause.
+    if (pausedKeys.remove(orderingKey)) {
+      LOG.debug("Ordering key [{}] resumed", orderingKey);
+      metrics.onOrderingKeyResumed(topic(), orderingKey);
+    }
+    publisher.resumePublish(orderingKey);
+  }
+
+  /**
+   * Evaluate the observed traffic and replace the publisher if the batching settings no longer fit.
+   * The replaced publisher is shut down after a grace period, which flushes its outstanding
+   * messages.
+   */
+  private void adaptBatching() {
+    var now = System.nanoTime();
+    var elapsed = Duration.ofNanos(now - lastBatchingEvaluation);
+    lastBatchingEvaluation = now;
+    batchingController
+        .evaluate(elapsed)
+        .ifPresent(
+            settings -> {
+              try {
+                var replaced = publisher;
+                publisher = publisherFactory.apply(config.publisherBatchingSettings(settings));
+                retiredPublishers.add(replaced);
+                scheduler.schedule(
+                    this::closeRetiredPublishersAsync,
+                    RETIRE_GRACE_PERIOD.toMillis(),
+                    TimeUnit.MILLISECONDS);
+                LOG.debug(
+                    "Rebuilt publisher [{}] with batching {} messages, {} bytes, {} delay",
+                    publisher.getTopicNameString(),
+                    settings.getElementCountThreshold(),
+                    settings.getRequestByteThreshold(),
+                    settings.getDelayThresholdDuration());
+              } catch (RuntimeException e) {
+                LOG.warn("Failed to rebuild publisher with adapted batching", e);
+              }
+            });
+  }
+
+  /**
+   * Shut down retired publishers on virtual threads, so that flushing them does not hold up the
+   * scheduler.
+   */
+  private void closeRetiredPublishersAsync() {
+    Publisher retired;
+    while ((retired = retiredPublishers.poll()) != null) {
+      var publisher = retired;
+      var closing =
+          CompletableFuture.runAsync(
+              () -> shutdown(publisher),
+              task -> Thread.ofVirtual().name("pubsub-publisher-shutdown").start(task));
+      closingPublishers.add(closing);
+      closing.whenComplete((ignored, e) -> closingPublishers.remove(closing));
+    }
+  }
+
+  private void shutdownRetiredPublishers() {
+    Publisher retired;
+    while ((retired = retiredPublishers.poll()) != null) {
+      shutdown(retired);
+    }
+    closingPublishers.forEach(CompletableFuture::join);
+  }
+
+  /**
+   * Bridge a publisher result to a {@link CompletableFuture} completed from the publisher callback.
+   * Cancelling the returned future also cancels the publisher result.
+   */
+  private CompletableFuture<String> toCompletableFuture(ApiFuture<String> publishResult) {
+    var future = new CompletableFuture<String>();
+    ApiFutures.addCallback(
+        publishResult,
+        new ApiFutureCallback<>() {
+          @Override
+          public void onSuccess(String id) {
+            LOG.debug("Message [{}] published", id);
+            future.complete(id);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            if (t instanceof CircuitBreakerOpenException open) {
+              future.completeExceptionally(open);
+            } else {
+              future.completeExceptionally(new PubSubClientException("Generic execution error", t));
+            }
+          }
+        },
+        MoreExecutors.directExecutor());
+    future.whenComplete(
+        (id, e) -> {
+          if (!publishResult.isDone()) {
+            publishResult.cancel(false);
+          }
+        });
+    return future;
+  }
+
+  private <T> CompletableFuture<T> withDeadline(CompletableFuture<T> future, Duration timeout) {
+    future.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    future.whenComplete(
+        (result, e) -> {
+          if (e instanceof TimeoutException) {
+            metrics.onTimedOut(topic());
+          }
+        });
+    return future;
+  }
+
+  private PreparedMessage prepare(OutgoingMessage message) {
+    var payload = payloadEncoder.encode(message.payload());
+    var builder = PubsubMessage.newBuilder();
+    var attributes = payload.withAttributes(message.attributes());
+    // Null and empty attributes allocate nothing, other maps, including MessageAttributes, are only
+    // copied by protobuf into the message itself.
+    if (nonNull(attributes) && !attributes.isEmpty()) {
+      builder.putAllAttributes(attributes);
+    }
+    var codec = config.getCompressionCodec();
+    if (nonNull(codec) && payload.data().size() >= config.getCompressionThreshold()) {
+      payload = compress(payload, codec, builder);
+    }
+    builder.setData(payload.data());
     if (nonNull(message.orderingKey())) {
       builder.setOrderingKey(message.orderingKey());
     }
-    return builder.build();
+    return new PreparedMessage(builder.build(), payload);
   }
 
   private List<String> awaitAll(List<ApiFuture<String>> futures) {
-    var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(publishTimeout);
+    var deadline = System.nanoTime() + publishTimeout.toNanos();
     var ids = new ArrayList<String>(futures.size());
     var failures = 0;
     PubSubClientException firstFailure = null;
@@ -114,6 +697,7 @@ class PubSubClientImpl implements PubSubClient {
             Optional.ofNullable(firstFailure)
                 .orElseGet(() -> new PubSubClientException("Generic execution error", e));
       } catch (TimeoutException e) {
+        metrics.onTimedOut(topic());
         failures++;
         firstFailure =
             Optional.ofNullable(firstFailure)
@@ -131,60 +715,77 @@ class PubSubClientImpl implements PubSubClient {
     return ids;
   }
 
-  private ByteString toByteString(Object payloadObject) {
-    try {
-      return switch (payloadObject) {
-        case String s -> ByteString.copyFromUtf8(s);
-        case ByteBuffer b -> ByteString.copyFrom(b);
-        case InputStream i -> ByteString.readFrom(i);
-        case null -> throw new PubSubClientException("Payload object cannot be null");
-        default -> ByteString.copyFrom(mapValue(payloadObject));
-      };
-    } catch (NullPointerException | IOException e) {
-      throw new PubSubClientException("Could not read payload", e);
-    }
-  }
-
-  private ByteBuffer mapValue(Object payloadObject) throws IOException {
-    if (objectMapper == null) {
-      throw new IOException("No object mapper configured");
-    }
-    return objectMapper.valueAsBytes(payloadObject);
-  }
-
   @Override
   public boolean isClosed() {
     return isClosed.get();
   }
 
-  protected void publish(ByteString payload, Map<String, String> attributes, String orderingKey) {
-    var pubsubMessage = PubsubMessage.newBuilder().putAllAttributes(attributes).setData(payload);
-    if (nonNull(orderingKey)) {
-      pubsubMessage.setOrderingKey(orderingKey);
+  /**
+   * Compress a payload, tagging the message with the codec name. The original payload is released
+   * right away since the compressed bytes are a copy. A payload that does not shrink is kept as is.
+   */
+  private static EncodedPayload compress(
+      EncodedPayload payload, PayloadCodec codec, PubsubMessage.Builder builder) {
+    ByteString compressed;
+    try {
+      compressed = codec.encode(payload.data());
+    } catch (IOException e) {
+      throw new PubSubClientException("Could not compress payload", e);
+    }
+    if (compressed.size() >= payload.data().size()) {
+      return payload;
     }
+    payload.release().run();
+    builder.putAttributes(PayloadCodecs.ENCODING_ATTRIBUTE, codec.name());
+    return EncodedPayload.of(compressed);
+  }
 
+  private void await(PreparedMessage prepared) {
     try {
-      ApiFuture<String> publishResult = publisher.publish(pubsubMessage.build());
-      String id = publishResult.get(publishTimeout, TimeUnit.SECONDS);
+      ApiFuture<String> publishResult = send(prepared);
+      String id = publishResult.get(publishTimeout.toNanos(), TimeUnit.NANOSECONDS);
       LOG.debug("Message [{}] published", id);
     } catch (ExecutionException e) {
+      if (e.getCause() instanceof CircuitBreakerOpenException open) {
+        throw open;
+      }
       throw new PubSubClientException("Generic execution error", e);
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
       throw new PubSubClientException("Interrupted while waiting for publish result", e);
     } catch (TimeoutException e) {
+      metrics.onTimedOut(topic());
       throw new PubSubClientException("Timed out waiting for publish result", e);
     }
   }
 
   @Override
   public void close() {
+    this.isClosed.set(true);
+    var started = System.nanoTime();
+    if (nonNull(scheduler)) {
+      scheduler.shutdownNow();
+      shutdownRetiredPublishers();
+    }
+    shutdown(publisher);
+    metrics.onClosed(topic(), Duration.ofNanos(System.nanoTime() - started));
+  }
+
+  @Override
+  public long lastUsed() {
+    return lastUsed;
+  }
+
+  private String topic() {
+    return Optional.ofNullable(publisher.getTopicNameString()).orElse("unknown");
+  }
+
+  private static void shutdown(Publisher publisher) {
     try {
       Integer timeout =
           Optional.ofNullable(System.getenv(PUBSUB_CLOSE_TIMEOUT_SECONDS))
               .map(Integer::parseInt)
               .orElse(DEFAULT_CLOSE_TIMEOUT);
-      this.isClosed.set(true);
       publisher.shutdown();
       publisher.awaitTermination(timeout, TimeUnit.SECONDS);
     } catch (InterruptedException ignored) {
@@ -192,4 +793,10 @@ class PubSubClientImpl implements PubSubClient {
       LOG.error("Interrupted while closing client");
     }
   }
+
+  /** A message ready to publish, with its encoded payload. */
+  private record PreparedMessage(PubsubMessage message, EncodedPayload payload) {}
+
+  private record PrepareResult(
+      PreparedMessage prepared, RuntimeException failure, String orderingKey) {}
 }
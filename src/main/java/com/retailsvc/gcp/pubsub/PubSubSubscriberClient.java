@@ -0,0 +1,33 @@
+package com.retailsvc.gcp.pubsub;
+
+/**
+ * A client receiving messages from a Google Cloud PubSub subscription over streaming pull.
+ *
+ * <p>Instantiate a {@link PubSubSubscriberClient} via {@link PubSubSubscriberFactory}.
+ */
+public interface PubSubSubscriberClient extends AutoCloseable {
+
+  /**
+   * Start receiving messages. The method blocks until the streaming pull is running.
+   *
+   * @throws PubSubClientException if the subscriber fails to start
+   */
+  void start() throws PubSubClientException;
+
+  /**
+   * @return the subscription this client receives messages from.
+   */
+  String subscription();
+
+  /**
+   * @return True if the client is receiving messages, false otherwise.
+   */
+  boolean isRunning();
+
+  /**
+   * Stop receiving messages and wait for running handlers to complete. Messages not acked in time
+   * are redelivered.
+   */
+  @Override
+  void close();
+}
@@ -0,0 +1,74 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.api.core.ApiService;
+import com.google.cloud.pubsub.v1.Subscriber;
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+class PubSubSubscriberClientImpl implements PubSubSubscriberClient {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final Subscriber subscriber;
+  private final DispatchingReceiver<?> receiver;
+  private final Duration closeTimeout;
+  private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+  PubSubSubscriberClientImpl(
+      Subscriber subscriber, DispatchingReceiver<?> receiver, Duration closeTimeout) {
+    this.subscriber = Objects.requireNonNull(subscriber);
+    this.receiver = Objects.requireNonNull(receiver);
+    this.closeTimeout = Objects.requireNonNull(closeTimeout);
+  }
+
+  @Override
+  public void start() {
+    if (isClosed.get()) {
+      throw new PubSubClientException("Client is closed");
+    }
+    try {
+      subscriber.startAsync().awaitRunning();
+    } catch (IllegalStateException e) {
+      throw new PubSubClientException("Failed to start subscriber", e);
+    }
+    LOG.debug("Subscriber [{}] started", subscription());
+  }
+
+  @Override
+  public String subscription() {
+    return subscriber.getSubscriptionNameString();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return subscriber.state() == ApiService.State.RUNNING;
+  }
+
+  boolean isClosed() {
+    return isClosed.get();
+  }
+
+  @Override
+  public void close() {
+    if (!isClosed.compareAndSet(false, true)) {
+      return;
+    }
+    LOG.debug("Closing subscriber [{}]", subscription());
+    // Stop pulling first, so that running handlers are the last to ack.
+    subscriber.stopAsync();
+    receiver.close(closeTimeout);
+    try {
+      subscriber.awaitTerminated(closeTimeout.toNanos(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      LOG.warn("Timed out stopping subscriber [{}]", subscription());
+    } catch (IllegalStateException e) {
+      LOG.warn("Subscriber [{}] failed", subscription(), e);
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.api.gax.batching.FlowControlSettings;
+import java.time.Duration;
+import java.util.Objects;
+
+/** Configuration class for the PubSub subscriber client. */
+public class PubSubSubscriberConfig {
+  private long maxOutstandingMessages = 1_000L;
+  private long maxOutstandingBytes = 100L * 1024 * 1024;
+  private int maxConcurrency = 256;
+  private int parallelPullCount = 1;
+  private Duration maxAckExtensionPeriod = Duration.ofMinutes(60);
+  private Duration maxDurationPerAckExtension;
+  private Duration closeTimeout = Duration.ofSeconds(10);
+  private int maxMessagesPerPull = 1_000;
+  private int concurrentPulls = 4;
+
+  public long getMaxOutstandingMessages() {
+    return maxOutstandingMessages;
+  }
+
+  /**
+   * Limit the number of messages pulled but not yet acked or nacked. Default 1000.
+   *
+   * @param maxOutstandingMessages the max number of outstanding messages
+   * @return this config
+   */
+  public PubSubSubscriberConfig setMaxOutstandingMessages(long maxOutstandingMessages) {
+    if (maxOutstandingMessages < 1) {
+      throw new IllegalArgumentException("maxOutstandingMessages must be positive");
+    }
+    this.maxOutstandingMessages = maxOutstandingMessages;
+    return this;
+  }
+
+  public long getMaxOutstandingBytes() {
+    return maxOutstandingBytes;
+  }
+
+  /**
+   * Limit the number of payload bytes pulled but not yet acked or nacked. Default 100 MiB.
+   *
+   * @param maxOutstandingBytes the max number of outstanding bytes
+   * @return this config
+   */
+  public PubSubSubscriberConfig setMaxOutstandingBytes(long maxOutstandingBytes) {
+    if (maxOutstandingBytes < 1) {
+      throw new IllegalArgumentException("maxOutstandingBytes must be positive");
+    }
+    this.maxOutstandingBytes = maxOutstandingBytes;
+    return this;
+  }
+
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  /**
+   * Limit the number of handlers running at the same time. Each handler runs on its own virtual
+   * thread. Default 256.
+   *
+   * @param maxConcurrency the max number of concurrent handlers
+   * @return this config
+   */
+  public PubSubSubscriberConfig setMaxConcurrency(int maxConcurrency) {
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("maxConcurrency must be positive");
+    }
+    this.maxConcurrency = maxConcurrency;
+    return this;
+  }
+
+  public int getParallelPullCount() {
+    return parallelPullCount;
+  }
+
+  /**
+   * Set the number of streaming pull connections. Default 1.
+   *
+   * @param parallelPullCount the number of streams
+   * @return this config
+   */
+  public PubSubSubscriberConfig setParallelPullCount(int parallelPullCount) {
+    if (parallelPullCount < 1) {
+      throw new IllegalArgumentException("parallelPullCount must be positive");
+    }
+    this.parallelPullCount = parallelPullCount;
+    return this;
+  }
+
+  public Duration getMaxAckExtensionPeriod() {
+    return maxAckExtensionPeriod;
+  }
+
+  /**
+   * Set how long the ack deadline of a message is extended while its handler runs. Default 60
+   * minutes.
+   *
+   * @param maxAckExtensionPeriod the max total ack extension
+   * @return this config
+   */
+  public PubSubSubscriberConfig setMaxAckExtensionPeriod(Duration maxAckExtensionPeriod) {
+    this.maxAckExtensionPeriod = Objects.requireNonNull(maxAckExtensionPeriod);
+    return this;
+  }
+
+  public Duration getMaxDurationPerAckExtension() {
+    return maxDurationPerAckExtension;
+  }
+
+  /**
+   * Bound each ack deadline extension. A shorter extension redelivers messages of a crashed
+   * consumer sooner, at the cost of more modack requests. If not set, the extension follows the
+   * observed handler latency.
+   *
+   * @param maxDurationPerAckExtension the max duration of one extension, or {@code null}
+   * @return this config
+   */
+  public PubSubSubscriberConfig setMaxDurationPerAckExtension(Duration maxDurationPerAckExtension) {
+    this.maxDurationPerAckExtension = maxDurationPerAckExtension;
+    return this;
+  }
+
+  public Duration getCloseTimeout() {
+    return closeTimeout;
+  }
+
+  /**
+   * Set how long closing waits for running handlers. Default 10 seconds.
+   *
+   * @param closeTimeout the close timeout
+   * @return this config
+   */
+  public PubSubSubscriberConfig setCloseTimeout(Duration closeTimeout) {
+    this.closeTimeout = Objects.requireNonNull(closeTimeout);
+    return this;
+  }
+
+  public int getMaxMessagesPerPull() {
+    return maxMessagesPerPull;
+  }
+
+  /**
+   * Set the max number of messages returned by one synchronous pull of a {@link
+   * PubSubBatchConsumer}. Default 1000, which is also the limit of the service.
+   *
+   * @param maxMessagesPerPull the max number of messages per pull
+   * @return this config
+   */
+  public PubSubSubscriberConfig setMaxMessagesPerPull(int maxMessagesPerPull) {
+    if (maxMessagesPerPull < 1 || maxMessagesPerPull > 1_000) {
+      throw new IllegalArgumentException("maxMessagesPerPull must be within [1, 1000]");
+    }
+    this.maxMessagesPerPull = maxMessagesPerPull;
+    return this;
+  }
+
+  public int getConcurrentPulls() {
+    return concurrentPulls;
+  }
+
+  /**
+   * Set the number of synchronous pulls a {@link PubSubBatchConsumer} keeps running at the same
+   * time. Each pull handles its batch before pulling again. Default 4.
+   *
+   * @param concurrentPulls the number of concurrent pulls
+   * @return this config
+   */
+  public PubSubSubscriberConfig setConcurrentPulls(int concurrentPulls) {
+    if (concurrentPulls < 1) {
+      throw new IllegalArgumentException("concurrentPulls must be positive");
+    }
+    this.concurrentPulls = concurrentPulls;
+    return this;
+  }
+
+  /**
+   * @return the subscriber flow control settings.
+   */
+  FlowControlSettings flowControlSettings() {
+    return FlowControlSettings.newBuilder()
+        .setMaxOutstandingElementCount(maxOutstandingMessages)
+        .setMaxOutstandingRequestBytes(maxOutstandingBytes)
+        .build();
+  }
+}
@@ -0,0 +1,162 @@
+package com.retailsvc.gcp.pubsub;
+
+import static com.retailsvc.gcp.pubsub.EmulatorRedirect.PUBSUB_EMULATOR_HOST;
+
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.cloud.pubsub.v1.Subscriber;
+import com.google.cloud.pubsub.v1.stub.GrpcSubscriberStub;
+import com.google.cloud.pubsub.v1.stub.SubscriberStubSettings;
+import com.google.pubsub.v1.ProjectSubscriptionName;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A factory of subscriber clients, the consuming counterpart of {@link PubSubClientFactory}.
+ * Subscribers are configured the same way across services: streaming pull over a pooled gRPC
+ * channel, flow control, and handlers dispatched on virtual threads with bounded concurrency. The
+ * emulator is used when {@code PUBSUB_EMULATOR_HOST} is set.
+ */
+public class PubSubSubscriberFactory implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /** Max size of a streaming pull response, as set by the subscriber defaults. */
+  private static final int MAX_INBOUND_MESSAGE_SIZE = 20 * 1024 * 1024;
+
+  private final Set<PubSubSubscriberClientImpl> clients = ConcurrentHashMap.newKeySet();
+  private final Set<PubSubBatchConsumer> batchConsumers = ConcurrentHashMap.newKeySet();
+  private final BytesToObjectMapper objectMapper;
+  private final PooledPublisherFactory channelPool;
+  private PubSubSubscriberConfig subscriberConfig = new PubSubSubscriberConfig();
+
+  public PubSubSubscriberFactory() {
+    this(null);
+  }
+
+  public PubSubSubscriberFactory(BytesToObjectMapper objectMapper) {
+    this(objectMapper, PooledPublisherFactory.defaultPool());
+  }
+
+  /**
+   * Create a factory of subscriber clients.
+   *
+   * @param objectMapper the mapper decoding payloads, or {@code null} to only decode strings and
+   *     bytes
+   * @param channelPool the sizing of the gRPC channel pool of each subscriber
+   */
+  public PubSubSubscriberFactory(
+      BytesToObjectMapper objectMapper, PooledPublisherFactory channelPool) {
+    this.objectMapper = objectMapper;
+    this.channelPool = Objects.requireNonNull(channelPool);
+  }
+
+  public PubSubSubscriberFactory setSubscriberConfig(PubSubSubscriberConfig subscriberConfig) {
+    this.subscriberConfig = Objects.requireNonNull(subscriberConfig);
+    return this;
+  }
+
+  /**
+   * Create a client receiving the messages of a subscription. Payloads are decoded to {@code type},
+   * either directly for {@code String}, {@code byte[]}, {@code ByteBuffer}, {@code ByteString} and
+   * {@code PubsubMessage}, or with the mapper of this factory. Call {@link
+   * PubSubSubscriberClient#start()} to start receiving.
+   *
+   * @param subscription the subscription id
+   * @param type the payload type
+   * @param handler the handler of every message
+   * @param <T> the payload type
+   * @return the subscriber client
+   */
+  public <T> PubSubSubscriberClient create(
+      String subscription, Class<T> type, MessageHandler<T> handler) {
+    LOG.debug("Creating a new subscriber [{}]", subscription);
+    var config = subscriberConfig;
+    var receiver =
+        new DispatchingReceiver<>(type, objectMapper, handler, config.getMaxConcurrency());
+    var builder =
+        Subscriber.newBuilder(createSubscription(subscription), receiver)
+            .setFlowControlSettings(config.flowControlSettings())
+            .setParallelPullCount(config.getParallelPullCount())
+            .setMaxAckExtensionPeriodDuration(config.getMaxAckExtensionPeriod());
+    Optional.ofNullable(config.getMaxDurationPerAckExtension())
+        .ifPresent(builder::setMaxDurationPerAckExtensionDuration);
+    if (emulatorHost().isPresent()) {
+      EmulatorRedirect.redirect(builder);
+    } else {
+      builder.setChannelProvider(channelProvider());
+    }
+    var client =
+        new PubSubSubscriberClientImpl(builder.build(), receiver, config.getCloseTimeout());
+    clients.add(client);
+    return client;
+  }
+
+  /**
+   * Create a consumer draining a subscription with synchronous pull. Payloads are decoded the same
+   * way as by {@link #create(String, Class, MessageHandler)}. Call {@link
+   * PubSubBatchConsumer#drain()} to process the backlog.
+   *
+   * @param subscription the subscription id
+   * @param type the payload type
+   * @param handler the handler of every batch
+   * @param <T> the payload type
+   * @return the batch consumer
+   */
+  public <T> PubSubBatchConsumer createBatchConsumer(
+      String subscription, Class<T> type, BatchHandler<T> handler) {
+    LOG.debug("Creating a new batch consumer [{}]", subscription);
+    var settings = SubscriberStubSettings.newBuilder();
+    if (emulatorHost().isPresent()) {
+      EmulatorRedirect.redirect(settings);
+    } else {
+      settings.setTransportChannelProvider(channelProvider());
+    }
+    try {
+      var consumer =
+          new PubSubBatchConsumerImpl<>(
+              GrpcSubscriberStub.create(settings.build()),
+              createSubscription(subscription).toString(),
+              new PayloadDecoder<>(type, objectMapper),
+              handler,
+              subscriberConfig);
+      batchConsumers.add(consumer);
+      return consumer;
+    } catch (IOException e) {
+      throw new PubSubClientException("Cant create Pubsub batch consumer", e);
+    }
+  }
+
+  /** Close every client created by this factory, waiting for running handlers. */
+  @Override
+  public void close() {
+    clients.parallelStream().forEach(PubSubSubscriberClientImpl::close);
+    clients.clear();
+    batchConsumers.forEach(PubSubBatchConsumer::close);
+    batchConsumers.clear();
+  }
+
+  private InstantiatingGrpcChannelProvider channelProvider() {
+    return SubscriberStubSettings.defaultGrpcTransportProviderBuilder()
+        .setMaxInboundMessageSize(MAX_INBOUND_MESSAGE_SIZE)
+        .setChannelPoolSettings(channelPool.channelPoolSettings())
+        .build();
+  }
+
+  private static ProjectSubscriptionName createSubscription(String subscription) {
+    var projectId =
+        Objects.requireNonNullElse(
+            System.getenv(PubSubClientFactory.PROJECT_ID), PubSubClientFactory.TEST_PROJECT);
+    return ProjectSubscriptionName.of(projectId, subscription);
+  }
+
+  private Optional<String> emulatorHost() {
+    return Optional.ofNullable(System.getProperty(PUBSUB_EMULATOR_HOST))
+        .or(() -> Optional.ofNullable(System.getenv(PUBSUB_EMULATOR_HOST)));
+  }
+}
@@ -0,0 +1,109 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.time.Duration;
+
+/**
+ * Receives publish events of the clients created by a {@link PubSubClientFactory}, for example to
+ * record latency histograms and in-flight gauges. Every method has an empty default, so listeners
+ * only implement the events they need.
+ *
+ * <p>Events are delivered on the publishing thread or the publisher callback thread. Listeners must
+ * be thread-safe, fast and must not throw.
+ *
+ * @see PubSubClientConfig#setMetricsListener(PublishMetricsListener)
+ * @see MicrometerPublishMetricsListener
+ */
+public interface PublishMetricsListener {
+
+  /** A listener ignoring every event. */
+  PublishMetricsListener NOOP = new PublishMetricsListener() {};
+
+  /**
+   * A message was handed to the publisher and is now in flight.
+   *
+   * @param topic the topic
+   * @param bytes the serialized size of the message
+   */
+  default void onEnqueued(String topic, int bytes) {}
+
+  /**
+   * A message in flight was published.
+   *
+   * @param topic the topic
+   * @param latency the time from enqueue to publish result
+   */
+  default void onPublished(String topic, Duration latency) {}
+
+  /**
+   * A message in flight failed to publish.
+   *
+   * @param topic the topic
+   * @param cause the failure
+   * @param latency the time from enqueue to publish result
+   */
+  default void onFailed(String topic, Throwable cause, Duration latency) {}
+
+  /**
+   * A caller stopped waiting for a publish result because its deadline passed. The message may
+   * still be published, and is then reported by {@link #onPublished(String, Duration)}.
+   *
+   * @param topic the topic
+   */
+  default void onTimedOut(String topic) {}
+
+  /**
+   * A message was not published, since it duplicates a message published within the deduplication
+   * window.
+   *
+   * @param topic the topic
+   */
+  default void onDeduplicated(String topic) {}
+
+  /**
+   * A message was not published, since the circuit breaker of the client is open.
+   *
+   * @param topic the topic
+   */
+  default void onRejected(String topic) {}
+
+  /**
+   * The circuit breaker of a client changed state.
+   *
+   * @param topic the topic
+   * @param state the new state
+   */
+  default void onCircuitStateChanged(String topic, CircuitState state) {}
+
+  /**
+   * A batch of messages was submitted with {@code publishAll}.
+   *
+   * @param topic the topic
+   * @param size the number of messages in the batch
+   */
+  default void onBatch(String topic, int size) {}
+
+  /**
+   * An ordering key was paused after a failed message. Later messages of the key fail until it is
+   * resumed.
+   *
+   * @param topic the topic
+   * @param orderingKey the paused ordering key
+   */
+  default void onOrderingKeyPaused(String topic, String orderingKey) {}
+
+  /**
+   * A paused ordering key was resumed.
+   *
+   * @param topic the topic
+   * @param orderingKey the resumed ordering key
+   */
+  default void onOrderingKeyResumed(String topic, String orderingKey) {}
+
+  /**
+   * A client was closed.
+   *
+   * @param topic the topic
+   * @param duration the time it took to flush outstanding messages and shut down
+   */
+  default void onClosed(String topic, Duration duration) {}
+}
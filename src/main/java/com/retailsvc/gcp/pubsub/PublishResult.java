@@ -0,0 +1,21 @@
+package com.retailsvc.gcp.pubsub;
+
+import static java.util.Objects.isNull;
+
+/**
+ * The outcome of publishing a single message from a stream.
+ *
+ * @param message the message that was published
+ * @param messageId the published message id, or {@code null} if publishing failed
+ * @param error the failure, or {@code null} if the message was published
+ * @see PubSubClient#publishStream(java.util.Iterator, int, java.util.function.Consumer)
+ */
+public record PublishResult(OutgoingMessage message, String messageId, Throwable error) {
+
+  /**
+   * @return true if the message was published.
+   */
+  public boolean isPublished() {
+    return isNull(error);
+  }
+}
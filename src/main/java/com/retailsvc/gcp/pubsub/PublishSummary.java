@@ -0,0 +1,9 @@
+package com.retailsvc.gcp.pubsub;
+
+/**
+ * Counts of published and failed messages after publishing a stream.
+ *
+ * @param published the number of messages that were published
+ * @param failed the number of messages that failed to publish
+ */
+public record PublishSummary(long published, long failed) {}
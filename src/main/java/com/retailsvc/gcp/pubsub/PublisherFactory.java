@@ -18,4 +18,23 @@ public interface PublisherFactory {
    * @return the created publisher.
    */
   Publisher.Builder newBuilder(TopicName topic);
+
+  /**
+   * Open the connections used by the publishers of a topic before the first publish. The default
+   * does nothing, since the connections are owned by each publisher.
+   *
+   * @param topic the topic name
+   * @throws PubSubClientException if the service could not be reached
+   */
+  default void warmUp(TopicName topic) {}
+
+  /**
+   * Whether publishers are redirected to the emulator when {@code PUBSUB_EMULATOR_HOST} is set.
+   * Stand-ins that serve in place of the emulator return false.
+   *
+   * @return true to honor the emulator host, the default.
+   */
+  default boolean usesEmulatorHost() {
+    return true;
+  }
 }
@@ -0,0 +1,35 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.cloud.pubsub.v1.Subscriber;
+import com.google.pubsub.v1.PubsubMessage;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A message received from a subscription, with its decoded payload.
+ *
+ * @param payload the decoded payload
+ * @param message the received message
+ * @param <T> the type of the payload
+ */
+public record ReceivedMessage<T>(T payload, PubsubMessage message) {
+
+  public Map<String, String> attributes() {
+    return message.getAttributesMap();
+  }
+
+  public String messageId() {
+    return message.getMessageId();
+  }
+
+  public String orderingKey() {
+    return message.getOrderingKey();
+  }
+
+  /**
+   * @return the delivery attempt, if the subscription has a dead letter policy.
+   */
+  public Optional<Integer> deliveryAttempt() {
+    return Optional.ofNullable(Subscriber.getDeliveryAttempt(message));
+  }
+}
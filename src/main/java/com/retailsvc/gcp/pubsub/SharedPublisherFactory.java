@@ -0,0 +1,218 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.api.gax.core.FixedExecutorProvider;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.api.gax.rpc.TransportChannel;
+import com.google.cloud.pubsub.v1.Publisher;
+import com.google.cloud.pubsub.v1.stub.GrpcPublisherStub;
+import com.google.cloud.pubsub.v1.stub.PublisherStubSettings;
+import com.google.pubsub.v1.GetTopicRequest;
+import com.google.pubsub.v1.TopicName;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A factory where the publishers of all topics share one gRPC channel pool and one scheduler. With
+ * many topics, this keeps the number of connections and threads proportional to the load instead of
+ * to the number of topics.
+ *
+ * <p>The shared resources are created on first use and outlive the publishers built from this
+ * factory. Close the factory after the publishers are shut down, for example by closing the {@link
+ * PubSubClientFactory} that uses it.
+ */
+public class SharedPublisherFactory implements PublisherFactory, AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final int CLOSE_TIMEOUT_SECONDS = 10;
+
+  /** Time to wait for the service to answer a warm-up request. */
+  private static final Duration WARM_UP_TIMEOUT = Duration.ofSeconds(10);
+
+  /** Status codes that mean the service was not reached. */
+  private static final Set<StatusCode.Code> UNREACHABLE =
+      Set.of(StatusCode.Code.UNAVAILABLE, StatusCode.Code.DEADLINE_EXCEEDED);
+
+  /** The channel pool settings, the same as those of a pooled factory. */
+  private final PooledPublisherFactory channelPool;
+
+  private final int schedulerThreads;
+  private final ReentrantLock lock = new ReentrantLock();
+  private TransportChannel channel;
+  private ScheduledExecutorService scheduler;
+  private GrpcPublisherStub warmUpStub;
+  private boolean closed;
+
+  /**
+   * Create a factory with a shared channel pool and scheduler.
+   *
+   * @param initialChannelCount the initial number of gRPC channels in the pool
+   * @param maxChannelCount the max number of gRPC channels in the pool
+   * @param maxRpcsPerChannel the max number of concurrent RPCs allowed on one channel
+   * @param schedulerThreads the number of threads of the shared scheduler
+   */
+  public SharedPublisherFactory(
+      int initialChannelCount, int maxChannelCount, int maxRpcsPerChannel, int schedulerThreads) {
+    this.channelPool =
+        new PooledPublisherFactory(initialChannelCount, maxChannelCount, maxRpcsPerChannel);
+    this.schedulerThreads = schedulerThreads;
+  }
+
+  /**
+   * Create a shared pool that can support up to 500 concurrent requests, with one scheduler thread
+   * per processor.
+   *
+   * @return a shared publisher factory
+   */
+  public static SharedPublisherFactory defaultPool() {
+    var pool = PooledPublisherFactory.defaultPool();
+    return new SharedPublisherFactory(
+        pool.initialChannelCount(),
+        pool.maxChannelCount(),
+        pool.maxRpcsPerChannel(),
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  @Override
+  public Publisher.Builder newBuilder(TopicName topic) {
+    try {
+      lock.lock();
+      start();
+      // Fixed providers are not closed by the publisher, so shutting down a publisher leaves the
+      // shared resources running.
+      return Publisher.newBuilder(topic)
+          .setChannelProvider(FixedTransportChannelProvider.create(channel))
+          .setExecutorProvider(FixedExecutorProvider.create(scheduler));
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Warm up the shared channel pool with a request for the topic metadata. This creates the
+   * connection, completes the TLS handshake and fetches credentials. Any answer from the service
+   * counts, including a permission error, since publishers are rarely allowed to read topics.
+   *
+   * @param topic the topic name
+   * @throws PubSubClientException if the service could not be reached
+   */
+  @Override
+  public void warmUp(TopicName topic) {
+    var request = GetTopicRequest.newBuilder().setTopic(topic.toString()).build();
+    var response = warmUpStub().getTopicCallable().futureCall(request);
+    try {
+      response.get(WARM_UP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      if (!(e.getCause() instanceof ApiException api)
+          || UNREACHABLE.contains(api.getStatusCode().getCode())) {
+        throw new PubSubClientException("Could not reach Pub/Sub for " + topic, e.getCause());
+      }
+    } catch (TimeoutException e) {
+      response.cancel(true);
+      throw new PubSubClientException("Timed out warming up " + topic, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PubSubClientException("Interrupted while warming up " + topic, e);
+    }
+  }
+
+  private GrpcPublisherStub warmUpStub() {
+    try {
+      lock.lock();
+      start();
+      if (warmUpStub == null) {
+        warmUpStub =
+            GrpcPublisherStub.create(
+                PublisherStubSettings.newBuilder()
+                    .setTransportChannelProvider(FixedTransportChannelProvider.create(channel))
+                    .setBackgroundExecutorProvider(FixedExecutorProvider.create(scheduler))
+                    .build());
+      }
+      return warmUpStub;
+    } catch (IOException e) {
+      throw new PubSubClientException("Cant create Pubsub client", e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Create the shared resources on first use. Must be called with the lock held. */
+  private void start() {
+    if (closed) {
+      throw new IllegalStateException("Publisher factory is closed");
+    }
+    if (channel == null) {
+      scheduler =
+          Executors.newScheduledThreadPool(
+              schedulerThreads, Thread.ofVirtual().name("pubsub-shared-executor-", 0).factory());
+      channel = createChannel();
+    }
+  }
+
+  private TransportChannel createChannel() {
+    try {
+      return PublisherStubSettings.defaultGrpcTransportProviderBuilder()
+          .setEndpoint(PublisherStubSettings.getDefaultEndpoint())
+          .setHeaderProvider(PublisherStubSettings.defaultApiClientHeaderProviderBuilder().build())
+          .setChannelPoolSettings(channelPool.channelPoolSettings())
+          .setExecutor(
+              Executors.newThreadPerTaskExecutor(
+                  Thread.ofVirtual().name("pubsub-shared-channel-", 0).factory()))
+          .build()
+          .getTransportChannel();
+    } catch (IOException e) {
+      throw new PubSubClientException("Cant create shared gRPC channel", e);
+    }
+  }
+
+  /**
+   * @return true if the shared channel pool and scheduler have been created.
+   */
+  boolean isStarted() {
+    try {
+      lock.lock();
+      return channel != null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Shut down the shared channel pool and scheduler. Publishers must be shut down first. */
+  @Override
+  public void close() {
+    try {
+      lock.lock();
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (channel == null) {
+        return;
+      }
+      if (warmUpStub != null) {
+        warmUpStub.close();
+      }
+      channel.shutdown();
+      scheduler.shutdown();
+      channel.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      scheduler.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.error("Interrupted while closing shared publisher resources");
+    } finally {
+      lock.unlock();
+    }
+  }
+}
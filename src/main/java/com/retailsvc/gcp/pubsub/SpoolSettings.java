@@ -0,0 +1,66 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings of the local spool. When enabled, {@link PubSubClient#publish(Object, java.util.Map)}
+ * and {@link PubSubClient#publishOrdered(Object, java.util.Map, String)} append messages to a
+ * segmented log on local disk and return right away. A background drainer publishes the logged
+ * messages and deletes segments once all their messages are published.
+ *
+ * <p>Messages are delivered at least once. Messages that were spooled but not published when the
+ * client closed or the process stopped are published on the next start, and the messages of a
+ * partly published segment may be published again.
+ *
+ * @param directory the directory of the spool, with one sub directory per topic
+ * @param segmentBytes the size of each log segment
+ * @param maxBytes the max disk space of the spool per topic. Publishing fails when it is full.
+ *     Deleted segments are unmapped only when garbage collected, so mapped memory may briefly
+ *     exceed it
+ * @param fsyncPolicy when spooled messages are forced to disk
+ * @param fsyncInterval the interval of {@link FsyncPolicy#INTERVAL}
+ * @param maxInFlight the max number of spooled messages being published at any time
+ * @see PubSubClientConfig#setSpool(SpoolSettings)
+ */
+public record SpoolSettings(
+    Path directory,
+    int segmentBytes,
+    long maxBytes,
+    FsyncPolicy fsyncPolicy,
+    Duration fsyncInterval,
+    int maxInFlight) {
+
+  public SpoolSettings {
+    Objects.requireNonNull(directory);
+    Objects.requireNonNull(fsyncPolicy);
+    Objects.requireNonNull(fsyncInterval);
+    if (segmentBytes < 1 || maxBytes < segmentBytes) {
+      throw new IllegalArgumentException("Invalid spool size bounds");
+    }
+    if (!fsyncInterval.isPositive()) {
+      throw new IllegalArgumentException("Fsync interval must be positive");
+    }
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be positive");
+    }
+  }
+
+  /**
+   * Create settings with 64 MB segments, at most 1 GB per topic, forced to disk every 100 ms and
+   * 1000 messages in flight.
+   *
+   * @param directory the directory of the spool
+   * @return the default spool settings
+   */
+  public static SpoolSettings defaults(Path directory) {
+    return new SpoolSettings(
+        directory,
+        64 * 1024 * 1024,
+        1024L * 1024 * 1024,
+        FsyncPolicy.INTERVAL,
+        Duration.ofMillis(100),
+        1_000);
+  }
+}
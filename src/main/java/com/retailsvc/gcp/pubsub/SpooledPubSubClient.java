@@ -0,0 +1,318 @@
+package com.retailsvc.gcp.pubsub;
+
+import static java.util.Objects.nonNull;
+
+import com.google.pubsub.v1.PubsubMessage;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A client that appends messages to a local {@link MessageSpool} and publishes them in the
+ * background through another client. {@link #publish(Object, Map)} and {@link
+ * #publishOrdered(Object, Map, String)} return as soon as the message is spooled. Methods returning
+ * message ids are not spooled, and publish directly through the other client.
+ *
+ * <p>Failed messages are retried with backoff until published or until the client is closed. Once
+ * closed, messages left in the spool are published on the next start. Once a message with an
+ * ordering key fails, later messages of that key are held back until it is published.
+ */
+class SpooledPubSubClient implements UsageTrackingClient {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  private static final Duration INITIAL_RETRY_DELAY = Duration.ofMillis(100);
+  private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(30);
+  private static final Duration DRAINER_STOP_TIMEOUT = Duration.ofSeconds(5);
+
+  private final UsageTrackingClient delegate;
+  private final PayloadEncoder payloadEncoder;
+  private final MessageSpool spool;
+  private final int orderingKeyShards;
+  private final Semaphore window;
+  private final AtomicBoolean isClosed = new AtomicBoolean(false);
+  private final ScheduledExecutorService retryScheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          Thread.ofVirtual().name("pubsub-spool-retry-", 0).factory());
+  private final Thread drainer;
+
+  /** The failure that stopped the drainer, after which no more messages are accepted. */
+  private volatile RuntimeException drainFailure;
+
+  /** Ordering keys with a failed message, guarded by itself. */
+  private final Map<String, BlockedKey> blockedKeys = new HashMap<>();
+
+  /** Spool order of the messages taken, used only by the drainer. */
+  private long sequence;
+
+  SpooledPubSubClient(
+      UsageTrackingClient delegate,
+      ObjectToBytesMapper objectMapper,
+      PubSubClientConfig config,
+      MessageSpool spool,
+      BufferPool bufferPool) {
+    this.delegate = delegate;
+    this.payloadEncoder = new PayloadEncoder(objectMapper, config, bufferPool);
+    this.spool = spool;
+    this.orderingKeyShards = config.getOrderingKeyShards();
+    this.window = new Semaphore(config.getSpool().maxInFlight());
+    this.drainer = Thread.ofVirtual().name("pubsub-spool-drainer").start(this::drain);
+  }
+
+  @Override
+  public void publish(Object payloadObject, Map<String, String> attributesMap) {
+    publishOrdered(payloadObject, attributesMap, null);
+  }
+
+  @Override
+  public void publishOrdered(
+      Object payloadObject, Map<String, String> attributesMap, String orderingKey) {
+    if (isClosed()) {
+      throw new PubSubClientException("Client is closed");
+    }
+    if (nonNull(drainFailure)) {
+      throw new PubSubClientException("Spool is no longer drained", drainFailure);
+    }
+    var payload = payloadEncoder.encode(payloadObject);
+    try {
+      var builder = PubsubMessage.newBuilder().setData(payload.data());
+      var attributes = payload.withAttributes(attributesMap);
+      if (nonNull(attributes) && !attributes.isEmpty()) {
+        builder.putAllAttributes(attributes);
+      }
+      if (nonNull(orderingKey)) {
+        builder.setOrderingKey(orderingKey);
+      }
+      spool.append(builder.build());
+    } catch (IOException e) {
+      throw new PubSubClientException("Could not spool message", e);
+    } finally {
+      // The spool holds a copy of the bytes.
+      payload.release().run();
+    }
+  }
+
+  @Override
+  public void publishOrdered(
+      Object payloadObject,
+      Map<String, String> attributesMap,
+      String orderingScope,
+      String entityId) {
+    publishOrdered(
+        payloadObject,
+        attributesMap,
+        OrderingKeys.shard(orderingScope, entityId, orderingKeyShards));
+  }
+
+  @Override
+  public List<String> publishAll(List<OutgoingMessage> messages) {
+    return delegate.publishAll(messages);
+  }
+
+  @Override
+  public CompletableFuture<String> publishAsync(OutgoingMessage message) {
+    return delegate.publishAsync(message);
+  }
+
+  @Override
+  public CompletableFuture<String> publishAsync(OutgoingMessage message, Duration timeout) {
+    return delegate.publishAsync(message, timeout);
+  }
+
+  @Override
+  public CompletableFuture<List<String>> publishAllAsync(List<OutgoingMessage> messages) {
+    return delegate.publishAllAsync(messages);
+  }
+
+  @Override
+  public CompletableFuture<List<String>> publishAllAsync(
+      List<OutgoingMessage> messages, Duration timeout) {
+    return delegate.publishAllAsync(messages, timeout);
+  }
+
+  @Override
+  public void resumePublish(String orderingKey) {
+    delegate.resumePublish(orderingKey);
+  }
+
+  @Override
+  public long lastUsed() {
+    return delegate.lastUsed();
+  }
+
+  private void drain() {
+    try {
+      while (!isClosed()) {
+        window.acquire();
+        var entry = spool.take();
+        if (entry == null) {
+          return;
+        }
+        var spooled = new Spooled(entry, sequence++);
+        if (!holdIfBlocked(spooled)) {
+          send(spooled, 1);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      LOG.error("Stopped draining spool, messages are kept until restart", e);
+      drainFailure = e;
+    }
+  }
+
+  private void send(Spooled spooled, int attempt) {
+    var message = spooled.entry().message();
+    delegate
+        .publishAsync(
+            OutgoingMessage.ordered(
+                message.getData(), message.getAttributesMap(), spooled.orderingKey()))
+        .whenComplete(
+            (id, e) -> {
+              if (e == null) {
+                spool.ack(spooled.entry());
+                window.release();
+                unblock(spooled);
+              } else if (isClosed()) {
+                // Left in the spool, and published on the next start.
+                window.release();
+              } else if (nonNull(spooled.orderingKey())) {
+                block(spooled, attempt, e);
+              } else {
+                schedule(() -> send(spooled, attempt + 1), attempt, e);
+              }
+            });
+  }
+
+  private boolean holdIfBlocked(Spooled spooled) {
+    if (spooled.orderingKey() == null) {
+      return false;
+    }
+    synchronized (blockedKeys) {
+      var blocked = blockedKeys.get(spooled.orderingKey());
+      if (blocked == null) {
+        return false;
+      }
+      blocked.held.put(spooled.sequence(), spooled);
+      return true;
+    }
+  }
+
+  /**
+   * Hold back a failed message with an ordering key, together with the later messages of the key,
+   * and retry the first one.
+   */
+  private void block(Spooled spooled, int attempt, Throwable cause) {
+    var orderingKey = spooled.orderingKey();
+    synchronized (blockedKeys) {
+      var blocked = blockedKeys.computeIfAbsent(orderingKey, k -> new BlockedKey());
+      blocked.held.put(spooled.sequence(), spooled);
+      blocked.attempt = Math.max(blocked.attempt, attempt);
+      if (blocked.retrying == spooled) {
+        blocked.retrying = null;
+      }
+      if (nonNull(blocked.retrying) || blocked.scheduled) {
+        return;
+      }
+      blocked.scheduled = true;
+      schedule(() -> retryFirst(orderingKey), blocked.attempt, cause);
+    }
+  }
+
+  private void retryFirst(String orderingKey) {
+    synchronized (blockedKeys) {
+      var blocked = blockedKeys.get(orderingKey);
+      blocked.scheduled = false;
+      blocked.retrying = blocked.held.pollFirstEntry().getValue();
+      // Resumed just before the resend, so no later message of the key can overtake it.
+      delegate.resumePublish(orderingKey);
+      send(blocked.retrying, blocked.attempt + 1);
+    }
+  }
+
+  private void unblock(Spooled spooled) {
+    if (spooled.orderingKey() == null) {
+      return;
+    }
+    synchronized (blockedKeys) {
+      var blocked = blockedKeys.get(spooled.orderingKey());
+      if (blocked == null || blocked.retrying != spooled) {
+        return;
+      }
+      blockedKeys.remove(spooled.orderingKey());
+      // Sent in spool order while holding the lock, so the drainer cannot overtake them.
+      blocked.held.values().forEach(held -> send(held, 1));
+    }
+  }
+
+  private void schedule(Runnable retry, int attempt, Throwable cause) {
+    var delay = INITIAL_RETRY_DELAY.multipliedBy(1L << Math.min(attempt - 1, 16));
+    if (delay.compareTo(MAX_RETRY_DELAY) > 0) {
+      delay = MAX_RETRY_DELAY;
+    }
+    LOG.warn(
+        "Failed to publish spooled message, attempt {}, retrying in {}", attempt, delay, cause);
+    try {
+      retryScheduler.schedule(retry, delay.toNanos(), TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      // Closed, the message is left in the spool.
+    }
+  }
+
+  @Override
+  public boolean isClosed() {
+    return isClosed.get();
+  }
+
+  /**
+   * Stop draining, flush the messages being published and close the spool. Messages still in the
+   * spool are published on the next start.
+   */
+  @Override
+  public void close() {
+    if (!isClosed.compareAndSet(false, true)) {
+      return;
+    }
+    drainer.interrupt();
+    try {
+      drainer.join(DRAINER_STOP_TIMEOUT);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    retryScheduler.shutdownNow();
+    delegate.close();
+    spool.close();
+  }
+
+  private record Spooled(MessageSpool.Entry entry, long sequence, String orderingKey) {
+
+    Spooled(MessageSpool.Entry entry, long sequence) {
+      this(entry, sequence, emptyToNull(entry.message().getOrderingKey()));
+    }
+
+    private static String emptyToNull(String orderingKey) {
+      return orderingKey.isEmpty() ? null : orderingKey;
+    }
+  }
+
+  /** Messages of an ordering key held back after a failure, in spool order. */
+  private static final class BlockedKey {
+    private final NavigableMap<Long, Spooled> held = new TreeMap<>();
+    private Spooled retrying;
+    private boolean scheduled;
+    private int attempt;
+  }
+}
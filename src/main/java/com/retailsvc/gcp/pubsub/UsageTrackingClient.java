@@ -0,0 +1,10 @@
+package com.retailsvc.gcp.pubsub;
+
+/** A client that knows when it was last used, so that idle clients can be evicted. */
+interface UsageTrackingClient extends PubSubClient {
+
+  /**
+   * @return the {@link System#nanoTime()} of the last publish, or of the creation of the client.
+   */
+  long lastUsed();
+}
@@ -0,0 +1,27 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of {@link PubSubClientFactory#warmUp(java.util.Collection)}.
+ *
+ * @param warmed the topics with a ready client
+ * @param failures the topics that failed to warm up, with the cause
+ * @param elapsed the time the warm-up took
+ */
+public record WarmUpResult(List<String> warmed, Map<String, Throwable> failures, Duration elapsed) {
+
+  public WarmUpResult {
+    warmed = List.copyOf(warmed);
+    failures = Map.copyOf(failures);
+  }
+
+  /**
+   * @return true if every topic was warmed up.
+   */
+  public boolean isSuccessful() {
+    return failures.isEmpty();
+  }
+}
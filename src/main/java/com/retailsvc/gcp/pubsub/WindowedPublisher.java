@@ -0,0 +1,151 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes a stream of messages through {@link PubSubClient#publishAsync(OutgoingMessage)} while
+ * keeping at most a fixed number of messages in flight. Messages are pulled and serialized one at a
+ * time as the window allows, so memory use does not grow with the size of the stream.
+ */
+class WindowedPublisher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final PubSubClient client;
+  private final int maxInFlight;
+  private final Consumer<PublishResult> listener;
+  private final LongAdder published = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+
+  WindowedPublisher(PubSubClient client, int maxInFlight, Consumer<PublishResult> listener) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be positive");
+    }
+    this.client = Objects.requireNonNull(client);
+    this.maxInFlight = maxInFlight;
+    this.listener = Objects.requireNonNull(listener);
+  }
+
+  /**
+   * Publish every message of the iterator, blocking while the window is full.
+   *
+   * @param messages the messages to publish
+   * @return the summary once every message has completed
+   */
+  PublishSummary publish(Iterator<OutgoingMessage> messages) {
+    var window = new Semaphore(maxInFlight);
+    try {
+      while (messages.hasNext()) {
+        window.acquire();
+        publish(messages.next(), window::release);
+      }
+      // Wait for the messages still in flight.
+      window.acquire(maxInFlight);
+      return summary();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PubSubClientException("Interrupted while publishing stream", e);
+    }
+  }
+
+  /**
+   * Subscribe to a reactive stream, requesting new messages as published ones complete.
+   *
+   * @param messages the messages to publish
+   * @return a future completing with the summary once the stream and every message has completed
+   */
+  CompletableFuture<PublishSummary> publish(Flow.Publisher<OutgoingMessage> messages) {
+    var subscriber = new WindowSubscriber();
+    messages.subscribe(subscriber);
+    return subscriber.result;
+  }
+
+  private void publish(OutgoingMessage message, Runnable onComplete) {
+    CompletableFuture<String> future;
+    try {
+      future = client.publishAsync(message);
+    } catch (RuntimeException e) {
+      future = CompletableFuture.failedFuture(e);
+    }
+    future.whenComplete(
+        (id, error) -> {
+          try {
+            if (error == null) {
+              published.increment();
+            } else {
+              failed.increment();
+            }
+            listener.accept(new PublishResult(message, id, error));
+          } catch (RuntimeException e) {
+            LOG.warn("Publish result listener failed", e);
+          } finally {
+            onComplete.run();
+          }
+        });
+  }
+
+  private PublishSummary summary() {
+    return new PublishSummary(published.sum(), failed.sum());
+  }
+
+  private class WindowSubscriber implements Flow.Subscriber<OutgoingMessage> {
+
+    private final CompletableFuture<PublishSummary> result = new CompletableFuture<>();
+
+    /** Messages in flight, plus one while the upstream has not terminated. */
+    private final AtomicLong pending = new AtomicLong(1);
+
+    private Flow.Subscription subscription;
+    private volatile Throwable upstreamError;
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(maxInFlight);
+    }
+
+    @Override
+    public void onNext(OutgoingMessage message) {
+      pending.incrementAndGet();
+      publish(
+          message,
+          () -> {
+            subscription.request(1);
+            complete();
+          });
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      upstreamError = throwable;
+      complete();
+    }
+
+    @Override
+    public void onComplete() {
+      complete();
+    }
+
+    private void complete() {
+      if (pending.decrementAndGet() > 0) {
+        return;
+      }
+      if (upstreamError != null) {
+        result.completeExceptionally(
+            new PubSubClientException("Message stream failed", upstreamError));
+      } else {
+        result.complete(summary());
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveBatchingControllerTest {
+
+  AdaptiveBatchingController controller =
+      new AdaptiveBatchingController(AdaptiveBatching.defaults());
+
+  @Test
+  void startsWithLowVolumeSettings() {
+    assertThat(controller.current().getElementCountThreshold()).isOne();
+    assertThat(controller.current().getDelayThresholdDuration()).isEqualTo(Duration.ofMillis(1));
+  }
+
+  @Test
+  void lowVolumeKeepsCurrentSettings() {
+    record(10, 500);
+
+    assertThat(controller.evaluate(Duration.ofSeconds(10))).isEmpty();
+  }
+
+  @Test
+  void highVolumeGrowsBatches() {
+    record(100_000, 500);
+
+    var settings = controller.evaluate(Duration.ofSeconds(10));
+
+    assertThat(settings)
+        .hasValueSatisfying(
+            s -> {
+              assertThat(s.getElementCountThreshold()).isEqualTo(500);
+              assertThat(s.getRequestByteThreshold()).isEqualTo(250_000);
+              assertThat(s.getDelayThresholdDuration()).isEqualTo(Duration.ofMillis(50));
+            });
+    assertThat(controller.current()).isSameAs(settings.orElseThrow());
+  }
+
+  @Test
+  void settingsAreClampedToBounds() {
+    record(10_000_000, 2_000);
+
+    var settings = controller.evaluate(Duration.ofSeconds(10));
+
+    assertThat(settings)
+        .hasValueSatisfying(
+            s -> {
+              assertThat(s.getElementCountThreshold()).isEqualTo(1_000);
+              assertThat(s.getRequestByteThreshold()).isEqualTo(2_000_000);
+              assertThat(s.getDelayThresholdDuration()).isEqualTo(Duration.ofMillis(1));
+            });
+  }
+
+  @Test
+  void smallTrafficShiftsDoNotRebuild() {
+    record(100_000, 500);
+    controller.evaluate(Duration.ofSeconds(10));
+
+    record(120_000, 500);
+
+    assertThat(controller.evaluate(Duration.ofSeconds(10))).isEmpty();
+  }
+
+  @Test
+  void droppingTrafficReturnsToLowVolumeSettings() {
+    record(100_000, 500);
+    controller.evaluate(Duration.ofSeconds(10));
+
+    assertThat(controller.evaluate(Duration.ofSeconds(10)))
+        .hasValueSatisfying(s -> assertThat(s.getElementCountThreshold()).isOne());
+  }
+
+  @Test
+  void invalidBoundsAreRejected() {
+    var delay = Duration.ofMillis(1);
+    assertThatIllegalArgumentException()
+        .isThrownBy(() -> new AdaptiveBatching(10, 1, 1, 1, delay, delay, delay));
+  }
+
+  private void record(int messages, int bytes) {
+    for (int i = 0; i < messages; i++) {
+      controller.record(bytes);
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+
+  private static final CircuitBreakerSettings SETTINGS =
+      new CircuitBreakerSettings(0.5, Duration.ofMillis(100), 0.5, 10, 4, Duration.ofSeconds(1), 2);
+
+  private final AtomicLong clock = new AtomicLong();
+  private final List<CircuitState> transitions = new ArrayList<>();
+  private CircuitBreaker breaker;
+
+  @BeforeEach
+  void setUp() {
+    breaker = new CircuitBreaker(SETTINGS, transitions::add, clock::get);
+  }
+
+  @Test
+  void staysClosedBelowMinimumCalls() {
+    for (var i = 0; i < 3; i++) {
+      var permit = breaker.tryAcquire();
+      assertThat(permit).isNotNull();
+      permit.record(true, Duration.ZERO);
+    }
+    assertThat(breaker.state()).isEqualTo(CircuitState.CLOSED);
+  }
+
+  @Test
+  void opensOnFailureRate() {
+    record(false, false, true, true);
+
+    assertThat(breaker.state()).isEqualTo(CircuitState.OPEN);
+    assertThat(breaker.tryAcquire()).isNull();
+  }
+
+  @Test
+  void opensOnSlowCallRate() {
+    for (var i = 0; i < 4; i++) {
+      breaker.tryAcquire().record(false, Duration.ofMillis(i < 2 ? 10 : 200));
+    }
+    assertThat(breaker.state()).isEqualTo(CircuitState.OPEN);
+  }
+
+  @Test
+  void ratesAreComputedOverTheWindow() {
+    record(true, false, false, false, false, false, false, false, false, false);
+    record(true, true, true, true);
+    assertThat(breaker.state()).isEqualTo(CircuitState.CLOSED);
+
+    // The window holds the last ten publishes, five of which failed.
+    record(true);
+    assertThat(breaker.state()).isEqualTo(CircuitState.OPEN);
+  }
+
+  @Test
+  void closesAfterSuccessfulTrials() {
+    record(true, true, true, true);
+    clock.addAndGet(Duration.ofSeconds(1).toNanos());
+
+    var first = breaker.tryAcquire();
+    var second = breaker.tryAcquire();
+    assertThat(first).isNotNull();
+    assertThat(second).isNotNull();
+    assertThat(breaker.tryAcquire()).isNull();
+    assertThat(breaker.state()).isEqualTo(CircuitState.HALF_OPEN);
+
+    first.record(false, Duration.ZERO);
+    second.record(false, Duration.ZERO);
+    assertThat(breaker.state()).isEqualTo(CircuitState.CLOSED);
+    assertThat(transitions)
+        .containsExactly(CircuitState.OPEN, CircuitState.HALF_OPEN, CircuitState.CLOSED);
+  }
+
+  @Test
+  void reopensOnFailedTrial() {
+    record(true, true, true, true);
+    clock.addAndGet(Duration.ofSeconds(1).toNanos());
+
+    breaker.tryAcquire().record(true, Duration.ZERO);
+
+    assertThat(breaker.state()).isEqualTo(CircuitState.OPEN);
+    assertThat(breaker.tryAcquire()).isNull();
+  }
+
+  @Test
+  void releasedTrialPermitsCanBeAcquiredAgain() {
+    record(true, true, true, true);
+    clock.addAndGet(Duration.ofSeconds(1).toNanos());
+
+    var first = breaker.tryAcquire();
+    var second = breaker.tryAcquire();
+    first.release();
+
+    assertThat(breaker.tryAcquire()).isNotNull();
+    assertThat(breaker.tryAcquire()).isNull();
+    second.record(false, Duration.ZERO);
+    assertThat(breaker.state()).isEqualTo(CircuitState.HALF_OPEN);
+  }
+
+  @Test
+  void nonTrialOutcomesDoNotCountWhileHalfOpen() {
+    var late = breaker.tryAcquire();
+    record(true, true, true, true);
+    clock.addAndGet(Duration.ofSeconds(1).toNanos());
+    var trial = breaker.tryAcquire();
+
+    late.record(true, Duration.ZERO);
+    assertThat(breaker.state()).isEqualTo(CircuitState.HALF_OPEN);
+    trial.record(false, Duration.ZERO);
+    breaker.tryAcquire().record(false, Duration.ZERO);
+    assertThat(breaker.state()).isEqualTo(CircuitState.CLOSED);
+  }
+
+  @Test
+  void stalledPublishesRecordFailures() {
+    for (var i = 0; i < 4; i++) {
+      breaker.tryAcquire();
+    }
+    var timeout = Duration.ofMillis(10);
+    breaker.sweep(timeout);
+    breaker.sweep(timeout);
+    assertThat(breaker.state()).isEqualTo(CircuitState.CLOSED);
+
+    clock.addAndGet(timeout.toNanos());
+    breaker.sweep(timeout);
+    assertThat(breaker.state()).isEqualTo(CircuitState.OPEN);
+  }
+
+  @Test
+  void completingPublishesAreNotStalled() {
+    for (var i = 0; i < 4; i++) {
+      breaker.tryAcquire();
+    }
+    var timeout = Duration.ofMillis(10);
+    breaker.sweep(timeout);
+    breaker.sweep(timeout);
+    clock.addAndGet(timeout.toNanos());
+    breaker.tryAcquire().record(false, Duration.ZERO);
+    breaker.sweep(timeout);
+
+    assertThat(breaker.state()).isEqualTo(CircuitState.CLOSED);
+  }
+
+  @Test
+  void invalidSettingsAreRejected() {
+    assertThatIllegalArgumentException()
+        .isThrownBy(
+            () ->
+                new CircuitBreakerSettings(
+                    0, Duration.ofSeconds(1), 0.5, 10, 5, Duration.ofSeconds(1), 1));
+    assertThatIllegalArgumentException()
+        .isThrownBy(
+            () ->
+                new CircuitBreakerSettings(
+                    0.5, Duration.ofSeconds(1), 0.5, 10, 20, Duration.ofSeconds(1), 1));
+  }
+
+  private void record(boolean... failures) {
+    for (var failure : failures) {
+      breaker.tryAcquire().record(failure, Duration.ZERO);
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package com.retailsvc.gcp.pubsub;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatNoException;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ClientCacheTest {
+
+  private final ClientCache cache = new ClientCache();
+
+  @AfterEach
+  void tearDown() {
+    cache.close();
+  }
+
+  @Test
+  void createsOneClientPerTopic() {
+    var loads = new AtomicInteger();
+    var client = mock(PubSubClientImpl.class);
+
+    var first = cache.get("topic", topic -> countLoad(loads, client));
+    var second = cache.get("topic", topic -> countLoad(loads, client));
+
+    assertThat(first).isSameAs(second);
+    assertThat(loads).hasValue(1);
+  }
+
+  @Test
+  void slowCreationDoesNotBlockOtherTopics() throws Exception {
+    var release = new CountDownLatch(1);
+    var slow =
+        CompletableFuture.runAsync(
+            () ->
+                cache.get(
+                    "slow",
+                    topic -> {
+                      await(release);
+                      return mock(PubSubClientImpl.class);
+                    }));
+
+    var fast = cache.get("fast", topic -> mock(PubSubClientImpl.class));
+
+    assertThat(fast).isNotNull();
+    assertThat(slow).isNotDone();
+    release.countDown();
+    slow.get(1, SECONDS);
+  }
+
+  @Test
+  void replacesClosedClients() {
+    var closed = mock(PubSubClientImpl.class);
+    var open = mock(PubSubClientImpl.class);
+    cache.get("topic", topic -> closed);
+    when(closed.isClosed()).thenReturn(true);
+
+    assertThat(cache.get("topic", topic -> open)).isSameAs(open);
+  }
+
+  @Test
+  void failedCreationIsRetried() {
+    assertThatExceptionOfType(PubSubClientException.class)
+        .isThrownBy(
+            () ->
+                cache.get(
+                    "topic",
+                    topic -> {
+                      throw new PubSubClientException("boom");
+                    }));
+    var client = mock(PubSubClientImpl.class);
+
+    assertThat(cache.get("topic", topic -> client)).isSameAs(client);
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedAboveMaxSize() {
+    var oldest = mock(PubSubClientImpl.class);
+    var newest = mock(PubSubClientImpl.class);
+    when(oldest.lastUsed()).thenReturn(System.nanoTime() - SECONDS.toNanos(60));
+    when(newest.lastUsed()).thenReturn(System.nanoTime());
+    cache.get("oldest", topic -> oldest);
+    cache.get("newest", topic -> newest);
+
+    cache.setMaxSize(1);
+    cache.evictOverflow().join();
+
+    assertThat(cache.size()).isOne();
+    verify(oldest).close();
+    verify(newest, never()).close();
+  }
+
+  @Test
+  void evictsIdleClients() throws InterruptedException {
+    var idle = mock(PubSubClientImpl.class);
+    var active = mock(PubSubClientImpl.class);
+    when(idle.lastUsed()).thenReturn(System.nanoTime() - SECONDS.toNanos(60));
+    cache.get("idle", topic -> idle);
+    Thread.sleep(20);
+    when(active.lastUsed()).thenReturn(System.nanoTime());
+    cache.get("active", topic -> active);
+
+    cache.evictIdle(Duration.ofMillis(10)).join();
+
+    assertThat(cache.size()).isOne();
+    verify(idle).close();
+    verify(active, never()).close();
+  }
+
+  @Test
+  void createsNewClientOnlyAfterEvictedClientIsClosed() throws Exception {
+    var evicted = mock(PubSubClientImpl.class);
+    var closing = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    when(evicted.lastUsed()).thenReturn(System.nanoTime() - SECONDS.toNanos(60));
+    doAnswer(
+            invocation -> {
+              closing.countDown();
+              await(release);
+              return null;
+            })
+        .when(evicted)
+        .close();
+    cache.get("topic", topic -> evicted);
+    Thread.sleep(20);
+    var eviction = cache.evictIdle(Duration.ofMillis(10));
+    await(closing);
+
+    var replacement = mock(PubSubClientImpl.class);
+    var lookup = CompletableFuture.supplyAsync(() -> cache.get("topic", topic -> replacement));
+
+    assertThat(lookup).isNotDone();
+    release.countDown();
+    assertThat(lookup.get(1, SECONDS)).isSameAs(replacement);
+    eviction.get(1, SECONDS);
+  }
+
+  @Test
+  void closeClosesClientsStillBeingCreated() throws Exception {
+    var client = mock(PubSubClientImpl.class);
+    var loading = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var lookup =
+        CompletableFuture.runAsync(
+            () ->
+                cache.get(
+                    "topic",
+                    topic -> {
+                      loading.countDown();
+                      await(release);
+                      return client;
+                    }));
+    await(loading);
+
+    var closing = CompletableFuture.runAsync(cache::close);
+    release.countDown();
+
+    closing.get(1, SECONDS);
+    verify(client).close();
+    lookup.get(1, SECONDS);
+  }
+
+  @Test
+  void evictionAfterCloseIsIgnored() {
+    cache.get("first", topic -> mock(PubSubClientImpl.class));
+    cache.get("second", topic -> mock(PubSubClientImpl.class));
+    cache.close();
+
+    assertThatNoException().isThrownBy(() -> cache.setMaxSize(1));
+    assertThatExceptionOfType(PubSubClientException.class)
+        .isThrownBy(() -> cache.get("third", topic -> mock(PubSubClientImpl.class)));
+  }
+
+  @Test
+  void closeClosesCachedClients() {
+    var client = mock(PubSubClientImpl.class);
+    cache.get("topic", topic -> client);
+
+    cache.close();
+
+    verify(client).close();
+    assertThat(cache.size()).isZero();
+  }
+
+  private static PubSubClientImpl countLoad(AtomicInteger loads, PubSubClientImpl client) {
+    loads.incrementAndGet();
+    return client;
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.api.core.ApiFutures;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class DeduplicationCacheTest {
+
+  @Test
+  void idempotencyKeyAttributeTakesPrecedence() {
+    var cache = new DeduplicationCache(Deduplication.defaults());
+    var first = message("a").putAttributes(Deduplication.IDEMPOTENCY_KEY, "k1").build();
+    var second = message("b").putAttributes(Deduplication.IDEMPOTENCY_KEY, "k1").build();
+
+    assertThat(cache.key(first)).isEqualTo(cache.key(second));
+  }
+
+  @Test
+  void contentHashCoversPayloadAttributesAndOrderingKey() {
+    var cache = new DeduplicationCache(Deduplication.defaults());
+    var message = message("a").putAttributes("x", "1").putAttributes("y", "2").build();
+
+    assertThat(cache.key(message))
+        .isEqualTo(cache.key(message("a").putAttributes("y", "2").putAttributes("x", "1").build()))
+        .isNotEqualTo(cache.key(message("b").putAttributes("x", "1").build()))
+        .isNotEqualTo(cache.key(message.toBuilder().putAttributes("x", "3").build()))
+        .isNotEqualTo(cache.key(message.toBuilder().setOrderingKey("key").build()));
+  }
+
+  @Test
+  void claimsWithinWindow() throws InterruptedException {
+    var cache = new DeduplicationCache(new Deduplication(Duration.ofMillis(50), 100, "key"));
+    var original = ApiFutures.immediateFuture("id-1");
+
+    assertThat(cache.claim("k", original)).isNull();
+    assertThat(cache.claim("k", ApiFutures.immediateFuture("id-2"))).isSameAs(original);
+    Thread.sleep(60);
+    assertThat(cache.claim("k", ApiFutures.immediateFuture("id-3"))).isNull();
+  }
+
+  @Test
+  void forgetsFailedClaims() {
+    var cache = new DeduplicationCache(Deduplication.defaults());
+    var failed = ApiFutures.<String>immediateFailedFuture(new RuntimeException("boom"));
+    cache.claim("k", failed);
+
+    cache.forget("k", failed);
+
+    assertThat(cache.claim("k", ApiFutures.immediateFuture("id"))).isNull();
+  }
+
+  @Test
+  void memoryIsBounded() {
+    var cache = new DeduplicationCache(new Deduplication(Duration.ofMinutes(1), 16, "key"));
+    var first = ApiFutures.immediateFuture("first");
+    cache.claim("first", first);
+    for (int i = 0; i < 1_000; i++) {
+      cache.claim("k" + i, ApiFutures.immediateFuture("id"));
+    }
+
+    assertThat(cache.claim("first", ApiFutures.immediateFuture("again"))).isNull();
+  }
+
+  @Test
+  void reclaimedKeysAreEvictedLast() throws InterruptedException {
+    // Two entries per stripe, and three keys of the same stripe.
+    var cache = new DeduplicationCache(new Deduplication(Duration.ofMillis(50), 32, "key"));
+    var keys = sameStripeKeys(3);
+    cache.claim(keys.get(0), ApiFutures.immediateFuture("id-1"));
+    cache.claim(keys.get(1), ApiFutures.immediateFuture("id-2"));
+    Thread.sleep(60);
+    var reclaimed = ApiFutures.immediateFuture("id-3");
+
+    assertThat(cache.claim(keys.get(0), reclaimed)).isNull();
+    cache.claim(keys.get(2), ApiFutures.immediateFuture("id-4"));
+
+    assertThat(cache.claim(keys.get(0), ApiFutures.immediateFuture("id-5"))).isSameAs(reclaimed);
+  }
+
+  /** Keys spread over the stripes the same way as the cache does. */
+  private static List<String> sameStripeKeys(int count) {
+    return IntStream.iterate(0, i -> i + 1)
+        .mapToObj(i -> "k" + i)
+        .filter(
+            key -> {
+              var hash = key.hashCode();
+              return ((hash ^ (hash >>> 16)) & 15) == 0;
+            })
+        .limit(count)
+        .toList();
+  }
+
+  private static PubsubMessage.Builder message(String data) {
+    return PubsubMessage.newBuilder().setData(ByteString.copyFromUtf8(data));
+  }
+}
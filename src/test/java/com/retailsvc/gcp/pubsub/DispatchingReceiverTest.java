@@ -0,0 +1,215 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Timestamp;
+import com.google.pubsub.v1.PubsubMessage;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class DispatchingReceiverTest {
+
+  @Mock AckReplyConsumer consumer;
+
+  @Test
+  void handledMessagesAreAcked() {
+    var received = new AtomicReference<ReceivedMessage<String>>();
+    var receiver = new DispatchingReceiver<>(String.class, null, received::set, 1);
+
+    receiver.receiveMessage(message("value").toBuilder().setMessageId("id").build(), consumer);
+
+    verify(consumer, timeout(1000)).ack();
+    assertThat(received.get().payload()).isEqualTo("value");
+    assertThat(received.get().messageId()).isEqualTo("id");
+    receiver.close(Duration.ofSeconds(1));
+  }
+
+  @Test
+  void failedMessagesAreNacked() {
+    MessageHandler<String> failing =
+        message -> {
+          throw new IllegalStateException("boom");
+        };
+    var receiver = new DispatchingReceiver<>(String.class, null, failing, 1);
+
+    receiver.receiveMessage(message("value"), consumer);
+
+    verify(consumer, timeout(1000)).nack();
+    verify(consumer, never()).ack();
+    receiver.close(Duration.ofSeconds(1));
+  }
+
+  @Test
+  void payloadsAreDecodedWithMapper() {
+    BytesToObjectMapper mapper =
+        new BytesToObjectMapper() {
+          @Override
+          public <T> T readValue(byte[] bytes, Class<T> type) {
+            return type.cast(Integer.valueOf(new String(bytes, StandardCharsets.UTF_8)));
+          }
+        };
+    var received = new AtomicReference<Integer>();
+    var receiver =
+        new DispatchingReceiver<>(
+            Integer.class, mapper, message -> received.set(message.payload()), 1);
+
+    receiver.receiveMessage(message("42"), consumer);
+
+    verify(consumer, timeout(1000)).ack();
+    assertThat(received.get()).isEqualTo(42);
+    receiver.close(Duration.ofSeconds(1));
+  }
+
+  @Test
+  void protobufPayloadsAreParsedWithoutMapper() {
+    var timestamp = Timestamp.newBuilder().setSeconds(42).build();
+    var received = new AtomicReference<Timestamp>();
+    var receiver =
+        new DispatchingReceiver<>(
+            Timestamp.class, null, message -> received.set(message.payload()), 1);
+
+    receiver.receiveMessage(
+        PubsubMessage.newBuilder().setData(timestamp.toByteString()).build(), consumer);
+
+    verify(consumer, timeout(1000)).ack();
+    assertThat(received.get()).isEqualTo(timestamp);
+    receiver.close(Duration.ofSeconds(1));
+  }
+
+  @Test
+  void payloadsWithoutMapperAreNacked() {
+    var receiver = new DispatchingReceiver<>(Integer.class, null, message -> {}, 1);
+
+    receiver.receiveMessage(message("42"), consumer);
+
+    verify(consumer, timeout(1000)).nack();
+    receiver.close(Duration.ofSeconds(1));
+  }
+
+  @Test
+  void compressedPayloadsAreDecompressed() throws Exception {
+    var bytes = new ByteArrayOutputStream();
+    try (var gzip = new GZIPOutputStream(bytes)) {
+      gzip.write("value".getBytes(StandardCharsets.UTF_8));
+    }
+    var compressed =
+        PubsubMessage.newBuilder()
+            .setData(ByteString.copyFrom(bytes.toByteArray()))
+            .putAttributes(PayloadCodecs.ENCODING_ATTRIBUTE, "gzip")
+            .build();
+    var received = new AtomicReference<byte[]>();
+    var receiver =
+        new DispatchingReceiver<>(
+            byte[].class, null, message -> received.set(message.payload()), 1);
+
+    receiver.receiveMessage(compressed, consumer);
+
+    verify(consumer, timeout(1000)).ack();
+    assertThat(received.get()).asString(StandardCharsets.UTF_8).isEqualTo("value");
+    receiver.close(Duration.ofSeconds(1));
+  }
+
+  @Test
+  void envelopeEventsAreHandledInOrder() {
+    var events = List.of(ByteString.copyFromUtf8("first"), ByteString.copyFromUtf8("second"));
+    var envelope =
+        PubsubMessage.newBuilder()
+            .setData(Envelopes.pack(events))
+            .putAttributes(Envelopes.ENVELOPE_ATTRIBUTE, "2")
+            .build();
+    var received = new ArrayList<String>();
+    var receiver =
+        new DispatchingReceiver<>(
+            String.class, null, message -> received.add(message.payload()), 1);
+
+    receiver.receiveMessage(envelope, consumer);
+
+    verify(consumer, timeout(1000)).ack();
+    assertThat(received).containsExactly("first", "second");
+    receiver.close(Duration.ofSeconds(1));
+  }
+
+  @Test
+  void concurrencyIsBounded() throws Exception {
+    var running = new AtomicInteger();
+    var maxRunning = new AtomicInteger();
+    var done = new CountDownLatch(20);
+    MessageHandler<String> handler =
+        message -> {
+          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+          Thread.sleep(5);
+          running.decrementAndGet();
+          done.countDown();
+        };
+    var receiver = new DispatchingReceiver<>(String.class, null, handler, 3);
+
+    for (var i = 0; i < 20; i++) {
+      receiver.receiveMessage(message("value"), consumer);
+    }
+
+    assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(maxRunning.get()).isLessThanOrEqualTo(3);
+    receiver.close(Duration.ofSeconds(1));
+  }
+
+  @Test
+  void messagesOfAnOrderingKeyAreHandledInOrder() throws Exception {
+    var handled = new ConcurrentHashMap<String, List<Integer>>();
+    var running = ConcurrentHashMap.<String>newKeySet();
+    var overlapped = new AtomicInteger();
+    var done = new CountDownLatch(40);
+    MessageHandler<String> handler =
+        message -> {
+          var key = message.orderingKey();
+          if (!running.add(key)) {
+            overlapped.incrementAndGet();
+          }
+          Thread.sleep(1);
+          handled
+              .computeIfAbsent(key, k -> new CopyOnWriteArrayList<>())
+              .add(Integer.valueOf(message.payload()));
+          running.remove(key);
+          done.countDown();
+        };
+    var receiver = new DispatchingReceiver<>(String.class, null, handler, 8);
+
+    for (var i = 0; i < 20; i++) {
+      for (var key : List.of("a", "b")) {
+        receiver.receiveMessage(
+            message(String.valueOf(i)).toBuilder().setOrderingKey(key).build(), consumer);
+      }
+    }
+
+    assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    var expected = IntStream.range(0, 20).boxed().toList();
+    assertThat(handled.get("a")).isEqualTo(expected);
+    assertThat(handled.get("b")).isEqualTo(expected);
+    assertThat(overlapped).hasValue(0);
+    receiver.close(Duration.ofSeconds(1));
+  }
+
+  private static PubsubMessage message(String data) {
+    return PubsubMessage.newBuilder().setData(ByteString.copyFromUtf8(data)).build();
+  }
+}
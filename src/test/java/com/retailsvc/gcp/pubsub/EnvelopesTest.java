@@ -0,0 +1,67 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatException;
+
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class EnvelopesTest {
+
+  @Test
+  void packedEventsAreUnpackedInOrder() {
+    var events =
+        List.of(
+            ByteString.copyFromUtf8("first"), ByteString.EMPTY, ByteString.copyFromUtf8("third"));
+    var envelope = envelope(Envelopes.pack(events), events.size());
+
+    assertThat(Envelopes.isEnvelope(envelope)).isTrue();
+    assertThat(Envelopes.unpack(envelope)).containsExactlyElementsOf(events);
+  }
+
+  @Test
+  void compressedEnvelopesAreUnpacked() throws Exception {
+    var events = List.of(ByteString.copyFromUtf8("first"), ByteString.copyFromUtf8("second"));
+    var envelope =
+        envelope(PayloadCodecs.gzip().encode(Envelopes.pack(events)), events.size()).toBuilder()
+            .putAttributes(PayloadCodecs.ENCODING_ATTRIBUTE, PayloadCodecs.gzip().name())
+            .build();
+
+    assertThat(Envelopes.unpack(envelope)).containsExactlyElementsOf(events);
+  }
+
+  @Test
+  void otherMessagesAreSingleEvents() {
+    var message = PubsubMessage.newBuilder().setData(ByteString.copyFromUtf8("value")).build();
+
+    assertThat(Envelopes.isEnvelope(message)).isFalse();
+    assertThat(Envelopes.unpack(message)).containsExactly(ByteString.copyFromUtf8("value"));
+  }
+
+  @Test
+  void truncatedEnvelopesAreRejected() {
+    var packed = Envelopes.pack(List.of(ByteString.copyFromUtf8("value")));
+    var truncated = envelope(packed.substring(0, packed.size() - 1), 1);
+
+    assertThatException()
+        .isThrownBy(() -> Envelopes.unpack(truncated))
+        .isInstanceOf(PubSubClientException.class);
+  }
+
+  @Test
+  void eventCountDoesNotSizeTheResult() {
+    var events = List.of(ByteString.copyFromUtf8("value"));
+    var envelope = envelope(Envelopes.pack(events), 2_000_000_000);
+
+    assertThat(Envelopes.unpack(envelope)).containsExactlyElementsOf(events);
+  }
+
+  private static PubsubMessage envelope(ByteString data, int count) {
+    return PubsubMessage.newBuilder()
+        .setData(data)
+        .putAttributes(Envelopes.ENVELOPE_ATTRIBUTE, String.valueOf(count))
+        .build();
+  }
+}
@@ -0,0 +1,87 @@
+package com.retailsvc.gcp.pubsub;
+
+import io.grpc.Status;
+import java.util.Objects;
+
+/**
+ * Settings of the faults injected by {@link InProcessPubSub}. Checks run in the order of a real
+ * backend: a request larger than {@code maxRequestBytes} fails with {@code INVALID_ARGUMENT}, a
+ * request over the {@code maxRequestsPerSecond} quota fails with {@code RESOURCE_EXHAUSTED}, and
+ * any other request is answered after a latency drawn from {@code latency}, failing with {@code
+ * errorCode} at the given {@code errorRate}.
+ *
+ * @param latency the latency added to each request
+ * @param errorRate the rate of failed requests, from 0 to 1
+ * @param errorCode the status of failed requests
+ * @param maxRequestsPerSecond the max number of requests per second, or 0 for no limit
+ * @param maxRequestBytes the max serialized size of a request
+ * @see InProcessPubSub#setFaults(FaultSettings)
+ */
+public record FaultSettings(
+    LatencyDistribution latency,
+    double errorRate,
+    Status.Code errorCode,
+    int maxRequestsPerSecond,
+    int maxRequestBytes) {
+
+  /** The Pub/Sub limit of a publish request. */
+  private static final int MAX_REQUEST_BYTES = 10 * 1024 * 1024;
+
+  public FaultSettings {
+    Objects.requireNonNull(latency);
+    Objects.requireNonNull(errorCode);
+    if (errorRate < 0 || errorRate > 1) {
+      throw new IllegalArgumentException("errorRate must be within [0, 1]");
+    }
+    if (errorCode == Status.Code.OK) {
+      throw new IllegalArgumentException("errorCode must not be OK");
+    }
+    if (maxRequestsPerSecond < 0 || maxRequestBytes < 1) {
+      throw new IllegalArgumentException("Invalid max requests per second or max request bytes");
+    }
+  }
+
+  /**
+   * No latency and no errors, within the request size limit of Pub/Sub. Failed requests, once an
+   * error rate is set, fail with {@code UNAVAILABLE}, which the publisher retries.
+   *
+   * @return settings injecting no faults
+   */
+  public static FaultSettings none() {
+    return new FaultSettings(
+        LatencyDistribution.none(), 0, Status.Code.UNAVAILABLE, 0, MAX_REQUEST_BYTES);
+  }
+
+  /**
+   * @param latency the latency added to each request
+   * @return a copy of these settings with the given latency
+   */
+  public FaultSettings withLatency(LatencyDistribution latency) {
+    return new FaultSettings(latency, errorRate, errorCode, maxRequestsPerSecond, maxRequestBytes);
+  }
+
+  /**
+   * @param errorRate the rate of failed requests, from 0 to 1
+   * @param errorCode the status of failed requests
+   * @return a copy of these settings with the given error rate
+   */
+  public FaultSettings withErrors(double errorRate, Status.Code errorCode) {
+    return new FaultSettings(latency, errorRate, errorCode, maxRequestsPerSecond, maxRequestBytes);
+  }
+
+  /**
+   * @param maxRequestsPerSecond the max number of requests per second, or 0 for no limit
+   * @return a copy of these settings with the given throttling
+   */
+  public FaultSettings withMaxRequestsPerSecond(int maxRequestsPerSecond) {
+    return new FaultSettings(latency, errorRate, errorCode, maxRequestsPerSecond, maxRequestBytes);
+  }
+
+  /**
+   * @param maxRequestBytes the max serialized size of a request
+   * @return a copy of these settings with the given request size limit
+   */
+  public FaultSettings withMaxRequestBytes(int maxRequestBytes) {
+    return new FaultSettings(latency, errorRate, errorCode, maxRequestsPerSecond, maxRequestBytes);
+  }
+}
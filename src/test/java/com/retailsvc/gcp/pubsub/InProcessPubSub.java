@@ -0,0 +1,226 @@
+package com.retailsvc.gcp.pubsub;
+
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import com.google.cloud.pubsub.v1.Publisher;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.TopicName;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for the Pub/Sub publisher service, for tests, load tests and benchmarks
+ * that should run fast and without Docker or network access. Publish requests are served over an
+ * in-process gRPC channel, so the full publisher stack, including batching, retries and flow
+ * control, is exercised. Latency, errors, throttling and request size limits are injected as set by
+ * {@link FaultSettings}, from a seeded random source so runs are reproducible.
+ *
+ * <pre>{@code
+ * try (var pubSub = new InProcessPubSub(FaultSettings.none().withErrors(0.01, Code.UNAVAILABLE));
+ *     var factory = new PubSubClientFactory(pubSub)) {
+ *   factory.create("topic").publish(payload, attributes);
+ * }
+ * }</pre>
+ *
+ * <p>Messages are acknowledged with generated ids and then dropped, so memory use stays flat over
+ * long runs. Only publishing is served, other methods fail with {@code UNIMPLEMENTED}.
+ *
+ * <p>Shipped in the test jar of the library, not in the main jar.
+ */
+public final class InProcessPubSub implements PublisherFactory, AutoCloseable {
+
+  private static final String SERVICE_NAME = "google.pubsub.v1.Publisher";
+
+  private static final MethodDescriptor<PublishRequest, PublishResponse> PUBLISH_METHOD =
+      MethodDescriptor.<PublishRequest, PublishResponse>newBuilder()
+          .setType(MethodDescriptor.MethodType.UNARY)
+          .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, "Publish"))
+          .setRequestMarshaller(ProtoUtils.marshaller(PublishRequest.getDefaultInstance()))
+          .setResponseMarshaller(ProtoUtils.marshaller(PublishResponse.getDefaultInstance()))
+          .build();
+
+  private final Random random;
+  private final Server server;
+  private final ManagedChannel channel;
+  private final TransportChannelProvider channelProvider;
+  private final ScheduledExecutorService scheduler;
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong rejectedRequests = new AtomicLong();
+  private final AtomicLong publishedMessages = new AtomicLong();
+  private volatile FaultSettings faults;
+  private long windowStart;
+  private int windowRequests;
+
+  public InProcessPubSub() {
+    this(FaultSettings.none());
+  }
+
+  public InProcessPubSub(FaultSettings faults) {
+    this(faults, 0);
+  }
+
+  /**
+   * Start a stand-in serving on a uniquely named in-process channel.
+   *
+   * @param faults the faults to inject
+   * @param seed the seed of the latencies and errors
+   * @throws PubSubClientException if the in-process server cannot start
+   */
+  public InProcessPubSub(FaultSettings faults, long seed) {
+    this.faults = Objects.requireNonNull(faults);
+    this.random = new Random(seed);
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("in-process-pubsub").daemon().factory());
+    var name = InProcessServerBuilder.generateName();
+    try {
+      this.server =
+          InProcessServerBuilder.forName(name)
+              .directExecutor()
+              .addService(
+                  ServerServiceDefinition.builder(SERVICE_NAME)
+                      .addMethod(PUBLISH_METHOD, ServerCalls.asyncUnaryCall(this::publish))
+                      .build())
+              .build()
+              .start();
+    } catch (IOException e) {
+      scheduler.shutdownNow();
+      throw new PubSubClientException("Cant start in-process Pubsub", e);
+    }
+    this.channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+    this.channelProvider =
+        FixedTransportChannelProvider.create(GrpcTransportChannel.create(channel));
+  }
+
+  /**
+   * Change the injected faults, for example to simulate an outage and a recovery. Applies to
+   * requests received after this call.
+   *
+   * @param faults the faults to inject
+   * @return this stand-in
+   */
+  public InProcessPubSub setFaults(FaultSettings faults) {
+    this.faults = Objects.requireNonNull(faults);
+    return this;
+  }
+
+  public FaultSettings getFaults() {
+    return faults;
+  }
+
+  /**
+   * @return the number of publish requests received, including rejected ones
+   */
+  public long requestCount() {
+    return requests.get();
+  }
+
+  /**
+   * @return the number of publish requests failed by an injected fault
+   */
+  public long rejectedRequestCount() {
+    return rejectedRequests.get();
+  }
+
+  /**
+   * @return the number of messages acknowledged
+   */
+  public long publishedMessageCount() {
+    return publishedMessages.get();
+  }
+
+  @Override
+  public Publisher.Builder newBuilder(TopicName topic) {
+    return Publisher.newBuilder(topic)
+        .setChannelProvider(channelProvider)
+        .setCredentialsProvider(NoCredentialsProvider.create());
+  }
+
+  /** Serves in place of the emulator, so the emulator host is ignored. */
+  @Override
+  public boolean usesEmulatorHost() {
+    return false;
+  }
+
+  /** Stop serving. Requests still waiting for their latency are dropped. */
+  @Override
+  public void close() {
+    channel.shutdownNow();
+    server.shutdownNow();
+    scheduler.shutdownNow();
+    try {
+      server.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void publish(PublishRequest request, StreamObserver<PublishResponse> observer) {
+    requests.incrementAndGet();
+    var settings = faults;
+    if (request.getSerializedSize() > settings.maxRequestBytes()) {
+      reject(observer, Status.INVALID_ARGUMENT.withDescription("Request payload is too large"));
+      return;
+    }
+    if (isThrottled(settings.maxRequestsPerSecond())) {
+      reject(observer, Status.RESOURCE_EXHAUSTED.withDescription("Request quota exceeded"));
+      return;
+    }
+    var latency = settings.latency().sample(random);
+    var failed = settings.errorRate() > 0 && random.nextDouble() < settings.errorRate();
+    Runnable reply =
+        () -> {
+          if (failed) {
+            reject(observer, Status.fromCode(settings.errorCode()).withDescription("Injected"));
+          } else {
+            var response = PublishResponse.newBuilder();
+            for (int i = 0; i < request.getMessagesCount(); i++) {
+              response.addMessageIds(Long.toString(publishedMessages.incrementAndGet()));
+            }
+            observer.onNext(response.build());
+            observer.onCompleted();
+          }
+        };
+    if (latency.isZero()) {
+      reply.run();
+    } else {
+      scheduler.schedule(reply, latency.toNanos(), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void reject(StreamObserver<PublishResponse> observer, Status status) {
+    rejectedRequests.incrementAndGet();
+    observer.onError(status.asRuntimeException());
+  }
+
+  /** Counts requests over fixed one second windows. */
+  private synchronized boolean isThrottled(int maxRequestsPerSecond) {
+    if (maxRequestsPerSecond == 0) {
+      return false;
+    }
+    var now = System.nanoTime();
+    if (now - windowStart >= TimeUnit.SECONDS.toNanos(1)) {
+      windowStart = now;
+      windowRequests = 0;
+    }
+    return ++windowRequests > maxRequestsPerSecond;
+  }
+}
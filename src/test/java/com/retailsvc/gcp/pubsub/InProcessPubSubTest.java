@@ -0,0 +1,119 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.grpc.Status;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class InProcessPubSubTest {
+
+  InProcessPubSub pubSub;
+  PubSubClientFactory factory;
+
+  @BeforeEach
+  void setUp() {
+    System.setProperty(EmulatorRedirect.PUBSUB_EMULATOR_HOST, "localhost:8085");
+    pubSub = new InProcessPubSub();
+    factory = new PubSubClientFactory(pubSub);
+  }
+
+  @AfterEach
+  void tearDown() {
+    factory.close();
+  }
+
+  @Test
+  void publishesInPlaceOfTheEmulator() {
+    var ids = factory.create("topic").publishAll(List.of("a", "b", "c"), Map.of());
+
+    assertThat(ids).hasSize(3).doesNotHaveDuplicates();
+    assertThat(pubSub.publishedMessageCount()).isEqualTo(3);
+    assertThat(pubSub.rejectedRequestCount()).isZero();
+  }
+
+  @Test
+  void addsLatency() {
+    pubSub.setFaults(
+        FaultSettings.none().withLatency(LatencyDistribution.fixed(Duration.ofMillis(200))));
+    var client = factory.create("topic");
+
+    var started = System.nanoTime();
+    client.publish("a", Map.of());
+
+    assertThat(Duration.ofNanos(System.nanoTime() - started))
+        .isGreaterThanOrEqualTo(Duration.ofMillis(200));
+  }
+
+  @Test
+  void injectsErrorsUntilRecovered() {
+    pubSub.setFaults(FaultSettings.none().withErrors(1, Status.Code.INVALID_ARGUMENT));
+    var client = factory.create("topic");
+
+    assertThatThrownBy(() -> client.publish("a", Map.of()))
+        .isInstanceOf(PubSubClientException.class);
+    assertThat(pubSub.rejectedRequestCount()).isEqualTo(1);
+
+    pubSub.setFaults(FaultSettings.none());
+    client.publish("b", Map.of());
+    assertThat(pubSub.publishedMessageCount()).isEqualTo(1);
+  }
+
+  @Test
+  void rejectsRequestsOverTheSizeLimit() {
+    pubSub.setFaults(FaultSettings.none().withMaxRequestBytes(100));
+    var client = factory.create("topic");
+
+    assertThatThrownBy(() -> client.publish("x".repeat(200), Map.of()))
+        .isInstanceOf(PubSubClientException.class);
+    client.publish("small", Map.of());
+    assertThat(pubSub.publishedMessageCount()).isEqualTo(1);
+  }
+
+  @Test
+  void throttledRequestsAreRetried() {
+    pubSub.setFaults(FaultSettings.none().withMaxRequestsPerSecond(1));
+    var client = factory.create("topic");
+
+    client.publish("a", Map.of());
+    client.publish("b", Map.of());
+
+    assertThat(pubSub.publishedMessageCount()).isEqualTo(2);
+    assertThat(pubSub.rejectedRequestCount()).isPositive();
+    assertThat(pubSub.requestCount()).isGreaterThan(2);
+  }
+
+  @Test
+  void latenciesAreReproducible() {
+    var distribution = LatencyDistribution.logNormal(Duration.ofMillis(10), Duration.ofMillis(100));
+    var firstRandom = new Random(42);
+    var secondRandom = new Random(42);
+
+    var first = IntStream.range(0, 1000).mapToObj(i -> distribution.sample(firstRandom)).toList();
+    var second = IntStream.range(0, 1000).mapToObj(i -> distribution.sample(secondRandom)).toList();
+
+    assertThat(first).isEqualTo(second);
+    var sorted = first.stream().sorted().toList();
+    assertThat(sorted.get(499)).isBetween(Duration.ofMillis(8), Duration.ofMillis(12));
+    assertThat(sorted.get(989)).isBetween(Duration.ofMillis(70), Duration.ofMillis(140));
+  }
+
+  @Test
+  void uniformLatenciesAreWithinBounds() {
+    var distribution = LatencyDistribution.uniform(Duration.ofMillis(1), Duration.ofMillis(2));
+    var random = new Random(42);
+
+    IntStream.range(0, 100)
+        .forEach(
+            i ->
+                assertThat(distribution.sample(random))
+                    .isBetween(Duration.ofMillis(1), Duration.ofMillis(2)));
+  }
+}
@@ -0,0 +1,78 @@
+package com.retailsvc.gcp.pubsub;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.random.RandomGenerator;
+
+/**
+ * The distribution of the latency added by {@link InProcessPubSub} to each publish request.
+ *
+ * @see FaultSettings#withLatency(LatencyDistribution)
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+
+  /**
+   * Draw the latency of one request.
+   *
+   * @param random the source of randomness, seeded for reproducible runs
+   * @return the latency, never negative
+   */
+  Duration sample(RandomGenerator random);
+
+  /**
+   * @return a distribution answering every request right away
+   */
+  static LatencyDistribution none() {
+    return fixed(Duration.ZERO);
+  }
+
+  /**
+   * @param latency the latency of every request
+   * @return a distribution with the same latency for every request
+   */
+  static LatencyDistribution fixed(Duration latency) {
+    requireNotNegative(latency);
+    return random -> latency;
+  }
+
+  /**
+   * @param min the lowest latency
+   * @param max the highest latency
+   * @return a distribution with latencies spread evenly between {@code min} and {@code max}
+   */
+  static LatencyDistribution uniform(Duration min, Duration max) {
+    requireNotNegative(min);
+    if (max.compareTo(min) < 0) {
+      throw new IllegalArgumentException("max must not be less than min");
+    }
+    var minNanos = min.toNanos();
+    var maxNanos = max.toNanos();
+    return random ->
+        Duration.ofNanos(minNanos == maxNanos ? minNanos : random.nextLong(minNanos, maxNanos + 1));
+  }
+
+  /**
+   * A long tailed distribution, like the latencies of a real backend. Most requests take about the
+   * median, while one in a hundred takes longer than the 99th percentile.
+   *
+   * @param median the median latency
+   * @param p99 the 99th percentile latency
+   * @return a log-normal distribution with the given median and 99th percentile
+   */
+  static LatencyDistribution logNormal(Duration median, Duration p99) {
+    if (!median.isPositive() || p99.compareTo(median) < 0) {
+      throw new IllegalArgumentException("Invalid median or 99th percentile");
+    }
+    var mu = Math.log(median.toNanos());
+    // The 99th percentile of a standard normal distribution is 2.326 deviations above the mean.
+    var sigma = (Math.log(p99.toNanos()) - mu) / 2.3263478740408408;
+    return random -> Duration.ofNanos(Math.round(Math.exp(mu + sigma * random.nextGaussian())));
+  }
+
+  private static void requireNotNegative(Duration latency) {
+    if (Objects.requireNonNull(latency).isNegative()) {
+      throw new IllegalArgumentException("latency must not be negative");
+    }
+  }
+}
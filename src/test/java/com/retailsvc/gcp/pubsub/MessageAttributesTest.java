@@ -0,0 +1,57 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.assertThatNullPointerException;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class MessageAttributesTest {
+
+  @Test
+  void nullAndEmptyShareOneInstance() {
+    assertThat(MessageAttributes.of(null)).isSameAs(MessageAttributes.empty());
+    assertThat(MessageAttributes.of(Map.of())).isSameAs(MessageAttributes.empty());
+  }
+
+  @Test
+  void copiesMutableMaps() {
+    var source = new HashMap<>(Map.of("Tenant-Id", "t1"));
+    var attributes = MessageAttributes.of(source);
+    source.put("type", "created");
+
+    assertThat(attributes).containsExactly(Map.entry("Tenant-Id", "t1"));
+    assertThat(MessageAttributes.of(attributes)).isSameAs(attributes);
+  }
+
+  @Test
+  void withAddsOrReplacesEntries() {
+    var base = MessageAttributes.of("type", "created");
+    var tenant = base.with("Tenant-Id", "t1");
+
+    assertThat(base).hasSize(1);
+    assertThat(tenant)
+        .isEqualTo(Map.of("type", "created", "Tenant-Id", "t1"))
+        .hasSameHashCodeAs(Map.of("type", "created", "Tenant-Id", "t1"));
+    assertThat(tenant.with("type", "deleted"))
+        .isEqualTo(Map.of("type", "deleted", "Tenant-Id", "t1"));
+  }
+
+  @Test
+  void rejectsNullValues() {
+    var source = new HashMap<String, String>();
+    source.put("key", null);
+
+    assertThatNullPointerException().isThrownBy(() -> MessageAttributes.of(source));
+  }
+
+  @Test
+  void rejectsAttributesPubSubDoesNotAccept() {
+    assertThatIllegalArgumentException().isThrownBy(() -> MessageAttributes.of("goog-key", "v"));
+    assertThatIllegalArgumentException().isThrownBy(() -> MessageAttributes.of("", "v"));
+    assertThatIllegalArgumentException()
+        .isThrownBy(() -> MessageAttributes.of("key", "v".repeat(1025)));
+  }
+}
@@ -0,0 +1,152 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIOException;
+
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MessageSpoolTest {
+
+  @TempDir Path directory;
+
+  @Test
+  void takesMessagesInOrder() throws Exception {
+    try (var spool = new MessageSpool(directory, settings(1024))) {
+      spool.append(message("a", "key"));
+      spool.append(message("b", null));
+
+      var first = spool.take().message();
+      assertThat(first.getData().toStringUtf8()).isEqualTo("a");
+      assertThat(first.getOrderingKey()).isEqualTo("key");
+      assertThat(first.getAttributesMap()).containsEntry("Tenant-Id", "t1");
+      assertThat(spool.take().message().getData().toStringUtf8()).isEqualTo("b");
+    }
+  }
+
+  @Test
+  void deletesSegmentsOnceAcknowledged() throws Exception {
+    try (var spool = new MessageSpool(directory, settings(64))) {
+      var entries = new ArrayList<MessageSpool.Entry>();
+      for (int i = 0; i < 6; i++) {
+        spool.append(message("message-" + i, null));
+      }
+      for (int i = 0; i < 6; i++) {
+        entries.add(spool.take());
+      }
+      assertThat(spool.segmentCount()).isGreaterThan(2);
+
+      entries.forEach(spool::ack);
+
+      // The last segment is still being written.
+      assertThat(spool.segmentCount()).isOne();
+    }
+  }
+
+  @Test
+  void takesAcrossSegmentsDeletedWhenRolled() throws Exception {
+    try (var spool = new MessageSpool(directory, settings(64))) {
+      for (int i = 0; i < 6; i++) {
+        spool.append(message("message-" + i, null));
+        var entry = spool.take();
+        assertThat(entry.message().getData().toStringUtf8()).isEqualTo("message-" + i);
+        spool.ack(entry);
+      }
+
+      assertThat(spool.segmentCount()).isOne();
+    }
+  }
+
+  @Test
+  void recoversUnacknowledgedMessages() throws Exception {
+    try (var spool = new MessageSpool(directory, settings(64))) {
+      for (int i = 0; i < 4; i++) {
+        spool.append(message("message-" + i, null));
+      }
+      spool.ack(spool.take());
+    }
+
+    try (var spool = new MessageSpool(directory, settings(64))) {
+      spool.append(message("after-restart", null));
+      var data = new ArrayList<String>();
+      for (int i = 0; i < 4; i++) {
+        data.add(spool.take().message().getData().toStringUtf8());
+      }
+      // Segments are replayed whole, so the acknowledged message of a partly published segment is
+      // taken again.
+      assertThat(data).endsWith("message-3", "after-restart");
+    }
+  }
+
+  @Test
+  void ignoresTornRecords() throws Exception {
+    try (var spool = new MessageSpool(directory, settings(1024))) {
+      spool.append(message("complete", null));
+      spool.append(message("torn", null));
+    }
+    try (var files = Files.list(directory)) {
+      var segment =
+          files.filter(path -> path.toString().endsWith(".seg")).findFirst().orElseThrow();
+      try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+        var firstLength = message("complete", null).getSerializedSize();
+        // Corrupt the payload of the second record, as if the process crashed while writing it.
+        channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0}), 8L + firstLength + 8L + 2);
+      }
+    }
+
+    try (var spool = new MessageSpool(directory, settings(1024))) {
+      assertThat(spool.take().message().getData().toStringUtf8()).isEqualTo("complete");
+      spool.append(message("next", null));
+      assertThat(spool.take().message().getData().toStringUtf8()).isEqualTo("next");
+    }
+  }
+
+  @Test
+  void failsWhenFull() throws IOException {
+    var settings =
+        new SpoolSettings(directory, 64, 128, FsyncPolicy.NEVER, Duration.ofMillis(100), 10);
+    try (var spool = new MessageSpool(directory, settings)) {
+      assertThatIOException()
+          .isThrownBy(
+              () -> {
+                for (int i = 0; i < 10; i++) {
+                  spool.append(message("message-" + i, null));
+                }
+              })
+          .withMessageContaining("full");
+    }
+  }
+
+  @Test
+  void directoryCanOnlyBeOpenedOnce() throws IOException {
+    try (var ignored = new MessageSpool(directory, settings(64))) {
+      assertThatIOException().isThrownBy(() -> new MessageSpool(directory, settings(64)));
+    }
+  }
+
+  private SpoolSettings settings(int segmentBytes) {
+    return new SpoolSettings(
+        directory, segmentBytes, 1024 * 1024, FsyncPolicy.ALWAYS, Duration.ofMillis(100), 10);
+  }
+
+  private static PubsubMessage message(String data, String orderingKey) {
+    var builder =
+        PubsubMessage.newBuilder()
+            .setData(ByteString.copyFromUtf8(data))
+            .putAttributes("Tenant-Id", "t1");
+    if (orderingKey != null) {
+      builder.setOrderingKey(orderingKey);
+    }
+    return builder.build();
+  }
+}
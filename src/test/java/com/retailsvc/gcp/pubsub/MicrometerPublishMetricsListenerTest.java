@@ -0,0 +1,71 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class MicrometerPublishMetricsListenerTest {
+
+  private static final String TOPIC = "projects/p/topics/t";
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final MicrometerPublishMetricsListener listener =
+      new MicrometerPublishMetricsListener(registry);
+
+  @Test
+  void tracksInFlightMessages() {
+    listener.onEnqueued(TOPIC, 100);
+    listener.onEnqueued(TOPIC, 300);
+    assertThat(registry.get("pubsub.publish.in.flight").tag("topic", TOPIC).gauge().value())
+        .isEqualTo(2);
+
+    listener.onPublished(TOPIC, Duration.ofMillis(5));
+    assertThat(registry.get("pubsub.publish.in.flight").gauge().value()).isEqualTo(1);
+    assertThat(registry.get("pubsub.publish.message.size").summary().totalAmount()).isEqualTo(400);
+  }
+
+  @Test
+  void recordsLatencyByOutcome() {
+    listener.onEnqueued(TOPIC, 1);
+    listener.onEnqueued(TOPIC, 1);
+    listener.onPublished(TOPIC, Duration.ofMillis(5));
+    listener.onFailed(TOPIC, new IOException("boom"), Duration.ofMillis(7));
+
+    assertThat(registry.get("pubsub.publish.latency").tag("outcome", "success").timer().count())
+        .isOne();
+    assertThat(registry.get("pubsub.publish.latency").tag("outcome", "failure").timer().count())
+        .isOne();
+    assertThat(
+            registry.get("pubsub.publish.failures").tag("cause", "IOException").counter().count())
+        .isOne();
+  }
+
+  @Test
+  void recordsBatchesTimeoutsAndClose() {
+    listener.onBatch(TOPIC, 50);
+    listener.onTimedOut(TOPIC);
+    listener.onClosed(TOPIC, Duration.ofMillis(20));
+
+    assertThat(registry.get("pubsub.publish.batch.size").summary().max()).isEqualTo(50);
+    assertThat(registry.get("pubsub.publish.timeouts").counter().count()).isOne();
+    assertThat(registry.get("pubsub.client.close").timer().count()).isOne();
+  }
+
+  @Test
+  void reusesMetersOfATopic() {
+    listener.onEnqueued(TOPIC, 1);
+    var meterCount = registry.getMeters().size();
+    listener.onEnqueued(TOPIC, 1);
+    listener.onPublished(TOPIC, Duration.ofMillis(5));
+    listener.onTimedOut(TOPIC);
+    assertThat(registry.getMeters()).hasSize(meterCount);
+
+    listener.onFailed(TOPIC, new IOException("boom"), Duration.ofMillis(7));
+    listener.onFailed(TOPIC, new IOException("boom"), Duration.ofMillis(7));
+    assertThat(registry.getMeters()).hasSize(meterCount + 1);
+    assertThat(registry.get("pubsub.publish.failures").counter().count()).isEqualTo(2);
+  }
+}
@@ -0,0 +1,48 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class OrderingKeysTest {
+
+  @Test
+  void singleShardKeepsScope() {
+    assertThat(OrderingKeys.shard("tenant", "order-1", 1)).isEqualTo("tenant");
+  }
+
+  @Test
+  void entityAlwaysMapsToSameShard() {
+    assertThat(OrderingKeys.shard("tenant", "order-1", 8))
+        .isEqualTo(OrderingKeys.shard("tenant", "order-1", 8))
+        .startsWith("tenant#");
+  }
+
+  @Test
+  void sequentialIdsSpreadOverAllShards() {
+    var keys =
+        IntStream.range(0, 1_000)
+            .mapToObj(i -> OrderingKeys.shard("tenant", String.valueOf(i), 8))
+            .collect(Collectors.toSet());
+
+    assertThat(keys).hasSize(8);
+  }
+
+  @Test
+  void rejectsInvalidShards() {
+    assertThatIllegalArgumentException().isThrownBy(() -> OrderingKeys.shard("tenant", "id", 0));
+  }
+
+  @Test
+  void resumeDelayDoublesUpToMax() {
+    var resume = new OrderingKeyResume(Duration.ofSeconds(1), Duration.ofSeconds(5), 10);
+
+    assertThat(resume.delay(1)).isEqualTo(Duration.ofSeconds(1));
+    assertThat(resume.delay(3)).isEqualTo(Duration.ofSeconds(4));
+    assertThat(resume.delay(10)).isEqualTo(Duration.ofSeconds(5));
+  }
+}
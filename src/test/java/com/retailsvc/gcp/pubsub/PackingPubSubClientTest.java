@@ -0,0 +1,115 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class PackingPubSubClientTest {
+
+  @Mock UsageTrackingClient delegate;
+
+  @Test
+  void fullEnvelopesAreSentRightAway() {
+    when(delegate.publishAsync(any(OutgoingMessage.class)))
+        .thenReturn(CompletableFuture.completedFuture("id"));
+
+    try (var client = createClient(new PackingSettings(3, 1024, Duration.ofMinutes(1)))) {
+      var results =
+          IntStream.range(0, 3)
+              .mapToObj(
+                  i -> client.publishAsync(OutgoingMessage.of("event-" + i, Map.of("k", "v"))))
+              .toList();
+
+      assertThat(results).allSatisfy(result -> assertThat(result).isCompletedWithValue("id"));
+      var captor = ArgumentCaptor.forClass(OutgoingMessage.class);
+      verify(delegate).publishAsync(captor.capture());
+      var envelope = toMessage(captor.getValue());
+      assertThat(envelope.getAttributesMap())
+          .containsEntry("k", "v")
+          .containsEntry(Envelopes.ENVELOPE_ATTRIBUTE, "3");
+      assertThat(Envelopes.unpack(envelope))
+          .map(ByteString::toStringUtf8)
+          .containsExactly("event-0", "event-1", "event-2");
+    }
+  }
+
+  @Test
+  void envelopesAreSentAfterLinger() {
+    when(delegate.publishAsync(any(OutgoingMessage.class)))
+        .thenReturn(CompletableFuture.completedFuture("id"));
+
+    try (var client = createClient(new PackingSettings(100, 1024, Duration.ofMillis(20)))) {
+      client.publish("first", null);
+      client.publish("second", Map.of("k", "v"));
+
+      verify(delegate, times(2)).publishAsync(any(OutgoingMessage.class));
+    }
+  }
+
+  @Test
+  void envelopesAreBoundedBySize() {
+    when(delegate.publishAsync(any(OutgoingMessage.class)))
+        .thenReturn(CompletableFuture.completedFuture("id"));
+
+    try (var client = createClient(new PackingSettings(100, 20, Duration.ofMinutes(1)))) {
+      client.publishAsync(OutgoingMessage.of("0123456789", null));
+      client.publishAsync(OutgoingMessage.of("0123456789", null));
+
+      verify(delegate).publishAsync(any(OutgoingMessage.class));
+    }
+    verify(delegate, timeout(1_000).times(2)).publishAsync(any(OutgoingMessage.class));
+  }
+
+  @Test
+  void orderedMessagesAreNotPacked() {
+    try (var client = createClient(PackingSettings.defaults())) {
+      client.publishOrdered("value", null, "key");
+
+      verify(delegate).publishOrdered("value", null, "key");
+      verify(delegate, never()).publishAsync(any(OutgoingMessage.class));
+    }
+  }
+
+  @Test
+  void failedEnvelopesFailEveryEvent() {
+    when(delegate.publishAsync(any(OutgoingMessage.class)))
+        .thenReturn(CompletableFuture.failedFuture(new PubSubClientException("boom")));
+
+    try (var client = createClient(new PackingSettings(2, 1024, Duration.ofMinutes(1)))) {
+      var first = client.publishAsync(OutgoingMessage.of("first", null));
+      var second = client.publishAsync(OutgoingMessage.of("second", null));
+
+      assertThat(first).isCompletedExceptionally();
+      assertThat(second).isCompletedExceptionally();
+    }
+  }
+
+  private PackingPubSubClient createClient(PackingSettings settings) {
+    return new PackingPubSubClient(
+        delegate, null, new PubSubClientConfig().setPacking(settings), BufferPool.defaultPool());
+  }
+
+  private static PubsubMessage toMessage(OutgoingMessage message) {
+    return PubsubMessage.newBuilder()
+        .setData((ByteString) message.payload())
+        .putAllAttributes(message.attributes())
+        .build();
+  }
+}
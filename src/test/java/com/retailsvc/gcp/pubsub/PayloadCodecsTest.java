@@ -0,0 +1,69 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatException;
+
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+class PayloadCodecsTest {
+
+  static final ByteString PAYLOAD = ByteString.copyFromUtf8("{\"key\":\"value\"}".repeat(100));
+
+  static Stream<PayloadCodec> codecs() {
+    return Stream.of(PayloadCodecs.gzip(), PayloadCodecs.deflate());
+  }
+
+  @ParameterizedTest
+  @MethodSource("codecs")
+  void roundTrip(PayloadCodec codec) throws Exception {
+    var compressed = codec.encode(PAYLOAD);
+
+    assertThat(compressed.size()).isLessThan(PAYLOAD.size());
+    assertThat(codec.decode(compressed)).isEqualTo(PAYLOAD);
+  }
+
+  @ParameterizedTest
+  @MethodSource("codecs")
+  void decodeMessageByEncodingAttribute(PayloadCodec codec) throws Exception {
+    var message =
+        PubsubMessage.newBuilder()
+            .putAttributes(PayloadCodecs.ENCODING_ATTRIBUTE, codec.name())
+            .setData(codec.encode(PAYLOAD))
+            .build();
+
+    assertThat(PayloadCodecs.decode(message)).isEqualTo(PAYLOAD);
+  }
+
+  @ParameterizedTest
+  @MethodSource("codecs")
+  void decodingStopsAtMaxDecodedSize(PayloadCodec codec) throws Exception {
+    var bomb = codec.encode(ByteString.copyFrom(new byte[PayloadCodecs.MAX_DECODED_BYTES + 1]));
+    var attributes = Map.of(PayloadCodecs.ENCODING_ATTRIBUTE, codec.name());
+
+    assertThatException()
+        .isThrownBy(() -> PayloadCodecs.decode(attributes, bomb))
+        .isInstanceOf(PubSubClientException.class)
+        .withMessage("Decoded payload exceeds " + PayloadCodecs.MAX_DECODED_BYTES + " bytes");
+  }
+
+  @Test
+  void uncompressedMessagesAreReturnedAsIs() {
+    assertThat(PayloadCodecs.decode(Map.of(), PAYLOAD)).isSameAs(PAYLOAD);
+  }
+
+  @Test
+  void unknownEncodingThrows() {
+    var attributes = Map.of(PayloadCodecs.ENCODING_ATTRIBUTE, "unknown");
+
+    assertThatException()
+        .isThrownBy(() -> PayloadCodecs.decode(attributes, PAYLOAD))
+        .isInstanceOf(PubSubClientException.class)
+        .withMessage("Unknown encoding unknown");
+  }
+}
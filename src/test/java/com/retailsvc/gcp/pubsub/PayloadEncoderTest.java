@@ -0,0 +1,196 @@
+package com.retailsvc.gcp.pubsub;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatException;
+
+import com.google.protobuf.Timestamp;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.jupiter.api.Test;
+
+class PayloadEncoderTest {
+
+  ObjectToStreamMapper streamMapper = (out, value) -> out.write(value.toString().getBytes(UTF_8));
+
+  @Test
+  void streamMapperWritesIntoPooledBuffer() {
+    var encoder = new PayloadEncoder(streamMapper, false);
+
+    var payload = encoder.encode(new StringBuilder("value"));
+
+    assertThat(payload.data().toStringUtf8()).isEqualTo("value");
+  }
+
+  @Test
+  void releasedBuffersAreReused() {
+    var pool = new BufferPool(4, 1024, 1024);
+    var buffer = pool.acquire();
+    buffer.write("longer than initial capacity".getBytes(UTF_8), 0, 28);
+    assertThat(buffer.toByteString().toStringUtf8()).isEqualTo("longer than initial capacity");
+
+    buffer.release();
+
+    assertThat(pool.available()).isOne();
+    var reused = pool.acquire();
+    assertThat(reused).isSameAs(buffer);
+    assertThat(reused.toByteString().isEmpty()).isTrue();
+  }
+
+  @Test
+  void oversizedBuffersAreNotRetained() {
+    var pool = new BufferPool(4, 8, 1024);
+    var buffer = pool.acquire();
+    buffer.write(new byte[16], 0, 16);
+
+    buffer.release();
+
+    assertThat(pool.available()).isZero();
+  }
+
+  @Test
+  void retainedBytesAreBounded() {
+    var pool = new BufferPool(64, 64, 100);
+    var first = pool.acquire();
+    var second = pool.acquire();
+
+    first.release();
+    second.release();
+
+    assertThat(pool.available()).isOne();
+    assertThat(pool.retainedBytes()).isEqualTo(64);
+    pool.acquire();
+    assertThat(pool.retainedBytes()).isZero();
+  }
+
+  @Test
+  void streamMapperFailureIsWrapped() {
+    ObjectToStreamMapper failing =
+        (out, value) -> {
+          throw new IOException("FROM TEST");
+        };
+    var encoder = new PayloadEncoder(failing, false);
+
+    assertThatException()
+        .isThrownBy(() -> encoder.encode(new Object()))
+        .isInstanceOf(PubSubClientException.class)
+        .withCauseInstanceOf(IOException.class);
+  }
+
+  @Test
+  void byteArraysAreMappedUnlessZeroCopyOrNoMapper() {
+    var bytes = "raw".getBytes(UTF_8);
+    var mapped = new PayloadEncoder(streamMapper, false).encode(bytes);
+
+    assertThat(mapped.data().toStringUtf8()).isEqualTo(bytes.toString());
+    assertThat(new PayloadEncoder(streamMapper, true).encode(bytes).data().toStringUtf8())
+        .isEqualTo("raw");
+    assertThat(new PayloadEncoder(null, false).encode(bytes).data().toStringUtf8())
+        .isEqualTo("raw");
+  }
+
+  @Test
+  void streamMapperCanBeUsedAsBytesMapper() throws IOException {
+    assertThat(UTF_8.decode(streamMapper.valueAsBytes(1)).toString()).isEqualTo("1");
+  }
+
+  @Test
+  void mapperTakesPrecedenceOverProtobufUnlessNativeSchemaEncoding() throws IOException {
+    var timestamp = Timestamp.newBuilder().setSeconds(1).build();
+
+    var mapped = new PayloadEncoder(streamMapper, false).encode(timestamp);
+    var encoded =
+        new PayloadEncoder(streamMapper, false, true, BufferPool.defaultPool()).encode(timestamp);
+
+    assertThat(mapped.data().toStringUtf8()).isEqualTo(timestamp.toString());
+    assertThat(mapped.attributes()).isEmpty();
+    assertThat(Timestamp.parseFrom(encoded.data())).isEqualTo(timestamp);
+    assertThat(encoded.attributes())
+        .containsEntry(PayloadSchemas.SCHEMA_ENCODING_ATTRIBUTE, PayloadSchemas.BINARY);
+  }
+
+  @Test
+  void protobufMessagesAreEncodedWithoutMapper() throws IOException {
+    var encoder = new PayloadEncoder(null, false);
+    var timestamp = Timestamp.newBuilder().setSeconds(1_700_000_000).setNanos(42).build();
+
+    var payload = encoder.encode(timestamp);
+
+    assertThat(Timestamp.parseFrom(payload.data())).isEqualTo(timestamp);
+    assertThat(payload.attributes())
+        .containsExactlyInAnyOrderEntriesOf(
+            Map.of(
+                PayloadSchemas.SCHEMA_NAME_ATTRIBUTE,
+                "google.protobuf.Timestamp",
+                PayloadSchemas.SCHEMA_ENCODING_ATTRIBUTE,
+                PayloadSchemas.BINARY));
+  }
+
+  @Test
+  void avroRecordsAreEncodedWithoutMapper() throws IOException {
+    Schema schema =
+        SchemaBuilder.record("Order")
+            .namespace("com.example")
+            .fields()
+            .requiredString("id")
+            .requiredLong("amount")
+            .endRecord();
+    var encoder = new PayloadEncoder(null, false);
+    var payloads =
+        List.of(order(schema, "order-1", 100), order(schema, "order-2", 200)).stream()
+            .map(encoder::encode)
+            .toList();
+
+    var reader = new GenericDatumReader<GenericRecord>(schema);
+    var decoded =
+        reader.read(
+            null, DecoderFactory.get().binaryDecoder(payloads.get(1).data().newInput(), null));
+    assertThat(decoded.get("id")).hasToString("order-2");
+    assertThat(decoded.get("amount")).isEqualTo(200L);
+    assertThat(payloads.get(1).data().toByteArray()).isEqualTo(genericEncoding(schema, decoded));
+    assertThat(payloads.get(0).attributes())
+        .containsEntry(PayloadSchemas.SCHEMA_NAME_ATTRIBUTE, "com.example.Order")
+        .containsEntry(PayloadSchemas.SCHEMA_ENCODING_ATTRIBUTE, PayloadSchemas.BINARY);
+  }
+
+  @Test
+  void encodingAttributesReplaceMessageAttributes() {
+    var payload =
+        EncodedPayload.of(
+            Timestamp.getDefaultInstance().toByteString(),
+            Map.of(PayloadSchemas.SCHEMA_ENCODING_ATTRIBUTE, PayloadSchemas.BINARY));
+
+    assertThat(payload.withAttributes(null)).isEqualTo(payload.attributes());
+    assertThat(
+            payload.withAttributes(
+                Map.of("Kind", "test", PayloadSchemas.SCHEMA_ENCODING_ATTRIBUTE, "JSON")))
+        .isEqualTo(Map.of("Kind", "test", PayloadSchemas.SCHEMA_ENCODING_ATTRIBUTE, "BINARY"));
+    var attributes = Map.of("Kind", "test");
+    assertThat(EncodedPayload.of(payload.data()).withAttributes(attributes)).isSameAs(attributes);
+  }
+
+  private static GenericRecord order(Schema schema, String id, long amount) {
+    var order = new GenericData.Record(schema);
+    order.put("id", id);
+    order.put("amount", amount);
+    return order;
+  }
+
+  private static byte[] genericEncoding(Schema schema, GenericRecord value) throws IOException {
+    var out = new ByteArrayOutputStream();
+    var binaryEncoder = EncoderFactory.get().binaryEncoder(out, null);
+    new GenericDatumWriter<GenericRecord>(schema).write(value, binaryEncoder);
+    binaryEncoder.flush();
+    return out.toByteArray();
+  }
+}
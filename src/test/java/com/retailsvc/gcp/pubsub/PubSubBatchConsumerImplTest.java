@@ -0,0 +1,166 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatException;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.gax.rpc.UnaryCallable;
+import com.google.cloud.pubsub.v1.stub.SubscriberStub;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+import com.google.pubsub.v1.AcknowledgeRequest;
+import com.google.pubsub.v1.ModifyAckDeadlineRequest;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.PullRequest;
+import com.google.pubsub.v1.PullResponse;
+import com.google.pubsub.v1.ReceivedMessage;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class PubSubBatchConsumerImplTest {
+
+  static final String SUBSCRIPTION = "projects/test-project/subscriptions/test";
+
+  @Mock SubscriberStub stub;
+  @Mock UnaryCallable<PullRequest, PullResponse> pull;
+  @Mock UnaryCallable<AcknowledgeRequest, Empty> acknowledge;
+  @Mock UnaryCallable<ModifyAckDeadlineRequest, Empty> modifyAckDeadline;
+
+  PubSubSubscriberConfig config = new PubSubSubscriberConfig().setConcurrentPulls(1);
+
+  @BeforeEach
+  void setUp() {
+    lenient().when(stub.pullCallable()).thenReturn(pull);
+    lenient().when(stub.acknowledgeCallable()).thenReturn(acknowledge);
+    lenient().when(stub.modifyAckDeadlineCallable()).thenReturn(modifyAckDeadline);
+  }
+
+  @Test
+  void drainsUntilPullIsEmpty() {
+    when(pull.call(any()))
+        .thenReturn(response("a", "b"), response("c"), PullResponse.getDefaultInstance());
+    var batches = new ArrayList<List<String>>();
+
+    try (var consumer =
+        consumer(messages -> batches.add(messages.stream().map(m -> m.payload()).toList()))) {
+      var result = consumer.drain();
+
+      assertThat(result.acked()).isEqualTo(3);
+      assertThat(result.nacked()).isZero();
+    }
+    assertThat(batches).containsExactly(List.of("a", "b"), List.of("c"));
+    var acks = ArgumentCaptor.forClass(AcknowledgeRequest.class);
+    verify(acknowledge, times(2)).call(acks.capture());
+    assertThat(acks.getAllValues().getFirst().getAckIdsList()).containsExactly("ack-a", "ack-b");
+    assertThat(acks.getAllValues().getFirst().getSubscription()).isEqualTo(SUBSCRIPTION);
+    verify(stub).close();
+  }
+
+  @Test
+  void failedBatchesAreNacked() {
+    when(pull.call(any())).thenReturn(response("a", "b"), PullResponse.getDefaultInstance());
+
+    try (var consumer =
+        consumer(
+            messages -> {
+              throw new IllegalStateException("boom");
+            })) {
+      var result = consumer.drain();
+
+      assertThat(result.acked()).isZero();
+      assertThat(result.nacked()).isEqualTo(2);
+    }
+    var nacks = ArgumentCaptor.forClass(ModifyAckDeadlineRequest.class);
+    verify(modifyAckDeadline).call(nacks.capture());
+    assertThat(nacks.getValue().getAckDeadlineSeconds()).isZero();
+    assertThat(nacks.getValue().getAckIdsList()).containsExactly("ack-a", "ack-b");
+    verify(acknowledge, never()).call(any());
+  }
+
+  @Test
+  void redeliveredFailuresAreNotHandledAgain() {
+    when(pull.call(any()))
+        .thenReturn(
+            response("a"), response("a"), response("a", "b"), PullResponse.getDefaultInstance());
+    var handled = new ArrayList<String>();
+
+    try (var consumer =
+        consumer(
+            messages -> {
+              messages.forEach(message -> handled.add(message.payload()));
+              if (messages.getFirst().payload().equals("a")) {
+                throw new IllegalStateException("poison");
+              }
+            })) {
+      var result = consumer.drain();
+
+      assertThat(result.acked()).isEqualTo(1);
+      assertThat(result.nacked()).isEqualTo(1);
+    }
+    assertThat(handled).containsExactly("a", "b");
+    verify(modifyAckDeadline).call(any());
+  }
+
+  @Test
+  void stopsAfterConsecutiveEmptyPulls() {
+    var empty = PullResponse.getDefaultInstance();
+    when(pull.call(any())).thenReturn(empty, response("a"), empty, empty, empty);
+
+    try (var consumer = consumer(messages -> {})) {
+      assertThat(consumer.drain().acked()).isEqualTo(1);
+    }
+    verify(pull, times(1 + 1 + PubSubBatchConsumerImpl.EMPTY_PULLS_TO_STOP)).call(any());
+  }
+
+  @Test
+  void pullFailuresAreThrown() {
+    when(pull.call(any())).thenThrow(new IllegalStateException("boom"));
+
+    try (var consumer = consumer(messages -> {})) {
+      assertThatException()
+          .isThrownBy(consumer::drain)
+          .isInstanceOf(PubSubClientException.class)
+          .withCauseInstanceOf(IllegalStateException.class);
+    }
+  }
+
+  @Test
+  void closedConsumerCannotDrain() {
+    var consumer = consumer(messages -> {});
+    consumer.close();
+
+    assertThatException().isThrownBy(consumer::drain).isInstanceOf(PubSubClientException.class);
+  }
+
+  private PubSubBatchConsumerImpl<String> consumer(BatchHandler<String> handler) {
+    return new PubSubBatchConsumerImpl<>(
+        stub, SUBSCRIPTION, new PayloadDecoder<>(String.class, null), handler, config);
+  }
+
+  private static PullResponse response(String... payloads) {
+    var response = PullResponse.newBuilder();
+    for (var payload : payloads) {
+      response.addReceivedMessages(
+          ReceivedMessage.newBuilder()
+              .setAckId("ack-" + payload)
+              .setMessage(
+                  PubsubMessage.newBuilder()
+                      .setMessageId("id-" + payload)
+                      .setData(ByteString.copyFromUtf8(payload))
+                      .build()));
+    }
+    return response.build();
+  }
+}
@@ -1,10 +1,21 @@
 package com.retailsvc.gcp.pubsub;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.Mockito.mock;
 
+import com.google.api.gax.batching.FlowController.LimitExceededBehavior;
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.cloud.pubsub.v1.Publisher;
+import com.google.pubsub.v1.TopicName;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -43,6 +54,57 @@ class PubSubClientFactoryTest {
     }
   }
 
+  @Test
+  void sharedFactoryIsClosedWithClientFactory() {
+    var shared = SharedPublisherFactory.defaultPool();
+    var clientFactory = new PubSubClientFactory(shared);
+    var first = clientFactory.create("first");
+    var second = clientFactory.create("second");
+    assertThat(shared.isStarted()).isTrue();
+
+    // Closing one client leaves the shared resources to the other topics.
+    first.close();
+    assertNotNull(clientFactory.create("third"));
+
+    clientFactory.close();
+    assertThat(second.isClosed()).isTrue();
+    assertThatIllegalStateException()
+        .isThrownBy(() -> shared.newBuilder(TopicName.of("project", "topic")));
+  }
+
+  @Test
+  void warmUpCreatesCachedClients() {
+    var result = factory.warmUp(List.of("first", "second", "first"));
+
+    assertThat(result.isSuccessful()).isTrue();
+    assertThat(result.warmed()).containsExactly("first", "second");
+    assertThat(result.elapsed()).isPositive();
+    try (var client = factory.create("first")) {
+      assertThat(client.isClosed()).isFalse();
+      assertThat(factory.warmUp(List.of("first")).warmed()).containsExactly("first");
+      assertThat(factory.create("first")).isSameAs(client);
+    }
+  }
+
+  @Test
+  void warmUpReportsFailedTopics() {
+    PublisherFactory failing =
+        topic -> {
+          if (topic.getTopic().equals("bad")) {
+            throw new PubSubClientException("boom");
+          }
+          return Publisher.newBuilder(topic);
+        };
+    var clientFactory = new PubSubClientFactory(failing);
+
+    var result = clientFactory.warmUp(List.of("good", "bad"));
+
+    assertThat(result.isSuccessful()).isFalse();
+    assertThat(result.warmed()).containsExactly("good");
+    assertThat(result.failures()).containsOnlyKeys("bad");
+    clientFactory.close();
+  }
+
   @Test
   void thatConfigCanBeSet() {
     final var clientFactory = new PubSubClientFactory().setClientConfig(new PubSubClientConfig());
@@ -50,4 +112,105 @@ class PubSubClientFactoryTest {
       assertNotNull(client);
     }
   }
+
+  @Test
+  void flowControlCanBeConfigured() {
+    var config =
+        new PubSubClientConfig()
+            .setMaxOutstandingMessages(1_000L)
+            .setMaxOutstandingBytes(10_000_000L)
+            .setFlowControlBehavior(FlowControlBehavior.FAIL_FAST);
+    assertThat(config.flowControlSettings())
+        .hasValueSatisfying(
+            settings -> {
+              assertThat(settings.getMaxOutstandingElementCount()).isEqualTo(1_000L);
+              assertThat(settings.getLimitExceededBehavior())
+                  .isEqualTo(LimitExceededBehavior.ThrowException);
+            });
+
+    var clientFactory = new PubSubClientFactory().setClientConfig(config);
+    try (var client = clientFactory.create("test")) {
+      assertNotNull(client);
+    }
+  }
+
+  @Test
+  void topicConfigTakesPrecedence() {
+    var closed = new ArrayList<String>();
+    var topicConfig =
+        new PubSubClientConfig()
+            .setRetrySettings(
+                RetrySettings.newBuilder()
+                    .setTotalTimeoutDuration(Duration.ofSeconds(20))
+                    .setInitialRetryDelayDuration(Duration.ofMillis(50))
+                    .setRetryDelayMultiplier(2)
+                    .setMaxRetryDelayDuration(Duration.ofSeconds(1))
+                    .setInitialRpcTimeoutDuration(Duration.ofSeconds(5))
+                    .setMaxRpcTimeoutDuration(Duration.ofSeconds(5))
+                    .build())
+            .setPublishTimeout(Duration.ofSeconds(5))
+            .setMetricsListener(
+                new PublishMetricsListener() {
+                  @Override
+                  public void onClosed(String topic, Duration duration) {
+                    closed.add(topic);
+                  }
+                });
+    factory.setClientConfig(new PubSubClientConfig()).setTopicConfig("critical", topicConfig);
+
+    factory.create("critical");
+    factory.create("other");
+    factory.close();
+
+    assertThat(closed).containsExactly("projects/test-project/topics/critical");
+  }
+
+  @Test
+  void fanOutSerializesPayloadOnce() {
+    var serialized = new AtomicInteger();
+    ObjectToBytesMapper mapper =
+        value -> {
+          serialized.incrementAndGet();
+          return ByteBuffer.wrap(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        };
+    PublisherFactory failing =
+        topic -> {
+          if (topic.getTopic().equals("bad")) {
+            throw new PubSubClientException("boom");
+          }
+          return Publisher.newBuilder(topic);
+        };
+    var clientFactory =
+        new PubSubClientFactory(mapper, failing)
+            .setClientConfig(new PubSubClientConfig().setPublishTimeout(Duration.ofMillis(200)));
+
+    var result = clientFactory.fanOut(List.of("entity", "audit", "bad"), List.of(1, 2), null);
+
+    assertThat(serialized).hasValue(1);
+    assertThat(result.isSuccessful()).isFalse();
+    assertThat(result.failures()).containsOnlyKeys("entity", "audit", "bad");
+    assertThat(result.failures().get("bad")).hasMessage("boom");
+  }
+
+  @Test
+  void fanOutEncodesOncePerTopicEncoding() {
+    var serialized = new AtomicInteger();
+    ObjectToBytesMapper mapper =
+        value -> {
+          serialized.incrementAndGet();
+          return ByteBuffer.wrap(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        };
+    var timeout = Duration.ofMillis(200);
+    var clientFactory =
+        new PubSubClientFactory(mapper)
+            .setClientConfig(new PubSubClientConfig().setPublishTimeout(timeout))
+            .setTopicConfig(
+                "audit",
+                new PubSubClientConfig().setPublishTimeout(timeout).setZeroCopyPayloads(true));
+
+    clientFactory.fanOut(List.of("entity", "audit", "archive"), List.of(1, 2), null);
+
+    // Entity and archive share the factory config, audit wraps the mapped bytes instead.
+    assertThat(serialized).hasValue(2);
+  }
 }
@@ -1,6 +1,7 @@
 package com.retailsvc.gcp.pubsub;
 
 import static com.retailsvc.gcp.pubsub.EmulatorRedirect.PUBSUB_EMULATOR_HOST;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatException;
 import static org.assertj.core.api.Assertions.assertThatNoException;
 
@@ -82,6 +83,14 @@ class PubSubClientIT {
     }
   }
 
+  @Test
+  void canFanOut() {
+    var result = factory.fanOut(List.of(testTopic, "missing-topic"), "test", Map.of("k", "v"));
+
+    assertThat(result.messageIds()).containsOnlyKeys(testTopic);
+    assertThat(result.failures()).containsOnlyKeys("missing-topic");
+  }
+
   @Test
   void testClosingClients() {
     try (var pubSubClient = getClient()) {
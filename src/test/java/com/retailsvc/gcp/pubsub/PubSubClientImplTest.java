@@ -1,6 +1,7 @@
 package com.retailsvc.gcp.pubsub;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatException;
 import static org.assertj.core.api.Assertions.assertThatNoException;
@@ -10,21 +11,35 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.api.gax.batching.BatchingSettings;
+import com.google.api.gax.batching.FlowController.MaxOutstandingElementCountReachedException;
 import com.google.cloud.pubsub.v1.Publisher;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Timestamp;
 import com.google.pubsub.v1.PubsubMessage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.SubmissionPublisher;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -56,6 +71,8 @@ class PubSubClientImplTest {
         arguments(ByteBuffer.wrap("value".getBytes(UTF_8)), Map.of()),
         arguments(ByteBuffer.wrap("value".getBytes(UTF_8)).flip(), Map.of()),
         arguments(new ByteArrayInputStream("value".getBytes(UTF_8)), Map.of()),
+        arguments("value".getBytes(UTF_8), Map.of()),
+        arguments(ByteString.copyFromUtf8("value"), Map.of()),
         arguments(testPayload, Map.of("attribute-1", "value-1")));
   }
 
@@ -225,6 +242,25 @@ class PubSubClientImplTest {
     assertThat(captor.getAllValues().get(1).getOrderingKey()).isEqualTo("key-b");
   }
 
+  @Test
+  void protobufPayloadsAreTaggedWithTheirSchema() throws Exception {
+    when(mockPublisher.publish(any())).thenReturn(ApiFutures.immediateFuture("id-1"));
+    var captor = ArgumentCaptor.forClass(PubsubMessage.class);
+    var timestamp = Timestamp.newBuilder().setSeconds(1).build();
+    var config = new PubSubClientConfig().setNativeSchemaEncoding(true);
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      client.publish(timestamp, Map.of("Kind", "test"));
+    }
+
+    verify(mockPublisher).publish(captor.capture());
+    assertThat(Timestamp.parseFrom(captor.getValue().getData())).isEqualTo(timestamp);
+    assertThat(captor.getValue().getAttributesMap())
+        .containsEntry("Kind", "test")
+        .containsEntry(PayloadSchemas.SCHEMA_NAME_ATTRIBUTE, "google.protobuf.Timestamp")
+        .containsEntry(PayloadSchemas.SCHEMA_ENCODING_ATTRIBUTE, PayloadSchemas.BINARY);
+  }
+
   @Test
   void publishAllConvenienceWrapperAppliesAttributesToAllPayloads() {
     when(mockPublisher.publish(any()))
@@ -242,6 +278,632 @@ class PubSubClientImplTest {
             message -> assertThat(message.getAttributesMap()).containsEntry("Kind", "test"));
   }
 
+  @Test
+  void publishAsyncCompletesWithMessageId() {
+    when(mockPublisher.publish(any())).thenReturn(ApiFutures.immediateFuture("id-1"));
+
+    try (PubSubClientImpl client = createClient()) {
+      assertThat(client.publishAsync("a", Map.of("Kind", "test"))).succeedsWithin(1, SECONDS);
+      assertThat(client.publishOrderedAsync("a", null, "key").join()).isEqualTo("id-1");
+    }
+  }
+
+  @Test
+  void publishAsyncReportsFailureThroughFuture() {
+    when(mockPublisher.publish(any()))
+        .thenReturn(ApiFutures.immediateFailedFuture(new RuntimeException("boom")));
+
+    try (PubSubClientImpl client = createClient()) {
+      assertThat(client.publishAsync("a", null))
+          .failsWithin(1, SECONDS)
+          .withThrowableThat()
+          .havingCause()
+          .isInstanceOf(PubSubClientException.class);
+    }
+  }
+
+  @Test
+  void publishAsyncDoesNotThrowOnClosedClient() {
+    PubSubClientImpl client = createClient();
+    client.close();
+
+    assertThat(client.publishAsync("a", null))
+        .failsWithin(1, SECONDS)
+        .withThrowableThat()
+        .havingCause()
+        .isInstanceOf(PubSubClientException.class)
+        .withMessage("Client is closed");
+  }
+
+  @Test
+  void publishAsyncCancellationCancelsPublishResult() {
+    SettableApiFuture<String> publishResult = SettableApiFuture.create();
+    when(mockPublisher.publish(any())).thenReturn(publishResult);
+
+    try (PubSubClientImpl client = createClient()) {
+      client.publishAsync("a", null).cancel(false);
+    }
+    assertThat(publishResult.isCancelled()).isTrue();
+  }
+
+  @Test
+  void publishAsyncTimesOutAtDeadline() {
+    SettableApiFuture<String> publishResult = SettableApiFuture.create();
+    when(mockPublisher.publish(any())).thenReturn(publishResult);
+
+    try (PubSubClientImpl client = createClient()) {
+      var future = client.publishAsync(OutgoingMessage.of("a", null), Duration.ofMillis(10));
+      assertThat(future)
+          .failsWithin(1, SECONDS)
+          .withThrowableThat()
+          .havingCause()
+          .isInstanceOf(TimeoutException.class);
+    }
+    assertThat(publishResult.isCancelled()).isTrue();
+  }
+
+  @Test
+  void publishAsyncRejectsNullArgumentsThroughTheFutureBeforeSending() {
+    try (PubSubClientImpl client = createClient()) {
+      assertThat(client.publishAsync(OutgoingMessage.of("a", null), (Duration) null))
+          .failsWithin(Duration.ZERO)
+          .withThrowableOfType(ExecutionException.class)
+          .withCauseInstanceOf(NullPointerException.class);
+      assertThat(client.publishAsync(null))
+          .failsWithin(Duration.ZERO)
+          .withThrowableOfType(ExecutionException.class)
+          .withCauseInstanceOf(NullPointerException.class);
+      assertThat(client.publishAllAsync(List.of(OutgoingMessage.of("a", null)), (Duration) null))
+          .failsWithin(Duration.ZERO)
+          .withThrowableOfType(ExecutionException.class)
+          .withCauseInstanceOf(NullPointerException.class);
+    }
+    verify(mockPublisher, never()).publish(any());
+  }
+
+  @Test
+  void publishAllAsyncReturnsIdsInOrder() {
+    when(mockPublisher.publish(any()))
+        .thenReturn(ApiFutures.immediateFuture("id-1"), ApiFutures.immediateFuture("id-2"));
+
+    try (PubSubClientImpl client = createClient()) {
+      var ids =
+          client.publishAllAsync(
+              List.of(OutgoingMessage.of("a", null), OutgoingMessage.of("b", null)));
+      assertThat(ids.join()).containsExactly("id-1", "id-2");
+    }
+  }
+
+  @Test
+  void publishAllAsyncFailsOnPartialFailure() {
+    when(mockPublisher.publish(any()))
+        .thenReturn(
+            ApiFutures.immediateFuture("id-1"),
+            ApiFutures.immediateFailedFuture(new RuntimeException("boom")));
+
+    try (PubSubClientImpl client = createClient()) {
+      var ids =
+          client.publishAllAsync(
+              List.of(OutgoingMessage.of("a", null), OutgoingMessage.of("b", null)));
+      assertThat(ids)
+          .failsWithin(1, SECONDS)
+          .withThrowableThat()
+          .havingCause()
+          .isInstanceOf(PubSubClientException.class)
+          .withMessageContaining("Failed to publish 1 of 2 messages");
+    }
+    verify(mockPublisher, times(2)).publish(any(PubsubMessage.class));
+  }
+
+  @Test
+  void droppedMessagesAreHandedToHandler() {
+    when(mockPublisher.publish(any()))
+        .thenReturn(
+            ApiFutures.immediateFuture("id-1"),
+            ApiFutures.immediateFailedFuture(new MaxOutstandingElementCountReachedException(1)));
+    var dropped = new ArrayList<PubsubMessage>();
+    var config =
+        new PubSubClientConfig()
+            .setMaxOutstandingMessages(1L)
+            .setFlowControlBehavior(FlowControlBehavior.DROP)
+            .setDroppedMessageHandler(dropped::add);
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      assertThatNoException().isThrownBy(() -> client.publish("a", null));
+      assertThatException()
+          .isThrownBy(() -> client.publish("b", null))
+          .isInstanceOf(PubSubClientException.class);
+    }
+    assertThat(dropped)
+        .singleElement()
+        .satisfies(m -> assertThat(m.getData().toStringUtf8()).isEqualTo("b"));
+  }
+
+  @Test
+  void failFastDoesNotDropMessages() {
+    when(mockPublisher.publish(any()))
+        .thenReturn(
+            ApiFutures.immediateFailedFuture(new MaxOutstandingElementCountReachedException(1)));
+    var dropped = new ArrayList<PubsubMessage>();
+    var config =
+        new PubSubClientConfig()
+            .setMaxOutstandingMessages(1L)
+            .setFlowControlBehavior(FlowControlBehavior.FAIL_FAST)
+            .setDroppedMessageHandler(dropped::add);
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      assertThatException()
+          .isThrownBy(() -> client.publish("a", null))
+          .isInstanceOf(PubSubClientException.class);
+    }
+    assertThat(dropped).isEmpty();
+  }
+
+  @Test
+  void adaptiveBatchingStartsWithLowVolumeSettings() {
+    var config = new PubSubClientConfig().setAdaptiveBatching(AdaptiveBatching.defaults());
+    var batching = new ArrayList<BatchingSettings>();
+
+    try (var client =
+        new PubSubClientImpl(
+            settings -> {
+              batching.add(settings);
+              return mockPublisher;
+            },
+            objectMapper,
+            config)) {
+      assertThat(client.isClosed()).isFalse();
+    }
+    assertThat(batching)
+        .singleElement()
+        .satisfies(settings -> assertThat(settings.getElementCountThreshold()).isOne());
+  }
+
+  @Test
+  void publishStreamKeepsInFlightWithinWindow() {
+    var inFlight = new AtomicInteger();
+    var maxInFlight = new AtomicInteger();
+    var ids = new AtomicInteger();
+    when(mockPublisher.publish(any()))
+        .thenAnswer(
+            ignored -> {
+              maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+              SettableApiFuture<String> result = SettableApiFuture.create();
+              CompletableFuture.delayedExecutor(5, TimeUnit.MILLISECONDS)
+                  .execute(
+                      () -> {
+                        inFlight.decrementAndGet();
+                        result.set("id-" + ids.incrementAndGet());
+                      });
+              return result;
+            });
+    var results = new ConcurrentLinkedQueue<PublishResult>();
+
+    try (PubSubClientImpl client = createClient()) {
+      var summary =
+          client.publishStream(
+              IntStream.range(0, 20).mapToObj(i -> OutgoingMessage.of("m" + i, null)),
+              3,
+              results::add);
+      assertThat(summary).isEqualTo(new PublishSummary(20, 0));
+    }
+    assertThat(results).hasSize(20).allMatch(PublishResult::isPublished);
+    assertThat(maxInFlight.get()).isLessThanOrEqualTo(3);
+  }
+
+  @Test
+  void publishStreamReportsFailuresAndContinues() {
+    when(mockPublisher.publish(any()))
+        .thenReturn(
+            ApiFutures.immediateFailedFuture(new RuntimeException("boom")),
+            ApiFutures.immediateFuture("id-2"));
+    var results = new ConcurrentLinkedQueue<PublishResult>();
+
+    try (PubSubClientImpl client = createClient()) {
+      var messages = List.of(OutgoingMessage.of("a", null), OutgoingMessage.of("b", null));
+      var summary = client.publishStream(messages.iterator(), 1, results::add);
+      assertThat(summary).isEqualTo(new PublishSummary(1, 1));
+    }
+    assertThat(results).extracting(PublishResult::messageId).containsExactly(null, "id-2");
+  }
+
+  @Test
+  void publishStreamFromFlowPublisher() {
+    when(mockPublisher.publish(any())).thenReturn(ApiFutures.immediateFuture("id"));
+    var results = new ConcurrentLinkedQueue<PublishResult>();
+
+    try (PubSubClientImpl client = createClient();
+        var upstream = new SubmissionPublisher<OutgoingMessage>()) {
+      var summary = client.publishStream(upstream, 2, results::add);
+      for (int i = 0; i < 10; i++) {
+        upstream.submit(OutgoingMessage.of("m" + i, null));
+      }
+      upstream.close();
+      assertThat(summary).succeedsWithin(1, SECONDS).isEqualTo(new PublishSummary(10, 0));
+    }
+    assertThat(results).hasSize(10);
+  }
+
+  @Test
+  void zeroCopyWrapsPayloadWithoutCopying() {
+    when(mockPublisher.publish(any())).thenReturn(ApiFutures.immediateFuture("id"));
+    var captor = ArgumentCaptor.forClass(PubsubMessage.class);
+    var bytes = "value".getBytes(UTF_8);
+    var direct = ByteBuffer.allocateDirect(5).put("value".getBytes(UTF_8)).flip();
+    var config = new PubSubClientConfig().setZeroCopyPayloads(true);
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      client.publish(bytes, null);
+      client.publish(direct, null);
+    }
+    bytes[0] = 'V';
+    direct.put(0, (byte) 'V');
+
+    verify(mockPublisher, times(2)).publish(captor.capture());
+    // The caller owns the bytes, so changes after publishing are visible in the wrapped data.
+    assertThat(captor.getAllValues())
+        .allSatisfy(message -> assertThat(message.getData().toStringUtf8()).isEqualTo("Value"));
+    assertThat(direct.position()).isZero();
+  }
+
+  @Test
+  void payloadsAreCopiedByDefault() {
+    when(mockPublisher.publish(any())).thenReturn(ApiFutures.immediateFuture("id"));
+    var captor = ArgumentCaptor.forClass(PubsubMessage.class);
+    var bytes = "value".getBytes(UTF_8);
+
+    try (PubSubClientImpl client = createClient()) {
+      client.publish(ByteBuffer.wrap(bytes), null);
+    }
+    bytes[0] = 'V';
+
+    verify(mockPublisher).publish(captor.capture());
+    assertThat(captor.getValue().getData().toStringUtf8()).isEqualTo("value");
+  }
+
+  @Test
+  void payloadsAboveThresholdAreCompressed() {
+    when(mockPublisher.publish(any())).thenReturn(ApiFutures.immediateFuture("id"));
+    var captor = ArgumentCaptor.forClass(PubsubMessage.class);
+    var config = new PubSubClientConfig().setCompression(PayloadCodecs.gzip(), 100);
+    var large = "value".repeat(100);
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      client.publish("value", null);
+      client.publish(large, Map.of("Kind", "test"));
+    }
+
+    verify(mockPublisher, times(2)).publish(captor.capture());
+    var small = captor.getAllValues().get(0);
+    assertThat(small.getAttributesMap()).doesNotContainKey(PayloadCodecs.ENCODING_ATTRIBUTE);
+    var compressed = captor.getAllValues().get(1);
+    assertThat(compressed.getAttributesMap())
+        .containsEntry(PayloadCodecs.ENCODING_ATTRIBUTE, "gzip")
+        .containsEntry("Kind", "test");
+    assertThat(compressed.getData().size()).isLessThan(large.length());
+    assertThat(PayloadCodecs.decode(compressed).toStringUtf8()).isEqualTo(large);
+  }
+
+  @Test
+  void metricsListenerReceivesPublishEvents() {
+    when(mockPublisher.getTopicNameString()).thenReturn("projects/p/topics/t");
+    when(mockPublisher.publish(any()))
+        .thenReturn(
+            ApiFutures.immediateFuture("id-1"),
+            ApiFutures.immediateFailedFuture(new RuntimeException("boom")));
+    var events = new ConcurrentLinkedQueue<String>();
+    var listener =
+        new PublishMetricsListener() {
+          @Override
+          public void onEnqueued(String topic, int bytes) {
+            events.add("enqueued " + topic);
+          }
+
+          @Override
+          public void onPublished(String topic, Duration latency) {
+            events.add("published");
+          }
+
+          @Override
+          public void onFailed(String topic, Throwable cause, Duration latency) {
+            events.add("failed " + cause.getMessage());
+          }
+
+          @Override
+          public void onBatch(String topic, int size) {
+            events.add("batch " + size);
+          }
+
+          @Override
+          public void onClosed(String topic, Duration duration) {
+            events.add("closed");
+          }
+        };
+    var config = new PubSubClientConfig().setMetricsListener(listener);
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      var messages = List.of(OutgoingMessage.of("a", null), OutgoingMessage.of("b", null));
+      assertThatException().isThrownBy(() -> client.publishAll(messages));
+    }
+
+    assertThat(events)
+        .containsExactly(
+            "batch 2",
+            "enqueued projects/p/topics/t",
+            "published",
+            "enqueued projects/p/topics/t",
+            "failed boom",
+            "closed");
+  }
+
+  @Test
+  void metricsListenerReceivesTimeouts() {
+    when(mockPublisher.getTopicNameString()).thenReturn("projects/p/topics/t");
+    when(mockPublisher.publish(any())).thenReturn(SettableApiFuture.create());
+    var timedOut = new CompletableFuture<String>();
+    var config =
+        new PubSubClientConfig()
+            .setMetricsListener(
+                new PublishMetricsListener() {
+                  @Override
+                  public void onTimedOut(String topic) {
+                    timedOut.complete(topic);
+                  }
+                });
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      var result = client.publishAsync(OutgoingMessage.of("a", null), Duration.ofMillis(10));
+      assertThat(result).failsWithin(1, SECONDS);
+    }
+    assertThat(timedOut).succeedsWithin(1, SECONDS).isEqualTo("projects/p/topics/t");
+  }
+
+  @Test
+  void attributesAreAttached() {
+    when(mockPublisher.publish(any())).thenReturn(ApiFutures.immediateFuture("id"));
+    var captor = ArgumentCaptor.forClass(PubsubMessage.class);
+
+    try (PubSubClientImpl client = createClient()) {
+      client.publish("value", Map.of("type", "created", "Tenant-Id", "t1"));
+      client.publish("value", Map.of());
+    }
+
+    verify(mockPublisher, times(2)).publish(captor.capture());
+    assertThat(captor.getAllValues().get(0).getAttributesMap())
+        .containsOnly(Map.entry("type", "created"), Map.entry("Tenant-Id", "t1"));
+    assertThat(captor.getAllValues().get(1).getAttributesMap()).isEmpty();
+  }
+
+  @Test
+  void publishOrderedShardsEntitiesWithinScope() {
+    when(mockPublisher.publish(any())).thenReturn(ApiFutures.immediateFuture("id"));
+    var captor = ArgumentCaptor.forClass(PubsubMessage.class);
+    var config = new PubSubClientConfig().setMessageOrderingEnabled(true).setOrderingKeyShards(4);
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      client.publishOrdered("value", null, "tenant", "order-1");
+    }
+
+    verify(mockPublisher).publish(captor.capture());
+    assertThat(captor.getValue().getOrderingKey())
+        .isEqualTo(OrderingKeys.shard("tenant", "order-1", 4));
+  }
+
+  @Test
+  void localRejectionsDoNotPauseOrderingKey() {
+    var pending = SettableApiFuture.<String>create();
+    when(mockPublisher.publish(any()))
+        .thenReturn(
+            ApiFutures.immediateFailedFuture(new MaxOutstandingElementCountReachedException(1)),
+            pending);
+    var paused = new ConcurrentLinkedQueue<String>();
+    var config =
+        new PubSubClientConfig()
+            .setMessageOrderingEnabled(true)
+            .setMetricsListener(
+                new PublishMetricsListener() {
+                  @Override
+                  public void onOrderingKeyPaused(String topic, String orderingKey) {
+                    paused.add(orderingKey);
+                  }
+                });
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      assertThatException().isThrownBy(() -> client.publishOrdered("value", null, "key"));
+      client.publishOrderedAsync("value", null, "key").cancel(false);
+    }
+    assertThat(pending.isCancelled()).isTrue();
+    assertThat(paused).isEmpty();
+  }
+
+  @Test
+  void pausedOrderingKeyIsResumedWithinBound() {
+    when(mockPublisher.publish(any()))
+        .thenReturn(ApiFutures.immediateFailedFuture(new RuntimeException("boom")));
+    var events = new ConcurrentLinkedQueue<String>();
+    var config =
+        new PubSubClientConfig()
+            .setMessageOrderingEnabled(true)
+            .setOrderingKeyResume(new OrderingKeyResume(Duration.ZERO, Duration.ZERO, 2))
+            .setMetricsListener(
+                new PublishMetricsListener() {
+                  @Override
+                  public void onOrderingKeyPaused(String topic, String orderingKey) {
+                    events.add("paused " + orderingKey);
+                  }
+
+                  @Override
+                  public void onOrderingKeyResumed(String topic, String orderingKey) {
+                    events.add("resumed " + orderingKey);
+                  }
+                });
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      for (int i = 0; i < 3; i++) {
+        assertThatException().isThrownBy(() -> client.publishOrdered("value", null, "key"));
+        verify(mockPublisher, timeout(1_000).times(Math.min(i + 1, 2))).resumePublish("key");
+      }
+      // The third failure exceeds the bound, so the key stays paused until resumed by hand.
+      assertThat(events)
+          .containsExactly("paused key", "resumed key", "paused key", "resumed key", "paused key");
+      client.resumePublish("key");
+    }
+    verify(mockPublisher, times(3)).resumePublish("key");
+    assertThat(events).last().isEqualTo("resumed key");
+  }
+
+  @Test
+  void duplicatesCompleteWithOriginalMessageId() {
+    when(mockPublisher.publish(any()))
+        .thenReturn(
+            ApiFutures.immediateFailedFuture(new RuntimeException("boom")),
+            ApiFutures.immediateFuture("id-1"),
+            ApiFutures.immediateFuture("id-2"));
+    var config = new PubSubClientConfig().setDeduplication(Deduplication.defaults());
+    var retried = Map.of(Deduplication.IDEMPOTENCY_KEY, "order-1");
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      assertThatException().isThrownBy(() -> client.publish("value", retried));
+      var ids =
+          client.publishAll(
+              List.of(
+                  OutgoingMessage.of("value", retried),
+                  OutgoingMessage.of("other", retried),
+                  OutgoingMessage.of("content", null),
+                  OutgoingMessage.of("content", null)));
+
+      assertThat(ids).containsExactly("id-1", "id-1", "id-2", "id-2");
+    }
+    verify(mockPublisher, times(3)).publish(any());
+  }
+
+  @Test
+  void openCircuitBreakerFailsFast() {
+    when(mockPublisher.publish(any()))
+        .thenReturn(ApiFutures.immediateFailedFuture(new RuntimeException("boom")));
+    var states = new ArrayList<CircuitState>();
+    var config =
+        new PubSubClientConfig()
+            .setCircuitBreaker(
+                new CircuitBreakerSettings(
+                    0.5, Duration.ofSeconds(1), 0.5, 10, 2, Duration.ofMinutes(1), 1))
+            .setMetricsListener(
+                new PublishMetricsListener() {
+                  @Override
+                  public void onCircuitStateChanged(String topic, CircuitState state) {
+                    states.add(state);
+                  }
+                });
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      assertThatException().isThrownBy(() -> client.publish("value", null));
+      assertThatException().isThrownBy(() -> client.publish("value", null));
+      assertThrows(CircuitBreakerOpenException.class, () -> client.publish("value", null));
+      assertThat(client.publishAsync(OutgoingMessage.of("value", null)))
+          .failsWithin(Duration.ofSeconds(1))
+          .withThrowableOfType(ExecutionException.class)
+          .havingCause()
+          .isInstanceOf(CircuitBreakerOpenException.class);
+    }
+    verify(mockPublisher, times(2)).publish(any());
+    assertThat(states).containsExactly(CircuitState.OPEN);
+  }
+
+  @Test
+  void hungPublishesOpenCircuitBreaker() throws InterruptedException {
+    when(mockPublisher.publish(any())).thenReturn(SettableApiFuture.create());
+    var config =
+        new PubSubClientConfig()
+            .setPublishTimeout(Duration.ofMillis(50))
+            .setCircuitBreaker(
+                new CircuitBreakerSettings(
+                    0.5, Duration.ofSeconds(1), 0.5, 10, 2, Duration.ofMinutes(1), 1));
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      assertThatException().isThrownBy(() -> client.publish("value", null));
+      assertThatException().isThrownBy(() -> client.publish("value", null));
+      // The breaker records the timeouts once the publish timeout passes.
+      Thread.sleep(100);
+      assertThrows(CircuitBreakerOpenException.class, () -> client.publish("value", null));
+    }
+  }
+
+  @Test
+  void publishTimeoutIsTakenFromConfig() {
+    when(mockPublisher.publish(any())).thenReturn(SettableApiFuture.create());
+    var config = new PubSubClientConfig().setPublishTimeout(Duration.ofMillis(50));
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      assertThatException()
+          .isThrownBy(() -> client.publish("value", null))
+          .withCauseInstanceOf(TimeoutException.class);
+    }
+  }
+
+  @Test
+  void largeBatchesAreSerializedInParallelAndSentInOrder() throws Exception {
+    // Message 500 fails to serialize, so later messages of its ordering key fail too.
+    var threads = ConcurrentHashMap.<Thread>newKeySet();
+    when(objectMapper.valueAsBytes(any()))
+        .thenAnswer(
+            invocation -> {
+              threads.add(Thread.currentThread());
+              var value = (TestPayload) invocation.getArgument(0);
+              if (value.key().equals("bad")) {
+                throw new IOException("boom");
+              }
+              return ByteBuffer.wrap(value.key().getBytes(UTF_8));
+            });
+    when(mockPublisher.publish(any())).thenReturn(ApiFutures.immediateFuture("id"));
+    var config =
+        new PubSubClientConfig()
+            .setMessageOrderingEnabled(true)
+            .setParallelSerializationThreshold(100);
+    var messages =
+        IntStream.range(0, 1000)
+            .mapToObj(
+                i ->
+                    OutgoingMessage.ordered(
+                        new TestPayload(i == 500 ? "bad" : String.valueOf(i)),
+                        null,
+                        "key-" + i % 2))
+            .toList();
+
+    try (var client = new PubSubClientImpl(ignored -> mockPublisher, objectMapper, config)) {
+      assertThatException()
+          .isThrownBy(() -> client.publishAll(messages))
+          .withMessage("Failed to publish 250 of 1000 messages");
+    }
+
+    var published = ArgumentCaptor.forClass(PubsubMessage.class);
+    verify(mockPublisher, times(750)).publish(published.capture());
+    assertThat(published.getAllValues())
+        .map(message -> message.getData().toStringUtf8())
+        .containsExactlyElementsOf(
+            IntStream.range(0, 1000)
+                .filter(i -> i % 2 == 1 || i < 500)
+                .mapToObj(String::valueOf)
+                .toList());
+    assertThat(threads).doesNotContain(Thread.currentThread());
+  }
+
+  @Test
+  void messageAttributesAreAttached() {
+    when(mockPublisher.publish(any())).thenReturn(ApiFutures.immediateFuture("id"));
+    var captor = ArgumentCaptor.forClass(PubsubMessage.class);
+    var attributes = MessageAttributes.of("type", "created").with("Tenant-Id", "t1");
+
+    try (PubSubClientImpl client = createClient()) {
+      client.publish("value", attributes);
+      client.publish("value", MessageAttributes.empty());
+    }
+
+    verify(mockPublisher, times(2)).publish(captor.capture());
+    assertThat(captor.getAllValues().get(0).getAttributesMap())
+        .containsOnly(Map.entry("type", "created"), Map.entry("Tenant-Id", "t1"));
+    assertThat(captor.getAllValues().get(1).getAttributesMap()).isEmpty();
+  }
+
   private PubSubClientImpl createClient() {
     return new PubSubClientImpl(() -> mockPublisher, objectMapper);
   }
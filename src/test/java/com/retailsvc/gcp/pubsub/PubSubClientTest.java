@@ -0,0 +1,61 @@
+package com.retailsvc.gcp.pubsub;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+
+class PubSubClientTest {
+
+  private final PubSubClient client = mock(PubSubClient.class, CALLS_REAL_METHODS);
+
+  @Test
+  void publishAsyncDefaultsToPublishAll() {
+    var message = OutgoingMessage.of("value", null);
+    when(client.publishAll(List.of(message))).thenReturn(List.of("id"));
+
+    assertThat(client.publishAsync(message)).succeedsWithin(1, SECONDS).isEqualTo("id");
+  }
+
+  @Test
+  void publishAllAsyncDefaultReportsFailuresThroughFuture() {
+    when(client.publishAll(any())).thenThrow(new PubSubClientException("boom"));
+
+    assertThat(client.publishAllAsync(List.of(OutgoingMessage.of("value", null))))
+        .failsWithin(1, SECONDS)
+        .withThrowableThat()
+        .havingCause()
+        .isInstanceOf(PubSubClientException.class);
+  }
+
+  @Test
+  void publishOrderedDefaultUsesScopeAsOrderingKey() {
+    client.publishOrdered("value", null, "tenant", "order-1");
+
+    verify(client).publishOrdered("value", null, "tenant");
+  }
+
+  @Test
+  void publishAsyncDefaultTimesOutAtDeadline() {
+    when(client.publishAll(any()))
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(1_000);
+              return List.of("id");
+            });
+
+    assertThat(client.publishAsync(OutgoingMessage.of("value", null), Duration.ofMillis(10)))
+        .failsWithin(1, SECONDS)
+        .withThrowableThat()
+        .havingRootCause()
+        .isInstanceOf(TimeoutException.class);
+  }
+}
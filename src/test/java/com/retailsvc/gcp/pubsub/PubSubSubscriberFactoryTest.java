@@ -0,0 +1,58 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PubSubSubscriberFactoryTest {
+
+  PubSubSubscriberFactory factory;
+
+  @BeforeEach
+  void setUp() {
+    System.setProperty(EmulatorRedirect.PUBSUB_EMULATOR_HOST, "localhost:8085");
+    factory = new PubSubSubscriberFactory();
+  }
+
+  @Test
+  void createsSubscriberOfSubscription() {
+    try (var client = factory.create("test", String.class, message -> {})) {
+      assertThat(client.subscription()).isEqualTo("projects/test-project/subscriptions/test");
+      assertThat(client.isRunning()).isFalse();
+    }
+  }
+
+  @Test
+  void configCanBeSet() {
+    factory.setSubscriberConfig(
+        new PubSubSubscriberConfig()
+            .setMaxOutstandingMessages(100)
+            .setMaxConcurrency(10)
+            .setParallelPullCount(2));
+    var client = factory.create("test", byte[].class, message -> {});
+
+    factory.close();
+
+    assertThatException().isThrownBy(client::start).isInstanceOf(PubSubClientException.class);
+  }
+
+  @Test
+  void createsBatchConsumerOfSubscription() {
+    var consumer = factory.createBatchConsumer("test", String.class, messages -> {});
+    assertThat(consumer.subscription()).isEqualTo("projects/test-project/subscriptions/test");
+
+    factory.close();
+
+    assertThatException().isThrownBy(consumer::drain).isInstanceOf(PubSubClientException.class);
+  }
+
+  @Test
+  void invalidConfigIsRejected() {
+    var config = new PubSubSubscriberConfig();
+    assertThatException()
+        .isThrownBy(() -> config.setMaxConcurrency(0))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
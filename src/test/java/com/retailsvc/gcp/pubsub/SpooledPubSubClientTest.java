@@ -0,0 +1,133 @@
+package com.retailsvc.gcp.pubsub;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class SpooledPubSubClientTest {
+
+  @TempDir Path directory;
+  @Mock UsageTrackingClient delegate;
+
+  @Test
+  void publishesSpooledMessagesInBackground() throws IOException {
+    var published = new CompletableFuture<String>();
+    when(delegate.publishAsync(any(OutgoingMessage.class))).thenReturn(published);
+
+    try (var client = createClient()) {
+      client.publishOrdered("value", Map.of("Tenant-Id", "t1"), "key");
+
+      var captor = ArgumentCaptor.forClass(OutgoingMessage.class);
+      verify(delegate, timeout(1_000)).publishAsync(captor.capture());
+      assertThat(captor.getValue().orderingKey()).isEqualTo("key");
+      assertThat(captor.getValue().attributes()).containsEntry("Tenant-Id", "t1");
+      published.complete("id");
+    }
+    verify(delegate).close();
+  }
+
+  @Test
+  void retriesFailedMessages() throws IOException {
+    when(delegate.publishAsync(any(OutgoingMessage.class)))
+        .thenReturn(
+            CompletableFuture.failedFuture(new PubSubClientException("unavailable")),
+            CompletableFuture.completedFuture("id"));
+
+    try (var client = createClient()) {
+      client.publishOrdered("value", null, "key");
+
+      verify(delegate, timeout(2_000).times(2)).publishAsync(any(OutgoingMessage.class));
+      verify(delegate).resumePublish("key");
+    }
+  }
+
+  @Test
+  void holdsBackLaterMessagesOfFailedOrderingKey() throws IOException {
+    var sent = new CopyOnWriteArrayList<String>();
+    var calls = new AtomicInteger();
+    when(delegate.publishAsync(any(OutgoingMessage.class)))
+        .thenAnswer(
+            invocation -> {
+              OutgoingMessage message = invocation.getArgument(0);
+              sent.add(((ByteString) message.payload()).toStringUtf8());
+              return calls.getAndIncrement() == 0
+                  ? CompletableFuture.failedFuture(new PubSubClientException("unavailable"))
+                  : CompletableFuture.completedFuture("id");
+            });
+
+    try (var client = createClient()) {
+      client.publishOrdered("first", null, "key");
+      client.publishOrdered("second", null, "key");
+      client.publishOrdered("third", null, "key");
+
+      verify(delegate, timeout(2_000).times(4)).publishAsync(any(OutgoingMessage.class));
+      assertThat(sent).containsExactly("first", "first", "second", "third");
+      verify(delegate).resumePublish("key");
+    }
+  }
+
+  @Test
+  void rejectsMessagesOnceDrainerFails() throws IOException {
+    when(delegate.publishAsync(any(OutgoingMessage.class)))
+        .thenThrow(new IllegalStateException("broken"));
+
+    try (var client = createClient()) {
+      client.publish("value", null);
+      verify(delegate, timeout(1_000)).publishAsync(any(OutgoingMessage.class));
+
+      assertThatThrownBy(
+              () -> {
+                // The drainer records its failure right after the call.
+                for (int i = 0; i < 100; i++) {
+                  client.publish("later", null);
+                  Thread.sleep(10);
+                }
+              })
+          .isInstanceOf(PubSubClientException.class)
+          .hasRootCauseMessage("broken");
+    }
+  }
+
+  @Test
+  void unpublishedMessagesSurviveRestart() throws IOException {
+    when(delegate.publishAsync(any(OutgoingMessage.class))).thenReturn(new CompletableFuture<>());
+    try (var client = createClient()) {
+      client.publish("value", null);
+      verify(delegate, timeout(1_000)).publishAsync(any(OutgoingMessage.class));
+    }
+
+    when(delegate.publishAsync(any(OutgoingMessage.class)))
+        .thenReturn(CompletableFuture.completedFuture("id"));
+    try (var ignored = createClient()) {
+      verify(delegate, timeout(1_000).times(2)).publishAsync(any(OutgoingMessage.class));
+    }
+  }
+
+  private SpooledPubSubClient createClient() throws IOException {
+    var settings =
+        new SpoolSettings(
+            directory, 1024, 1024 * 1024, FsyncPolicy.NEVER, Duration.ofSeconds(1), 10);
+    var config = new PubSubClientConfig().setSpool(settings);
+    return new SpooledPubSubClient(
+        delegate, null, config, new MessageSpool(directory, settings), BufferPool.defaultPool());
+  }
+}